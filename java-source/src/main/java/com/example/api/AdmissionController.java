@@ -0,0 +1,210 @@
+package com.example.api;
+
+import com.example.bean.FlowStatusBean;
+import com.example.service.FlowMetricsService;
+import net.corda.core.flows.NotaryError;
+import net.corda.core.flows.NotaryException;
+import net.corda.core.flows.UnexpectedFlowEndException;
+import net.corda.core.identity.CordaX500Name;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the flows this web server keeps running against each counterparty, so a slow node only holds up the loans
+ * that need it. The limit adapts to the counterparty (additive increase, multiplicative decrease): every flow that
+ * finishes within {@value #LATENCY_TOLERANCE} times the counterparty's usual latency raises the limit by about one per
+ * limit's worth of flows, and a slower one halves it, at most once per usual latency. So does a flow that failed
+ * because the counterparty or the notary did not cope: it timed out, the counterparty's side of it ended, or the
+ * notary failed for a reason other than a double spend. Flows that fail because the loan was refused leave the limit
+ * as it is. Requests over the limit are refused and the caller is told when to retry; bulk requests wait for a free
+ * slot instead.
+ */
+public class AdmissionController {
+
+    static final int INITIAL_LIMIT = 16;
+    static final int MIN_LIMIT = 1;
+    static final int MAX_LIMIT = 512;
+    static final double LATENCY_TOLERANCE = 2.0;
+    static final double BACKOFF = 0.5;
+    /** Weight of the newest flow in the counterparty's usual latency; small, so a slowdown does not become usual at once. */
+    static final double BASELINE_SMOOTHING = 0.05;
+
+    /** A started flow's claim on its counterparty's limit. */
+    public static class Permit {
+        private final Counterparty counterparty;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean handedBack = new AtomicBoolean();
+
+        Permit(Counterparty counterparty) {
+            this.counterparty = counterparty;
+        }
+
+        /** Hands the permit back when the flow finishes; its outcome and duration adjust the limit. */
+        public void releaseWhenDone(FlowTracker.TrackedFlow flow) {
+            if (!handedBack.compareAndSet(false, true)) {
+                return;
+            }
+            flow.getCompletion().whenComplete((status, error) -> {
+                final boolean succeeded = error == null && status.getStatus() == FlowStatusBean.Status.COMPLETED;
+                counterparty.finished(succeeded, !succeeded && congested(error != null ? error : flow.getFailure()), System.nanoTime() - startNanos);
+            });
+        }
+
+        /** Hands the permit back for a flow that finished with the given outcome and duration. */
+        void finished(boolean succeeded, boolean congested, long nanos) {
+            if (handedBack.compareAndSet(false, true)) {
+                counterparty.finished(succeeded, congested, nanos);
+            }
+        }
+
+        /** Hands the permit back without a measurement, when the flow never started; does nothing once handed back. */
+        public void cancel() {
+            if (handedBack.compareAndSet(false, true)) {
+                counterparty.cancelled();
+            }
+        }
+    }
+
+    private static class Counterparty {
+        private double limit = INITIAL_LIMIT;
+        private int inFlight;
+        private double baselineNanos;
+        private long lastDecreaseNanos;
+        private long rejected;
+
+        synchronized boolean acquire(long timeoutNanos) throws InterruptedException {
+            final long deadline = System.nanoTime() + timeoutNanos;
+            long remaining = timeoutNanos;
+            while (inFlight >= (int) limit) {
+                if (remaining <= 0) {
+                    rejected++;
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                remaining = deadline - System.nanoTime();
+            }
+            inFlight++;
+            return true;
+        }
+
+        synchronized void finished(boolean succeeded, boolean congested, long nanos) {
+            inFlight--;
+            final long now = System.nanoTime();
+            final boolean slow = succeeded && baselineNanos > 0 && nanos > LATENCY_TOLERANCE * baselineNanos;
+            if (congested || slow) {
+                // one decrease per usual latency, the flows started before the first one would only repeat it
+                if (lastDecreaseNanos == 0 || now - lastDecreaseNanos > baselineNanos) {
+                    limit = Math.max(MIN_LIMIT, limit * BACKOFF);
+                    lastDecreaseNanos = now;
+                }
+            } else if (succeeded) {
+                limit = Math.min(MAX_LIMIT, limit + 1 / limit);
+            }
+            if (succeeded) {
+                baselineNanos = baselineNanos == 0 ? nanos : baselineNanos + BASELINE_SMOOTHING * (nanos - baselineNanos);
+            }
+            notifyAll();
+        }
+
+        synchronized void cancelled() {
+            inFlight--;
+            notifyAll();
+        }
+
+        synchronized long retryAfterSeconds() {
+            return Math.max(1, (long) Math.ceil(baselineNanos / TimeUnit.SECONDS.toNanos(1)));
+        }
+    }
+
+    private final Map<CordaX500Name, Counterparty> counterparties = new ConcurrentHashMap<>();
+
+    /**
+     * Whether a flow failed because the counterparty or the notary did not cope rather than because the loan was
+     * refused.
+     */
+    static boolean congested(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TimeoutException || cause instanceof UnexpectedFlowEndException) {
+                return true;
+            }
+            if (cause instanceof NotaryException) {
+                return !(((NotaryException) cause).getError() instanceof NotaryError.Conflict);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a permit for one more flow with the counterparty, or null when its limit is reached.
+     */
+    public Permit tryAcquire(CordaX500Name counterparty) {
+        try {
+            return acquire(counterparty, 0, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Waits up to the timeout for a permit for one more flow with the counterparty; returns null if none came free.
+     */
+    public Permit acquire(CordaX500Name counterparty, long timeout, TimeUnit unit) throws InterruptedException {
+        final Counterparty state = counterparties.computeIfAbsent(counterparty, name -> new Counterparty());
+        return state.acquire(unit.toNanos(timeout)) ? new Permit(state) : null;
+    }
+
+    /** The counterparty's current limit, for tests. */
+    int limit(CordaX500Name counterparty) {
+        final Counterparty state = counterparties.get(counterparty);
+        if (state == null) {
+            return INITIAL_LIMIT;
+        }
+        synchronized (state) {
+            return (int) state.limit;
+        }
+    }
+
+    /**
+     * Seconds after which a refused request for the counterparty is worth retrying: its usual flow latency.
+     */
+    public long retryAfterSeconds(CordaX500Name counterparty) {
+        final Counterparty state = counterparties.get(counterparty);
+        return state == null ? 1 : state.retryAfterSeconds();
+    }
+
+    /**
+     * Writes the limit, the flows in flight and the refused requests of every counterparty in the Prometheus text
+     * format.
+     */
+    public void render(StringBuilder out) {
+        final Map<String, Counterparty> sorted = new TreeMap<>();
+        counterparties.forEach((name, state) -> sorted.put(FlowMetricsService.escape(name.toString()), state));
+        out.append("# HELP loan_web_admission_limit Flows the web server lets run at once against each counterparty.\n");
+        out.append("# TYPE loan_web_admission_limit gauge\n");
+        sorted.forEach((name, state) -> {
+            synchronized (state) {
+                out.append("loan_web_admission_limit{counterparty=\"").append(name).append("\"} ").append((int) state.limit).append('\n');
+            }
+        });
+        out.append("# HELP loan_web_admission_in_flight Flows running against each counterparty.\n");
+        out.append("# TYPE loan_web_admission_in_flight gauge\n");
+        sorted.forEach((name, state) -> {
+            synchronized (state) {
+                out.append("loan_web_admission_in_flight{counterparty=\"").append(name).append("\"} ").append(state.inFlight).append('\n');
+            }
+        });
+        out.append("# HELP loan_web_admission_rejected_total Requests refused because the counterparty's limit was reached.\n");
+        out.append("# TYPE loan_web_admission_rejected_total counter\n");
+        sorted.forEach((name, state) -> {
+            synchronized (state) {
+                out.append("loan_web_admission_rejected_total{counterparty=\"").append(name).append("\"} ").append(state.rejected).append('\n');
+            }
+        });
+    }
+}
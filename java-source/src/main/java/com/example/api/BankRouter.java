@@ -0,0 +1,152 @@
+package com.example.api;
+
+import com.example.service.FlowMetricsService;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.node.NodeInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Spreads loan applications that do not name a bank over every bank node on the network. Banks are placed on a
+ * consistent-hash ring, each at {@value #POINTS_PER_BANK} points, and an application goes to the bank that follows the
+ * hash of its company name. All applications of a company therefore reach the same bank, and when a bank joins or
+ * leaves only the companies on its arcs of the ring move.
+ *
+ * The ring is rebuilt from the {@link PartyCache} whenever the network map changes. Banks are the nodes whose
+ * organisation matches the system property {@value #BANK_PATTERN_PROPERTY} (default {@value #DEFAULT_BANK_PATTERN}).
+ */
+public class BankRouter {
+
+    public static final String BANK_PATTERN_PROPERTY = "loan.bankPattern";
+    static final String DEFAULT_BANK_PATTERN = "Bank.*";
+    static final int POINTS_PER_BANK = 160;
+
+    static private final Logger logger = LoggerFactory.getLogger(BankRouter.class);
+    static private final HashFunction HASH = Hashing.murmur3_128();
+
+    private final PartyCache partyCache;
+    private final Pattern bankPattern;
+    private final Map<CordaX500Name, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private final Map<CordaX500Name, AtomicLong> routed = new ConcurrentHashMap<>();
+    private volatile NavigableMap<Long, CordaX500Name> ring = new TreeMap<>();
+    private volatile Map<CordaX500Name, Double> shares = ImmutableMap.of();
+
+    public BankRouter(PartyCache partyCache) {
+        this.partyCache = partyCache;
+        this.bankPattern = Pattern.compile(System.getProperty(BANK_PATTERN_PROPERTY, DEFAULT_BANK_PATTERN));
+        partyCache.addListener(this::rebuild);
+        rebuild();
+    }
+
+    /**
+     * Returns the bank for the company's applications, or null when no bank is on the network.
+     */
+    public CordaX500Name route(String company) {
+        final NavigableMap<Long, CordaX500Name> current = ring;
+        if (current.isEmpty()) {
+            return null;
+        }
+        final Map.Entry<Long, CordaX500Name> next = current.ceilingEntry(hash(company.trim().toUpperCase(Locale.ROOT)));
+        final CordaX500Name bank = next != null ? next.getValue() : current.firstEntry().getValue();
+        routed.computeIfAbsent(bank, key -> new AtomicLong()).incrementAndGet();
+        return bank;
+    }
+
+    /**
+     * Counts the given number of applications as in flight at the bank until the flow carrying them has finished.
+     */
+    public void inFlight(CordaX500Name bank, int applications, CompletableFuture<?> completion) {
+        final AtomicInteger count = inFlight.computeIfAbsent(bank, key -> new AtomicInteger());
+        count.addAndGet(applications);
+        completion.whenComplete((result, error) -> count.addAndGet(-applications));
+    }
+
+    /**
+     * One entry per bank on the ring or with applications in flight: the share of the ring it owns, the
+     * applications routed to it and the applications in flight.
+     */
+    public List<Map<String, Object>> banks() {
+        final Map<CordaX500Name, Double> currentShares = shares;
+        final Map<String, CordaX500Name> names = new TreeMap<>();
+        currentShares.keySet().forEach(bank -> names.put(bank.toString(), bank));
+        inFlight.keySet().forEach(bank -> names.put(bank.toString(), bank));
+
+        final List<Map<String, Object>> banks = new ArrayList<>(names.size());
+        for (CordaX500Name bank : names.values()) {
+            banks.add(ImmutableMap.of(
+                    "name", bank.toString(),
+                    "ringShare", currentShares.getOrDefault(bank, 0.0),
+                    "routed", routed.getOrDefault(bank, new AtomicLong()).get(),
+                    "inFlight", inFlight.getOrDefault(bank, new AtomicInteger()).get()));
+        }
+        return banks;
+    }
+
+    /**
+     * Writes the in-flight applications and the routed totals per bank in the Prometheus text format.
+     */
+    public void render(StringBuilder out) {
+        final List<Map<String, Object>> banks = banks();
+        out.append("# HELP loan_web_bank_in_flight Loan applications sent by this web server and not finished yet, by bank.\n");
+        out.append("# TYPE loan_web_bank_in_flight gauge\n");
+        banks.forEach(bank -> out.append("loan_web_bank_in_flight{bank=\"").append(FlowMetricsService.escape(bank.get("name").toString())).append("\"} ")
+                .append(bank.get("inFlight")).append('\n'));
+        out.append("# HELP loan_web_bank_routed_total Loan applications routed to each bank by company name.\n");
+        out.append("# TYPE loan_web_bank_routed_total counter\n");
+        banks.forEach(bank -> out.append("loan_web_bank_routed_total{bank=\"").append(FlowMetricsService.escape(bank.get("name").toString())).append("\"} ")
+                .append(bank.get("routed")).append('\n'));
+    }
+
+    private void rebuild() {
+        final List<CordaX500Name> banks = new ArrayList<>();
+        for (NodeInfo node : partyCache.nodes()) {
+            final CordaX500Name name = node.getLegalIdentities().get(0).getName();
+            if (bankPattern.matcher(name.getOrganisation()).matches()) {
+                banks.add(name);
+            }
+        }
+
+        final NavigableMap<Long, CordaX500Name> rebuilt = new TreeMap<>();
+        for (CordaX500Name bank : banks) {
+            for (int point = 0; point < POINTS_PER_BANK; point++) {
+                rebuilt.put(hash(bank.toString() + '#' + point), bank);
+            }
+        }
+
+        // each point owns the arc from the point before it, the first one also owns the wrap-around
+        final Map<CordaX500Name, Double> arcs = new HashMap<>();
+        Long previous = rebuilt.isEmpty() ? null : rebuilt.lastKey();
+        for (Map.Entry<Long, CordaX500Name> point : rebuilt.entrySet()) {
+            final long distance = point.getKey() - previous; // wraps around, read as unsigned
+            final double arc = rebuilt.size() == 1 ? 1 : (distance >= 0 ? distance : distance + 0x1p64) / 0x1p64;
+            arcs.merge(point.getValue(), arc, Double::sum);
+            previous = point.getKey();
+        }
+
+        ring = rebuilt;
+        shares = ImmutableMap.copyOf(arcs);
+        logger.info("Routing loan applications over {} banks: {}", banks.size(), ImmutableList.copyOf(banks));
+    }
+
+    private static long hash(String key) {
+        return HASH.hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+}
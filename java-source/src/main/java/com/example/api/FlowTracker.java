@@ -0,0 +1,197 @@
+package com.example.api;
+
+import com.example.bean.FlowStatusBean;
+import com.google.common.util.concurrent.Striped;
+import net.corda.core.messaging.FlowProgressHandle;
+import net.corda.core.transactions.SignedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Keeps track of the flows started through the REST API so that callers do not have to hold a request open while
+ * signatures are collected and the transaction is notarised. Progress steps and the final transaction id are taken
+ * from the {@link FlowProgressHandle} returned by the RPC client.
+ *
+ * Flows that consume a state can be started through {@link #trackExclusive}, which keeps a second flow for the same
+ * input from starting while the first is still running. The second flow would only collect signatures to be
+ * rejected by the notary, so the caller gets the running flow back instead.
+ */
+public class FlowTracker {
+
+    /** Number of finished flows kept for status lookups before the oldest are forgotten. */
+    static final int MAX_FINISHED_FLOWS = 10000;
+
+    static private final Logger logger = LoggerFactory.getLogger(FlowTracker.class);
+
+    private final Map<String, TrackedFlow> flows = new ConcurrentHashMap<>();
+    private final Queue<String> finishedRunIds = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger finishedCount = new AtomicInteger();
+    private final Map<Object, String> runningByInput = new ConcurrentHashMap<>();
+    private final Striped<Lock> inputLocks = Striped.lock(64);
+
+    /**
+     * A flow followed by the tracker: its status and a future that completes once it has finished. The future stays
+     * valid after the flow has been evicted from status lookups.
+     */
+    public static class TrackedFlow {
+        private final FlowStatusBean status;
+        private final CompletableFuture<FlowStatusBean> done = new CompletableFuture<>();
+        private volatile Throwable failure;
+
+        TrackedFlow(FlowStatusBean status) {
+            this.status = status;
+        }
+
+        public FlowStatusBean getStatus() {
+            return status;
+        }
+
+        public CompletableFuture<FlowStatusBean> getCompletion() {
+            return done;
+        }
+
+        /** Why the flow failed, once it has; null while it runs or when it completed. */
+        public Throwable getFailure() {
+            return failure;
+        }
+    }
+
+    /** The outcome of {@link #trackExclusive}: the flow started, or the one already running for the same input. */
+    public static class ExclusiveStart {
+        private final TrackedFlow flow;
+        private final boolean started;
+
+        ExclusiveStart(TrackedFlow flow, boolean started) {
+            this.flow = flow;
+            this.started = started;
+        }
+
+        public FlowStatusBean getStatus() {
+            return flow.status;
+        }
+
+        public TrackedFlow getFlow() {
+            return flow;
+        }
+
+        public CompletableFuture<FlowStatusBean> getCompletion() {
+            return flow.done;
+        }
+
+        public boolean isStarted() {
+            return started;
+        }
+    }
+
+    /**
+     * Starts following the given flow. Progress updates and completion are recorded asynchronously, the caller is
+     * never blocked.
+     */
+    public TrackedFlow track(FlowProgressHandle<SignedTransaction> handle, String flowName) {
+        return follow(handle, flowName);
+    }
+
+    private TrackedFlow follow(FlowProgressHandle<SignedTransaction> handle, String flowName) {
+        final String runId = handle.getId().getUuid().toString();
+        final TrackedFlow tracked = new TrackedFlow(new FlowStatusBean(runId, flowName));
+        flows.put(runId, tracked);
+
+        if (handle.getProgress() != null) {
+            handle.getProgress().subscribe(tracked.status::setCurrentStep, error -> { });
+        }
+
+        handle.getReturnValue().then(future -> {
+            try {
+                tracked.status.completed(future.get().getId().toString());
+            } catch (ExecutionException ex) {
+                final Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                logger.error("Flow " + runId + " failed", cause);
+                tracked.failure = cause;
+                tracked.status.failed(cause.getMessage());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                tracked.failure = ex;
+                tracked.status.failed(ex.getMessage());
+            }
+            finished(runId);
+            tracked.done.complete(tracked.status);
+            return null;
+        });
+        return tracked;
+    }
+
+    /**
+     * Starts and tracks a flow that consumes the given inputs, usually their linear ids, unless a flow started here
+     * for one of them is still running. The check and the start happen under per-input locks, so two requests for
+     * the same input cannot both start a flow.
+     */
+    public ExclusiveStart trackExclusive(Collection<?> inputs, String flowName, Callable<FlowProgressHandle<SignedTransaction>> start) throws Exception {
+        final Iterable<Lock> locks = inputLocks.bulkGet(inputs);
+        for (Lock lock : locks) {
+            lock.lock();
+        }
+        try {
+            for (Object input : inputs) {
+                final String running = runningByInput.get(input);
+                final TrackedFlow tracked = running == null ? null : flows.get(running);
+                if (tracked != null && tracked.status.getStatus() == FlowStatusBean.Status.RUNNING) {
+                    return new ExclusiveStart(tracked, false);
+                }
+            }
+            final TrackedFlow tracked = follow(start.call(), flowName);
+            final String runId = tracked.status.getRunId();
+            for (Object input : inputs) {
+                runningByInput.put(input, runId);
+            }
+            tracked.done.thenRun(() -> {
+                for (Object input : inputs) {
+                    runningByInput.remove(input, runId);
+                }
+            });
+            return new ExclusiveStart(tracked, true);
+        } finally {
+            for (Lock lock : locks) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the status of the flow with the given run id, or null if it was never started here or has been evicted.
+     */
+    public FlowStatusBean get(String runId) {
+        final TrackedFlow tracked = flows.get(runId);
+        return tracked == null ? null : tracked.status;
+    }
+
+    /**
+     * Returns a future that completes once the given flow has finished, or null if it was never started here or has
+     * been evicted. Callers that started the flow use the future {@link #track} or {@link #trackExclusive} returned.
+     */
+    public CompletableFuture<FlowStatusBean> completion(String runId) {
+        final TrackedFlow tracked = flows.get(runId);
+        return tracked == null ? null : tracked.done;
+    }
+
+    private void finished(String runId) {
+        finishedRunIds.add(runId);
+        if (finishedCount.incrementAndGet() > MAX_FINISHED_FLOWS) {
+            final String evicted = finishedRunIds.poll();
+            if (evicted != null) {
+                finishedCount.decrementAndGet();
+                flows.remove(evicted);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.api;
+
+import com.example.schema.LoanRequestSchemaV1;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.MAX_PAGE_SIZE;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
+
+/**
+ * Totals of the loan requests in the vault per company, per bank or per eligibility, computed by the node's database
+ * over the columns of {@link LoanRequestSchemaV1} so only one row per group crosses the RPC connection.
+ *
+ * The node returns aggregates as a flat list of values: for each group the amount total and the loan count in that
+ * order, with the value of the group column among them. The average is worked out here from the two, a database
+ * average of an integer column is truncated on some databases.
+ */
+public class LoanAggregateQuery {
+
+    public enum GroupBy {
+        COMPANY("companyKey"), BANK("bankParty"), ELIGIBLE("eligible");
+
+        private final String field;
+
+        GroupBy(String field) {
+            this.field = field;
+        }
+    }
+
+    /** Values per group: the amount total, the loan count and the group column. */
+    static private final int VALUES_PER_GROUP = 3;
+
+    private final GroupBy groupBy;
+    private final Vault.StateStatus status;
+
+    public LoanAggregateQuery(String groupBy, String status) {
+        try {
+            this.groupBy = GroupBy.valueOf(groupBy.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException | NullPointerException ex) {
+            throw new IllegalArgumentException("parameter 'groupBy' must be one of company, bank or eligible.");
+        }
+        this.status = LoanStateQuery.parseStatus(status);
+    }
+
+    /**
+     * The amount total per group, largest first, and the number of loans in each group.
+     */
+    @SuppressWarnings("unchecked")
+    public QueryCriteria criteria() {
+        final Class<?> entity = LoanRequestSchemaV1.PersistentLoanRequest.class;
+        final QueryCriteria total = new QueryCriteria.VaultCustomQueryCriteria(Builder.sum(getField("amount", entity),
+                ImmutableList.of(getField(groupBy.field, entity)), Sort.Direction.DESC), status);
+        // counted per group too, the query is grouped by the column of the total
+        final QueryCriteria count = new QueryCriteria.VaultCustomQueryCriteria(Builder.count(getField("amount", entity)), status);
+        return total.and(count);
+    }
+
+    /**
+     * Aggregates come back as values rather than states, one row per group; asking for as many rows as a page holds
+     * keeps the node from refusing an unpaged query.
+     */
+    public PageSpecification paging() {
+        return new PageSpecification(1, MAX_PAGE_SIZE);
+    }
+
+    public Sort sorting() {
+        return new Sort(Collections.emptySet());
+    }
+
+    /**
+     * One entry per group with its value, the number of loans, the amount total and the average amount.
+     */
+    public List<Map<String, Object>> groups(List<Object> values) {
+        if (values.size() % VALUES_PER_GROUP != 0) {
+            throw new IllegalStateException("Expected " + VALUES_PER_GROUP + " values per group, got " + values.size() + " values.");
+        }
+        final List<Map<String, Object>> groups = new ArrayList<>(values.size() / VALUES_PER_GROUP);
+        for (int row = 0; row < values.size(); row += VALUES_PER_GROUP) {
+            Object group = null;
+            final List<Number> aggregates = new ArrayList<>(2);
+            for (Object value : values.subList(row, row + VALUES_PER_GROUP)) {
+                if (value instanceof Number) {
+                    aggregates.add((Number) value);
+                } else {
+                    group = value;
+                }
+            }
+            final long total = aggregates.get(0).longValue();
+            final long count = aggregates.get(1).longValue();
+            groups.add(ImmutableMap.of(
+                    groupBy.name().toLowerCase(Locale.ROOT), group == null ? "" : group,
+                    "count", count,
+                    "totalAmount", total,
+                    "averageAmount", count == 0 ? 0.0 : (double) total / count));
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,397 @@
+package com.example.api;
+
+import com.example.flow.SerializedTransactionsFlow;
+import com.example.state.LoanRequestState;
+import com.example.state.LoanVerificationState;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.QueryCriteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Copies consumed loan states, with the transactions that produced them, out of the node into compressed, append-only
+ * segment files, so the history of a loan can still be served once the node no longer has to keep it at hand.
+ *
+ * States are read by consumed time and state ref, and the progress file keeps, per state type, the last state
+ * archived, so a run picks up after it rather than checking each state against what is archived already. A segment is
+ * a series of gzip members of up to {@value #RECORDS_PER_BLOCK} records, one JSON object per line. The index lists, for
+ * the linear id of each archived state and of the loan request it belongs to, the segment, offset and length of the
+ * block holding it, so a lookup decompresses only the blocks of that loan. It is split by linear id over
+ * {@value #INDEX_FILES} files that stay on disk; a lookup reads the one its linear id falls in. Blocks and their index
+ * lines are synced before the progress moves past them; states whose progress was lost in a crash are simply archived
+ * again, and a lookup returns each state once.
+ *
+ * The directory is set with the system property {@value #DIRECTORY_PROPERTY} (default {@value #DEFAULT_DIRECTORY}).
+ */
+public class LoanArchive {
+
+    public static final String DIRECTORY_PROPERTY = "loan.archive.dir";
+    public static final String RETENTION_DAYS_PROPERTY = "loan.archive.retentionDays";
+    static final String DEFAULT_DIRECTORY = "loan-archive";
+    static final int DEFAULT_RETENTION_DAYS = 365;
+    static final int PAGE_SIZE = 500;
+    static final int RECORDS_PER_BLOCK = 256;
+    static final long MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+    static final int INDEX_FILES = 64;
+    static private final String INDEX_FORMAT = "index-%02d.tsv";
+    static private final String PROGRESS_FILE = "progress.tsv";
+    static private final String ARCHIVED_STATES = "archivedStates";
+    static private final String SEGMENT_FORMAT = "segment-%06d.ndjson.gz";
+
+    static private final Logger logger = LoggerFactory.getLogger(LoanArchive.class);
+
+    /** Where a block of archived records sits. */
+    private static class Location {
+        final String segment;
+        final long offset;
+        final int length;
+
+        Location(String segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Location && ((Location) other).segment.equals(segment) && ((Location) other).offset == offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return segment.hashCode() * 31 + Long.hashCode(offset);
+        }
+    }
+
+    private final CordaRPCOps rpcOps;
+    private final ObjectMapper mapper;
+    private final File directory;
+    private final Duration retention;
+    private final ReentrantLock running = new ReentrantLock();
+    /** The last state archived of each type, keyed by the record type. */
+    private final Map<String, LoanChanges.Mark> archivedUpTo = new ConcurrentHashMap<>();
+    private volatile long archivedStates;
+    private int segmentNumber = 1;
+    private volatile Instant lastRun;
+
+    public LoanArchive(CordaRPCOps rpcOps, ObjectMapper mapper) {
+        this.rpcOps = rpcOps;
+        this.mapper = mapper;
+        this.directory = new File(System.getProperty(DIRECTORY_PROPERTY, DEFAULT_DIRECTORY));
+        this.retention = Duration.ofDays(Long.getLong(RETENTION_DAYS_PROPERTY, DEFAULT_RETENTION_DAYS));
+        try {
+            loadProgress();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot read the loan archive in " + directory.getAbsolutePath(), ex);
+        }
+    }
+
+    /**
+     * The default cut-off: states consumed longer ago than the retention period.
+     */
+    public Instant defaultCutoff() {
+        return Instant.now().minus(retention);
+    }
+
+    /**
+     * Archives every loan state consumed before the cut-off that is not archived yet. Returns how many states of each
+     * type were archived, or null when an archive run is already in progress.
+     */
+    public Map<String, Object> archive(Instant cutoff) throws IOException {
+        if (!running.tryLock()) {
+            return null;
+        }
+        try {
+            final long requests = archiveType(LoanRequestState.class, "request", cutoff);
+            final long verifications = archiveType(LoanVerificationState.class, "verification", cutoff);
+            lastRun = Instant.now();
+            logger.info("Archived {} loan requests and {} credit checks consumed before {}", requests, verifications, cutoff);
+            return ImmutableMap.of(
+                    "before", cutoff.toString(),
+                    "loanRequestStates", requests,
+                    "loanVerificationStates", verifications);
+        } finally {
+            running.unlock();
+        }
+    }
+
+    /**
+     * Every archived version of the state with the given linear id, and for a loan request also those of its credit
+     * checks, oldest block first. The serialised transactions are left out unless asked for.
+     */
+    public List<JsonNode> history(String linearId, boolean withTransactions) throws IOException {
+        final List<JsonNode> records = new ArrayList<>();
+        final Set<String> stateRefs = new HashSet<>();
+        for (Location location : locations(linearId)) {
+            for (JsonNode record : readBlock(location)) {
+                final boolean belongs = linearId.equals(record.path("linearId").asText()) || linearId.equals(record.path("loanLinearId").asText());
+                // a state archived again after a crash is in two blocks
+                if (belongs && stateRefs.add(record.path("stateRef").asText())) {
+                    if (!withTransactions) {
+                        ((ObjectNode) record).remove("transaction");
+                    }
+                    records.add(record);
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * The archive directory, its segments and the number of archived states.
+     */
+    public Map<String, Object> summary() {
+        final File[] segments = directory.listFiles((dir, name) -> name.startsWith("segment-"));
+        long bytes = 0;
+        for (File segment : segments == null ? new File[0] : segments) {
+            bytes += segment.length();
+        }
+        return ImmutableMap.of(
+                "directory", directory.getAbsolutePath(),
+                "segments", segments == null ? 0 : segments.length,
+                "bytes", bytes,
+                "archivedStates", archivedStates,
+                "lastRun", lastRun == null ? "" : lastRun.toString());
+    }
+
+    private <T extends ContractState> long archiveType(Class<T> stateType, String type, Instant cutoff) throws IOException {
+        final long[] archived = {0};
+        LoanVaultPager.forEachPage(rpcOps, stateType, Vault.StateStatus.CONSUMED, QueryCriteria.TimeInstantType.CONSUMED,
+                archivedUpTo.getOrDefault(type, LoanChanges.Mark.START), cutoff, PAGE_SIZE, (states, metadata) -> {
+                    final List<SecureHash> transactionIds = states.stream()
+                            .map(state -> state.getRef().getTxhash())
+                            .distinct()
+                            .collect(toList());
+                    final Map<SecureHash, byte[]> transactions = fetchTransactions(transactionIds);
+
+                    final List<ObjectNode> records = new ArrayList<>(states.size());
+                    for (int i = 0; i < states.size(); i++) {
+                        records.add(record(type, states.get(i), metadata.get(i), transactions.get(states.get(i).getRef().getTxhash())));
+                    }
+                    final Map<Integer, StringBuilder> indexLines = new TreeMap<>();
+                    for (int from = 0; from < records.size(); from += RECORDS_PER_BLOCK) {
+                        writeBlock(records.subList(from, Math.min(records.size(), from + RECORDS_PER_BLOCK)), indexLines);
+                    }
+                    writeIndexLines(indexLines);
+
+                    final StateAndRef<T> last = states.get(states.size() - 1);
+                    archivedUpTo.put(type, new LoanChanges.Mark(metadata.get(states.size() - 1).getConsumedTime(),
+                            last.getRef().getTxhash().toString(), last.getRef().getIndex()));
+                    archivedStates += states.size();
+                    saveProgress();
+                    archived[0] += states.size();
+                });
+        return archived[0];
+    }
+
+    private Map<SecureHash, byte[]> fetchTransactions(List<SecureHash> transactionIds) throws IOException {
+        try {
+            final List<byte[]> serialised = rpcOps.startFlowDynamic(SerializedTransactionsFlow.class, transactionIds).getReturnValue().get();
+            final Map<SecureHash, byte[]> transactions = new HashMap<>();
+            for (int i = 0; i < transactionIds.size(); i++) {
+                transactions.put(transactionIds.get(i), serialised.get(i));
+            }
+            return transactions;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching transactions to archive", ex);
+        } catch (Exception ex) {
+            throw new IOException("Cannot fetch transactions to archive: " + ex.getMessage(), ex);
+        }
+    }
+
+    private ObjectNode record(String type, StateAndRef<?> state, Vault.StateMetadata metadata, byte[] transaction) {
+        final ContractState data = state.getState().getData();
+        final ObjectNode record = mapper.createObjectNode();
+        record.put("type", type);
+        if (data instanceof LoanRequestState) {
+            record.put("linearId", ((LoanRequestState) data).getLinearId().getId().toString());
+        } else if (data instanceof LoanVerificationState) {
+            final LoanVerificationState verification = (LoanVerificationState) data;
+            record.put("linearId", verification.getLinearId().getId().toString());
+            if (verification.getLinearIdLoanReq() != null) {
+                record.put("loanLinearId", verification.getLinearIdLoanReq().getId().toString());
+            }
+        }
+        record.put("stateRef", state.getRef().toString());
+        record.put("recordedTime", metadata.getRecordedTime().toString());
+        record.put("consumedTime", metadata.getConsumedTime() == null ? null : metadata.getConsumedTime().toString());
+        record.set("state", mapper.valueToTree(state));
+        record.put("transaction", Base64.getEncoder().encodeToString(transaction));
+        return record;
+    }
+
+    /** Writes and syncs the block, adding its index lines to those of each index file. */
+    private void writeBlock(List<ObjectNode> records, Map<Integer, StringBuilder> indexLines) throws IOException {
+        final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(block), StandardCharsets.UTF_8)) {
+            for (ObjectNode record : records) {
+                writer.write(mapper.writeValueAsString(record));
+                writer.write('\n');
+            }
+        }
+
+        File segment = segmentFile(segmentNumber);
+        if (segment.length() + block.size() > MAX_SEGMENT_BYTES && segment.length() > 0) {
+            segment = segmentFile(++segmentNumber);
+        }
+        final long offset = segment.length();
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            block.writeTo(out);
+            out.getChannel().force(true);
+        }
+
+        for (ObjectNode record : records) {
+            final String stateRef = record.get("stateRef").asText();
+            for (String key : keys(record)) {
+                indexLines.computeIfAbsent(indexFileNumber(key), file -> new StringBuilder())
+                        .append(key).append('\t').append(stateRef).append('\t').append(segment.getName()).append('\t')
+                        .append(offset).append('\t').append(block.size()).append('\n');
+            }
+        }
+    }
+
+    private void writeIndexLines(Map<Integer, StringBuilder> indexLines) throws IOException {
+        for (Map.Entry<Integer, StringBuilder> lines : indexLines.entrySet()) {
+            try (FileOutputStream out = new FileOutputStream(indexFile(lines.getKey()), true)) {
+                out.write(lines.getValue().toString().getBytes(StandardCharsets.UTF_8));
+                out.getChannel().force(true);
+            }
+        }
+    }
+
+    /** The blocks holding states of the given linear id, read from its index file. */
+    private Set<Location> locations(String linearId) throws IOException {
+        final Set<Location> locations = new LinkedHashSet<>();
+        final File file = indexFile(indexFileNumber(linearId));
+        if (!file.exists()) {
+            return locations;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split("\t");
+                // a line cut short by a crash is skipped, its block is archived again
+                if (fields.length == 5 && fields[0].equals(linearId)) {
+                    locations.add(new Location(fields[2], Long.parseLong(fields[3]), Integer.parseInt(fields[4])));
+                }
+            }
+        }
+        return locations;
+    }
+
+    private static int indexFileNumber(String linearId) {
+        return Math.floorMod(linearId.hashCode(), INDEX_FILES);
+    }
+
+    private File indexFile(int number) {
+        return new File(directory, String.format(INDEX_FORMAT, number));
+    }
+
+    private static List<String> keys(JsonNode record) {
+        final List<String> keys = new ArrayList<>(2);
+        keys.add(record.get("linearId").asText());
+        if (record.hasNonNull("loanLinearId")) {
+            keys.add(record.get("loanLinearId").asText());
+        }
+        return keys;
+    }
+
+    private List<JsonNode> readBlock(Location location) throws IOException {
+        final List<JsonNode> records = new ArrayList<>();
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, location.segment), "r")) {
+            file.seek(location.offset);
+            final InputStream block = ByteStreams.limit(Channels.newInputStream(file.getChannel()), location.length);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(block), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    records.add(mapper.readTree(line));
+                }
+            }
+        }
+        return records;
+    }
+
+    private File segmentFile(int number) {
+        return new File(directory, String.format(SEGMENT_FORMAT, number));
+    }
+
+    private void saveProgress() throws IOException {
+        final StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, LoanChanges.Mark> mark : archivedUpTo.entrySet()) {
+            contents.append(mark.getKey()).append('\t').append(mark.getValue().time).append('\t')
+                    .append(mark.getValue().txId).append('\t').append(mark.getValue().index).append('\n');
+        }
+        contents.append(ARCHIVED_STATES).append('\t').append(archivedStates).append('\n');
+        // written aside and moved over the old one, an interruption leaves either version whole
+        final File progress = new File(directory, PROGRESS_FILE);
+        final File written = new File(directory, PROGRESS_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(written)) {
+            out.write(contents.toString().getBytes(StandardCharsets.UTF_8));
+            out.getChannel().force(true);
+        }
+        Files.move(written.toPath(), progress.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void loadProgress() throws IOException {
+        Files.createDirectories(directory.toPath());
+        final File[] segments = directory.listFiles((dir, name) -> name.startsWith("segment-"));
+        for (File segment : segments == null ? new File[0] : segments) {
+            segmentNumber = Math.max(segmentNumber, Integer.parseInt(segment.getName().replaceAll("\\D", "")));
+        }
+        final File progress = new File(directory, PROGRESS_FILE);
+        if (!progress.exists()) {
+            return;
+        }
+        for (String line : Files.readAllLines(progress.toPath(), StandardCharsets.UTF_8)) {
+            final String[] fields = line.split("\t");
+            if (fields.length == 2 && fields[0].equals(ARCHIVED_STATES)) {
+                archivedStates = Long.parseLong(fields[1]);
+            } else if (fields.length == 4) {
+                archivedUpTo.put(fields[0], new LoanChanges.Mark(Instant.parse(fields[1]), fields[2], Integer.parseInt(fields[3])));
+            }
+        }
+        logger.info("Loan archive in {} holds {} states", directory.getAbsolutePath(), archivedStates);
+    }
+}
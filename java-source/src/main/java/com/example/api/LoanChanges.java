@@ -0,0 +1,192 @@
+package com.example.api;
+
+import com.example.state.LoanRequestState;
+import com.example.state.LoanVerificationState;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.LinearState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.ColumnPredicate;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The loan states produced or consumed since a consumer last asked, so a downstream copy is kept in sync by fetching
+ * only what changed. The consumer's position is an opaque cursor holding two high-water marks, the recorded time of the
+ * last produced state it received and the consumed time of the last consumed one, each with the state ref as a
+ * tie-break for states recorded or consumed at the same instant.
+ *
+ * States only show up once they are {@value #SETTLE_MILLIS} ms old, so a transaction committed a moment after a later
+ * one it was timed before is not skipped by a cursor that has already moved past it.
+ */
+public class LoanChanges {
+
+    static final long SETTLE_MILLIS = 2000;
+
+    static private final Set<Class<? extends ContractState>> STATE_TYPES = ImmutableSet.of(LoanRequestState.class, LoanVerificationState.class);
+    static private final String CURSOR_VERSION = "1";
+
+    /** A position in one of the two change streams: a time and the last state ref at that time. */
+    static final class Mark {
+        static final Mark START = new Mark(Instant.EPOCH, "", -1);
+
+        final Instant time;
+        final String txId;
+        final int index;
+
+        Mark(Instant time, String txId, int index) {
+            this.time = time;
+            this.txId = txId;
+            this.index = index;
+        }
+
+        /** Whether a state at this time and ref is at or before the mark, in the order the vault sorts them. */
+        boolean covers(Instant stateTime, String stateTxId, int stateIndex) {
+            if (!stateTime.equals(time)) {
+                return stateTime.isBefore(time);
+            }
+            final int byTx = stateTxId.compareTo(txId);
+            return byTx < 0 || byTx == 0 && stateIndex <= index;
+        }
+    }
+
+    /** Where a consumer is in the produced and the consumed states. */
+    public static final class Cursor {
+        static final Cursor START = new Cursor(Mark.START, Mark.START);
+
+        final Mark recorded;
+        final Mark consumed;
+
+        Cursor(Mark recorded, Mark consumed) {
+            this.recorded = recorded;
+            this.consumed = consumed;
+        }
+
+        /**
+         * Reads a cursor returned by an earlier call; none means from the beginning.
+         */
+        public static Cursor parse(String cursor) {
+            if (cursor == null || cursor.isEmpty()) {
+                return START;
+            }
+            try {
+                final String[] fields = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", -1);
+                if (fields.length != 7 || !fields[0].equals(CURSOR_VERSION)) {
+                    throw new IllegalArgumentException();
+                }
+                return new Cursor(
+                        new Mark(Instant.parse(fields[1]), fields[2], Integer.parseInt(fields[3])),
+                        new Mark(Instant.parse(fields[4]), fields[5], Integer.parseInt(fields[6])));
+            } catch (IllegalArgumentException | DateTimeParseException ex) {
+                throw new IllegalArgumentException("parameter 'since' is not a cursor returned by this API.");
+            }
+        }
+
+        public String encode() {
+            final String fields = String.join("|", CURSOR_VERSION,
+                    recorded.time.toString(), recorded.txId, String.valueOf(recorded.index),
+                    consumed.time.toString(), consumed.txId, String.valueOf(consumed.index));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(fields.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** The states of one change stream after a mark, and the mark after them. */
+    private static final class Section {
+        final List<Map<String, Object>> changes = new ArrayList<>();
+        Mark next;
+        boolean more;
+    }
+
+    private final CordaRPCOps rpcOps;
+
+    public LoanChanges(CordaRPCOps rpcOps) {
+        this.rpcOps = rpcOps;
+    }
+
+    /**
+     * Up to 'limit' states produced and up to 'limit' states consumed after the cursor, oldest first, with the cursor
+     * to send next time and whether more changes are waiting.
+     */
+    public Map<String, Object> since(Cursor cursor, int limit) {
+        final Instant until = Instant.now().minus(Duration.ofMillis(SETTLE_MILLIS));
+        final Section produced = section(QueryCriteria.TimeInstantType.RECORDED, cursor.recorded, until, limit);
+        final Section consumed = section(QueryCriteria.TimeInstantType.CONSUMED, cursor.consumed, until, limit);
+        return ImmutableMap.of(
+                "produced", produced.changes,
+                "consumed", consumed.changes,
+                "next", new Cursor(produced.next, consumed.next).encode(),
+                "more", produced.more || consumed.more);
+    }
+
+    private Section section(QueryCriteria.TimeInstantType type, Mark after, Instant until, int limit) {
+        final boolean recorded = type == QueryCriteria.TimeInstantType.RECORDED;
+        final Section section = new Section();
+        section.next = after;
+        if (!until.isAfter(after.time)) {
+            return section;
+        }
+
+        // from the mark itself, the states at its instant that the consumer has already seen are dropped below
+        final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(
+                recorded ? Vault.StateStatus.ALL : Vault.StateStatus.CONSUMED, STATE_TYPES, null, null, null,
+                new QueryCriteria.TimeCondition(type, new ColumnPredicate.Between<>(after.time, until)));
+        final Sort sort = new Sort(ImmutableList.of(
+                new Sort.SortColumn(new SortAttribute.Standard(recorded ? Sort.VaultStateAttribute.RECORDED_TIME : Sort.VaultStateAttribute.CONSUMED_TIME), Sort.Direction.ASC),
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+
+        long seen = 0;
+        for (int page = 1; ; page++) {
+            final Vault.Page<ContractState> result = rpcOps.vaultQueryBy(criteria, new PageSpecification(page, limit), sort, ContractState.class);
+            for (int i = 0; i < result.getStates().size(); i++) {
+                final StateAndRef<ContractState> state = result.getStates().get(i);
+                final Vault.StateMetadata metadata = result.getStatesMetadata().get(i);
+                final Instant time = recorded ? metadata.getRecordedTime() : metadata.getConsumedTime();
+                final String txId = state.getRef().getTxhash().toString();
+                final int index = state.getRef().getIndex();
+                if (after.covers(time, txId, index)) {
+                    continue;
+                }
+                if (section.changes.size() == limit) {
+                    section.more = true;
+                    return section;
+                }
+                section.changes.add(recorded ? produced(state, time) : consumed(state, time));
+                section.next = new Mark(time, txId, index);
+            }
+            seen += result.getStates().size();
+            if (result.getStates().isEmpty() || seen >= result.getTotalStatesAvailable()) {
+                return section;
+            }
+        }
+    }
+
+    private static Map<String, Object> produced(StateAndRef<ContractState> state, Instant recordedTime) {
+        return ImmutableMap.of("recordedTime", recordedTime.toString(), "state", state);
+    }
+
+    private static Map<String, Object> consumed(StateAndRef<ContractState> state, Instant consumedTime) {
+        final ContractState data = state.getState().getData();
+        return ImmutableMap.of(
+                "consumedTime", consumedTime.toString(),
+                "stateRef", state.getRef().toString(),
+                "type", data.getClass().getSimpleName(),
+                "linearId", data instanceof LinearState ? ((LinearState) data).getLinearId().toString() : "");
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.api;
+
+import com.example.bean.LoanEventBean;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.node.services.Vault;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns vault updates for the loan states into Server-Sent Events. Every event gets an increasing id and the most
+ * recent ones are kept so that a client reconnecting with Last-Event-ID receives what it missed. Each client has a
+ * bounded buffer; a client that falls that far behind is disconnected and is expected to resume from its last id.
+ *
+ * Ids start from the web server's start time in microseconds, so they keep increasing across restarts. A client whose
+ * last id is older than the history, or that is not an id this server could have issued, is sent a reset event.
+ */
+public class LoanEventStream {
+
+    static final int HISTORY_SIZE = 10000;
+    static final int CLIENT_BUFFER_SIZE = 1000;
+    static final long KEEP_ALIVE_SECONDS = 15;
+
+    private final ObjectWriter jsonWriter;
+    private final Object lock = new Object();
+    private final Deque<LoanEventBean> history = new ArrayDeque<>(HISTORY_SIZE);
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private long lastId = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+
+    private static class Client {
+        final BlockingQueue<LoanEventBean> buffer = new ArrayBlockingQueue<>(CLIENT_BUFFER_SIZE);
+        volatile boolean overflowed = false;
+    }
+
+    public LoanEventStream(LoanVaultFeed feed, ObjectWriter jsonWriter) {
+        this.jsonWriter = jsonWriter;
+        feed.addListener(this::onUpdate);
+    }
+
+    private void onUpdate(Vault.Update<? extends ContractState> update) {
+        synchronized (lock) {
+            for (StateAndRef<? extends ContractState> consumed : update.getConsumed()) {
+                publish(LoanEventBean.of(LoanEventBean.Kind.CONSUMED, consumed));
+            }
+            for (StateAndRef<? extends ContractState> produced : update.getProduced()) {
+                publish(LoanEventBean.of(LoanEventBean.Kind.PRODUCED, produced));
+            }
+        }
+    }
+
+    private void publish(LoanEventBean event) {
+        if (event == null) {
+            return;
+        }
+        event.setId(++lastId);
+        if (history.size() == HISTORY_SIZE) {
+            history.removeFirst();
+        }
+        history.addLast(event);
+        for (Client client : clients) {
+            if (!client.buffer.offer(event)) {
+                client.overflowed = true;
+            }
+        }
+    }
+
+    /**
+     * Writes events to the given stream until the client goes away or falls too far behind. Blocks the calling thread.
+     */
+    public void stream(Long lastEventId, OutputStream output) throws IOException {
+        final Client client = new Client();
+        final List<LoanEventBean> missed = new ArrayList<>();
+        boolean missedEvents = false;
+        synchronized (lock) {
+            if (lastEventId != null) {
+                final long oldestId = history.isEmpty() ? lastId + 1 : history.peekFirst().getId();
+                missedEvents = oldestId > lastEventId + 1 || lastEventId > lastId;
+                for (LoanEventBean event : history) {
+                    if (event.getId() > lastEventId) {
+                        missed.add(event);
+                    }
+                }
+            }
+            // registered in the same step as the history is copied, so live events carry on right after the replay
+            clients.add(client);
+        }
+
+        try {
+            output.write("retry: 5000\n\n".getBytes(StandardCharsets.UTF_8));
+            if (missedEvents) {
+                // The requested id is older than the history we keep, or was issued before a restart, the client has to
+                // reload its state.
+                output.write("event: reset\ndata: {}\n\n".getBytes(StandardCharsets.UTF_8));
+            }
+            // the replay can be up to the whole history, it is written straight out rather than through the buffer
+            for (LoanEventBean event : missed) {
+                write(event, output);
+            }
+            output.flush();
+
+            while (!client.overflowed) {
+                final LoanEventBean event = client.buffer.poll(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+                if (event == null) {
+                    output.write(": keep-alive\n\n".getBytes(StandardCharsets.UTF_8));
+                } else {
+                    write(event, output);
+                    LoanEventBean next;
+                    while ((next = client.buffer.poll()) != null) {
+                        write(next, output);
+                    }
+                }
+                output.flush();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private void write(LoanEventBean event, OutputStream output) throws IOException {
+        final StringBuilder frame = new StringBuilder()
+                .append("id: ").append(event.getId()).append('\n')
+                .append("event: ").append(event.getKind().name().toLowerCase()).append('\n')
+                .append("data: ").append(jsonWriter.writeValueAsString(event)).append("\n\n");
+        output.write(frame.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,35 +1,76 @@
 package com.example.api;
 
+import com.example.bean.BulkItemBean;
+import com.example.bean.FlowStatusBean;
+import com.example.bean.LoanViewBean;
 import com.example.flow.LoanResponseFlow;
 import com.example.flow.RequestCreditRatingFlow;
+import com.example.flow.CreditCheckFlow;
+import com.example.flow.CreditRatingBatchResponseFlow;
 import com.example.flow.CreditRatingResponseFlow;
+import com.example.flow.FlowMetricsFlow;
+import com.example.flow.RequestForLoanBatchFlow;
 import com.example.flow.RequestForLoanFlow;
 import com.example.state.LoanVerificationState;
 import com.example.state.LoanRequestState;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.messaging.CordaRPCOps;
-import net.corda.core.node.NodeInfo;
+import net.corda.core.messaging.FlowProgressHandle;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
 import net.corda.core.transactions.SignedTransaction;
+import net.corda.jackson.JacksonSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.example.bean.DataBean;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import static java.util.stream.Collectors.toList;
+import static javax.ws.rs.core.Response.Status.ACCEPTED;
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.CONFLICT;
 import static javax.ws.rs.core.Response.Status.CREATED;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Response.Status.OK;
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
 
 @Path("loans")
 public class LoanFinanceApi {
@@ -37,12 +78,47 @@ public class LoanFinanceApi {
     private final CordaRPCOps rpcOps;
     private final CordaX500Name myLegalName;
     private final List<String> serviceNames = ImmutableList.of("Notary");
+    private final FlowTracker flowTracker = new FlowTracker();
+    private final PartyCache partyCache;
+    private final BankRouter bankRouter;
+    private final AdmissionController admission = new AdmissionController();
+    private final ObjectWriter jsonWriter;
+    private final LoanEventStream eventStream;
+    private final LoanReadModel readModel;
+    private final LoanArchive archive;
+    private final LoanChanges changes;
+    private final LoanImporter importer = new LoanImporter();
+    private final long nodeMetricsTtlNanos = TimeUnit.SECONDS.toNanos(Long.getLong(METRICS_CACHE_SECONDS_PROPERTY, DEFAULT_METRICS_CACHE_SECONDS));
+    private String nodeMetrics;
+    private long nodeMetricsNanos;
+
+    public static final String METRICS_CACHE_SECONDS_PROPERTY = "loan.metrics.cacheSeconds";
+    static final long DEFAULT_METRICS_CACHE_SECONDS = 10;
 
     static private final Logger logger = LoggerFactory.getLogger(LoanFinanceApi.class);
+    static private final int MAX_BULK_APPLICATIONS = 10000;
+    static private final int MAX_BULK_CONCURRENCY = 256;
+    static private final String NDJSON = "application/x-ndjson";
+    static private final String CSV = "text/csv";
+    static private final String EVENT_STREAM = "text/event-stream";
+    static private final String PROMETHEUS_TEXT = "text/plain; version=0.0.4";
+    /** Too Many Requests, not among the statuses of JAX-RS 2.0. */
+    static private final int TOO_MANY_REQUESTS = 429;
+    /** How long a bulk request waits for a busy bank before failing the applications for it. */
+    static private final long BULK_ADMISSION_TIMEOUT_SECONDS = 60;
 
     public LoanFinanceApi(CordaRPCOps rpcOps) {
         this.rpcOps = rpcOps;
         this.myLegalName = rpcOps.nodeInfo().getLegalIdentities().get(0).getName();
+        this.partyCache = new PartyCache(rpcOps, myLegalName, serviceNames);
+        this.bankRouter = new BankRouter(partyCache);
+        final ObjectMapper mapper = JacksonSupport.createDefaultMapper(rpcOps);
+        this.jsonWriter = mapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+        final LoanVaultFeed vaultFeed = new LoanVaultFeed(rpcOps);
+        this.eventStream = new LoanEventStream(vaultFeed, jsonWriter);
+        this.readModel = new LoanReadModel(rpcOps, vaultFeed);
+        this.archive = new LoanArchive(rpcOps, mapper);
+        this.changes = new LoanChanges(rpcOps);
     }
     /**
      * Returns the node's name.
@@ -59,73 +135,610 @@ public class LoanFinanceApi {
     @GET
     @Path("loanRequestStates")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getFinacneBankQuery() {
-        System.out.println("VaultQuery : " + rpcOps.vaultQuery(LoanRequestState.class).getStates() );
-       return Response.status(200).entity(rpcOps.vaultQuery(LoanRequestState.class).getStates()).build();
+    public Response getFinacneBankQuery(@QueryParam("page") @DefaultValue("1") int page,
+                                        @QueryParam("pageSize") @DefaultValue("200") int pageSize,
+                                        @QueryParam("sort") String sort,
+                                        @QueryParam("status") String status,
+                                        @QueryParam("company") String company,
+                                        @QueryParam("bank") String bank,
+                                        @QueryParam("eligible") Boolean eligible) {
+        return queryStates(LoanRequestState.class, page, pageSize, sort, status, company, bank, eligible);
     }
 
     @GET
     @Path("loanVerificationStates")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getBankAndCreditQuery() {
-        System.out.println("VaultQuery : " + rpcOps.vaultQuery(LoanVerificationState.class).getStates() );
-        return Response.status(200).entity(rpcOps.vaultQuery(LoanVerificationState.class).getStates()).build();
+    public Response getBankAndCreditQuery(@QueryParam("page") @DefaultValue("1") int page,
+                                          @QueryParam("pageSize") @DefaultValue("200") int pageSize,
+                                          @QueryParam("sort") String sort,
+                                          @QueryParam("status") String status,
+                                          @QueryParam("company") String company,
+                                          @QueryParam("bank") String bank,
+                                          @QueryParam("eligible") Boolean eligible) {
+        return queryStates(LoanVerificationState.class, page, pageSize, sort, status, company, bank, eligible);
+    }
+
+    /**
+     * Runs one page of a vault query on the node. The body is the list of states, the total number of matching
+     * states and the paging used are returned in the X-Total-Count, X-Page and X-Page-Size headers.
+     */
+    private <T extends ContractState> Response queryStates(Class<T> stateType, int page, int pageSize, String sort, String status,
+                                                           String company, String bank, Boolean eligible) {
+        final LoanStateQuery query;
+        Party bankParty = null;
+        try {
+            query = new LoanStateQuery(page, pageSize, sort, status, company, eligible);
+            if (bank != null) {
+                bankParty = partyCache.wellKnownParty(CordaX500Name.parse(bank));
+                if (bankParty == null) {
+                    return Response.status(BAD_REQUEST).entity("Party named " + bank + " cannot be found.\n").build();
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+        }
+
+        final Vault.Page<T> result = rpcOps.vaultQueryBy(query.criteria(stateType, bankParty), query.paging(), query.sorting(), stateType);
+        return Response.status(OK)
+                .entity(result.getStates())
+                .header("X-Total-Count", result.getTotalStatesAvailable())
+                .header("X-Page", query.getPage())
+                .header("X-Page-Size", query.getPageSize())
+                .build();
+    }
+
+    /**
+     * The LoanRequestStates and LoanVerificationStates produced or consumed after the cursor in 'since', oldest first,
+     * up to 'limit' of each, with the cursor for the next call; see {@link LoanChanges}. Without 'since' the changes
+     * start at the beginning of the vault. Call again straight away while 'more' is true.
+     */
+    @GET
+    @Path("changes")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getChanges(@QueryParam("since") String since,
+                               @QueryParam("limit") @DefaultValue("500") int limit) {
+        final LoanChanges.Cursor cursor;
+        try {
+            cursor = LoanChanges.Cursor.parse(since);
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+        }
+
+        if (limit < 1 || limit > LoanStateQuery.MAX_API_PAGE_SIZE) {
+            return Response.status(BAD_REQUEST).entity("parameter 'limit' must be between 1 and " + LoanStateQuery.MAX_API_PAGE_SIZE + ".\n").build();
+        }
+        return Response.status(OK).entity(changes.since(cursor, limit)).build();
+    }
+
+    /**
+     * Loan count, amount total and average amount of the LoanRequestStates per company, bank or eligibility, summed
+     * by the node's database. Groups come largest total first.
+     */
+    @GET
+    @Path("aggregates")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getAggregates(@QueryParam("groupBy") @DefaultValue("company") String groupBy,
+                                  @QueryParam("status") String status) {
+        final LoanAggregateQuery query;
+        try {
+            query = new LoanAggregateQuery(groupBy, status);
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+        }
+
+        final Vault.Page<LoanRequestState> result = rpcOps.vaultQueryBy(query.criteria(), query.paging(), query.sorting(), LoanRequestState.class);
+        return Response.status(OK).entity(ImmutableMap.of("groups", query.groups(result.getOtherResults()))).build();
     }
 
+    /**
+     * Copies the loan states consumed before 'before' (an ISO-8601 instant, by default the retention period ago) and
+     * their transactions into the archive, see {@link LoanArchive}. The states stay in the node's vault.
+     */
+    @POST
+    @Path("archive")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response archiveConsumedStates(@QueryParam("before") String before) {
+        final Instant cutoff;
+        try {
+            cutoff = before == null ? archive.defaultCutoff() : Instant.parse(before);
+        } catch (DateTimeParseException ex) {
+            return Response.status(BAD_REQUEST).entity("parameter 'before' must be an ISO-8601 instant such as 2018-01-31T00:00:00Z.\n").build();
+        }
+
+        try {
+            final Map<String, Object> archived = archive.archive(cutoff);
+            if (archived == null) {
+                return Response.status(CONFLICT).entity("An archive run is already in progress.\n").build();
+            }
+            return Response.status(OK).entity(archived).build();
+        } catch (IOException ex) {
+            logger.error(ex.getMessage(), ex);
+            return Response.status(SERVICE_UNAVAILABLE).entity("Archiving failed: " + ex.getMessage() + "\n").build();
+        }
+    }
+
+    @GET
+    @Path("archive")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> getArchiveSummary() {
+        return archive.summary();
+    }
+
+    /**
+     * The archived versions of a state by its linear id; for a loan request also those of its credit checks. With
+     * ?transactions=true each version carries the serialised transaction that produced it, base64 encoded.
+     */
+    @GET
+    @Path("archive/{linearId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getArchivedHistory(@PathParam("linearId") String linearId,
+                                       @QueryParam("transactions") boolean withTransactions) {
+        try {
+            final List<JsonNode> history = archive.history(linearId, withTransactions);
+            if (history.isEmpty()) {
+                return Response.status(NOT_FOUND).entity("No archived state with linear id " + linearId + ".\n").build();
+            }
+            return Response.status(OK).entity(history).build();
+        } catch (IOException ex) {
+            logger.error(ex.getMessage(), ex);
+            return Response.status(SERVICE_UNAVAILABLE).entity("Reading the archive failed: " + ex.getMessage() + "\n").build();
+        }
+    }
 
     /*******start of Post request for path param.***/
+    /**
+     * Streams every matching state as newline-delimited JSON. The vault is read one page at a time and each page is
+     * written out before the next one is fetched, so memory use does not grow with the size of the vault.
+     */
+    @GET
+    @Path("export")
+    @Produces(NDJSON)
+    public Response exportStates(@QueryParam("type") @DefaultValue("request") String type,
+                                 @QueryParam("status") String status,
+                                 @QueryParam("pageSize") @DefaultValue("1000") int pageSize) {
+        final Class<? extends ContractState> stateType;
+        if (type.equalsIgnoreCase("request")) {
+            stateType = LoanRequestState.class;
+        } else if (type.equalsIgnoreCase("verification")) {
+            stateType = LoanVerificationState.class;
+        } else {
+            return Response.status(BAD_REQUEST).entity("parameter 'type' must be request or verification.\n").build();
+        }
+
+        if (pageSize < 1 || pageSize > LoanStateQuery.MAX_API_PAGE_SIZE) {
+            return Response.status(BAD_REQUEST).entity("parameter 'pageSize' must be between 1 and " + LoanStateQuery.MAX_API_PAGE_SIZE + ".\n").build();
+        }
+        final Vault.StateStatus stateStatus;
+        try {
+            stateStatus = LoanStateQuery.parseStatus(status);
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+        }
+
+        final StreamingOutput stream = output -> exportPages(stateType, stateStatus, pageSize, output);
+        return Response.status(OK).entity(stream).build();
+    }
+
+    private <T extends ContractState> void exportPages(Class<T> stateType, Vault.StateStatus status, int pageSize, OutputStream output) throws IOException {
+        final OutputStream out = new BufferedOutputStream(output);
+        // paged by recorded time and state ref, states consumed during the export cannot make it skip others
+        LoanVaultPager.forEachPage(rpcOps, stateType, status, QueryCriteria.TimeInstantType.RECORDED, LoanChanges.Mark.START, null, pageSize, (states, metadata) -> {
+            for (StateAndRef<T> state : states) {
+                out.write(jsonWriter.writeValueAsBytes(state));
+                out.write('\n');
+            }
+            out.flush();
+        });
+    }
+
+    /**
+     * Server-Sent Events stream of LoanRequestState and LoanVerificationState being produced and consumed on this
+     * node. Reconnecting clients send Last-Event-ID and receive the events they missed.
+     */
+    @GET
+    @Path("events")
+    @Produces(EVENT_STREAM)
+    public Response loanEvents(@HeaderParam("Last-Event-ID") Long lastEventId) {
+        final StreamingOutput stream = output -> eventStream.stream(lastEventId, output);
+        return Response.status(OK).entity(stream).header("Cache-Control", "no-cache").build();
+    }
+
+    /**
+     * Returns a loan by the linear id of its LoanRequestState or of one of its LoanVerificationStates, answered from
+     * the in-memory read model.
+     */
+    @GET
+    @Path("{linearId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getLoan(@PathParam("linearId") String linearId) {
+        if (!readModel.isReady()) {
+            return Response.status(SERVICE_UNAVAILABLE).entity("Loan read model is still loading.\n").build();
+        }
+        final UniqueIdentifier id;
+        try {
+            id = new UniqueIdentifier(null, UUID.fromString(linearId));
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity("linear id " + linearId + " is not a valid UUID.\n").build();
+        }
+        final LoanViewBean loan = readModel.byLinearId(id);
+        if (loan == null) {
+            return Response.status(NOT_FOUND).entity("No loan with linear id " + linearId + " is known to this node.\n").build();
+        }
+        return Response.status(OK).entity(loan).build();
+    }
+
+    @GET
+    @Path("by-company/{name}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getLoansByCompany(@PathParam("name") String company) {
+        if (!readModel.isReady()) {
+            return Response.status(SERVICE_UNAVAILABLE).entity("Loan read model is still loading.\n").build();
+        }
+        return Response.status(OK).entity(readModel.byCompany(company)).build();
+    }
+
+    @GET
+    @Path("by-bank/{name}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getLoansByBank(@PathParam("name") String bank) {
+        if (!readModel.isReady()) {
+            return Response.status(SERVICE_UNAVAILABLE).entity("Loan read model is still loading.\n").build();
+        }
+        try {
+            return Response.status(OK).entity(readModel.byBank(CordaX500Name.parse(bank))).build();
+        } catch (IllegalArgumentException ex) {
+            return Response.status(BAD_REQUEST).entity("parameter 'name' must be an X500 name.\n").build();
+        }
+    }
+
+    /**
+     * Flow metrics collected on the node (step latencies, flow outcomes, vault query timings) followed by the metrics
+     * of this web server, in the Prometheus text format. The node's metrics are fetched at most once every
+     * {@value #DEFAULT_METRICS_CACHE_SECONDS} seconds (system property {@value #METRICS_CACHE_SECONDS_PROPERTY}).
+     */
+    @GET
+    @Path("metrics")
+    @Produces(PROMETHEUS_TEXT)
+    public Response getMetrics() {
+        final StringBuilder metrics = new StringBuilder();
+        try {
+            metrics.append(nodeMetrics());
+        } catch (Throwable ex) {
+            logger.error(ex.getMessage(), ex);
+            return Response.status(SERVICE_UNAVAILABLE).entity("Node metrics are not available: " + ex.getMessage() + "\n").build();
+        }
+
+        metrics.append("# HELP loan_web_party_cache Network map cache lookups in the web server.\n");
+        metrics.append("# TYPE loan_web_party_cache untyped\n");
+        partyCache.stats().forEach((name, value) -> metrics.append("loan_web_party_cache{stat=\"").append(name).append("\"} ").append(value).append('\n'));
+        bankRouter.render(metrics);
+        admission.render(metrics);
+        return Response.status(OK).entity(metrics.toString()).build();
+    }
+
+    /**
+     * The node's metrics as last fetched, fetched again once they are older than the cache time. They can only be read
+     * in a flow, and a flow start costs the node a checkpoint, so scrapes within the cache time share one.
+     */
+    private synchronized String nodeMetrics() throws Exception {
+        final long now = System.nanoTime();
+        if (nodeMetrics == null || now - nodeMetricsNanos >= nodeMetricsTtlNanos) {
+            nodeMetrics = rpcOps.startFlowDynamic(FlowMetricsFlow.class).getReturnValue().get();
+            nodeMetricsNanos = now;
+        }
+        return nodeMetrics;
+    }
+
+    /**
+     * Finance agency applies for a loan. Without 'partyName' the application is routed to a bank chosen from the
+     * company name, see {@link BankRouter}.
+     */
     @POST
     @Path("loanapplication")
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response loanRequest(DataBean detail) throws InterruptedException, ExecutionException {
+    public Response loanRequest(DataBean detail, @QueryParam("async") boolean async) throws InterruptedException, ExecutionException {
 
-        CordaX500Name bankNode = detail.getPartyName();
         int value = detail.getValue();
         String company = detail.getCompany();
 
-        final Party otherParty = rpcOps.wellKnownPartyFromX500Name(bankNode);
-
-        if (bankNode == null) {
-            return Response.status(BAD_REQUEST).entity("parameter 'partyName' missing or has wrong format.\n").build();
-        }
-
-        if (value <= 0) {
-            return Response.status(BAD_REQUEST).entity(" parameter 'Amount' must be non-negative.\n").build();
-        }
+        final Party otherParty = bankFor(detail);
 
-        if (company == null) {
-            return Response.status(BAD_REQUEST).entity("Company name is missing. \n").build();
+        final String validationError = validateLoanApplication(detail, otherParty);
+        if (validationError != null) {
+            return Response.status(BAD_REQUEST).entity(validationError).build();
         }
 
-        if (otherParty == null) {
-            return Response.status(BAD_REQUEST).entity("Party named " + bankNode + "cannot be found.\n").build();
+        final AdmissionController.Permit permit = admission.tryAcquire(otherParty.getName());
+        if (permit == null) {
+            return tooBusy(otherParty);
         }
 
         try {
             RequestForLoanFlow.Initiator initiator = new RequestForLoanFlow.Initiator(otherParty,value,company);
-            final SignedTransaction signedTx = rpcOps
-                    .startTrackedFlowDynamic(initiator.getClass(), otherParty,value,company)
-                    .getReturnValue()
-                    .get();
+            final FlowProgressHandle<SignedTransaction> handle = rpcOps.startTrackedFlowDynamic(initiator.getClass(), otherParty,value,company);
+            final FlowTracker.TrackedFlow tracked = flowTracker.track(handle, "RequestForLoanFlow");
+            permit.releaseWhenDone(tracked);
+            bankRouter.inFlight(otherParty.getName(), 1, tracked.getCompletion());
+            if (async) {
+                return accepted(tracked.getStatus());
+            }
+            final SignedTransaction signedTx = handle.getReturnValue().get();
 
-            System.out.println("Current linear State : "+initiator.getLinearIdLoanReqState());
+            logger.debug("Current linear state: {}", initiator.getLinearIdLoanReqState());
             final String msg = String.format("FINANCE AGENCY OF WALES. \n Transaction id %s  is successfully committed to ledger.\n ", signedTx.getId());
             return Response.status(CREATED).entity(msg).build();
         } catch (Throwable ex) {
+            permit.cancel();
             final String msg = ex.getMessage();
             logger.error(ex.getMessage(), ex);
             return Response.status(BAD_REQUEST).entity(msg).build();
         }
     }
 
+    /**
+     * Starts one RequestForLoanFlow per application, keeping at most 'concurrency' of them in flight, and answers once
+     * all of them have finished. With 'batchSize' above 1 the applications for the same bank are grouped and each group
+     * is sent as one RequestForLoanBatchFlow transaction, so a single notarisation carries the whole group. Each item
+     * reports its transaction id or the reason it failed; applications for a bank that stays at its admission limit,
+     * see {@link AdmissionController}, fail after a wait. The elapsed time and the achieved throughput are returned in
+     * the X-Elapsed-Millis and X-Throughput-Per-Second headers.
+     */
+    @POST
+    @Path("loanapplications/bulk")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response bulkLoanRequest(List<DataBean> details,
+                                    @QueryParam("concurrency") @DefaultValue("32") int concurrency,
+                                    @QueryParam("batchSize") @DefaultValue("1") int batchSize) throws InterruptedException {
+
+        if (details == null || details.isEmpty()) {
+            return Response.status(BAD_REQUEST).entity("At least one loan application is needed.\n").build();
+        }
+
+        if (details.size() > MAX_BULK_APPLICATIONS) {
+            return Response.status(BAD_REQUEST).entity("At most " + MAX_BULK_APPLICATIONS + " loan applications can be sent at once.\n").build();
+        }
+
+        if (concurrency < 1 || concurrency > MAX_BULK_CONCURRENCY) {
+            return Response.status(BAD_REQUEST).entity("parameter 'concurrency' must be between 1 and " + MAX_BULK_CONCURRENCY + ".\n").build();
+        }
+
+        if (batchSize < 1 || batchSize > RequestForLoanBatchFlow.MAX_BATCH_SIZE) {
+            return Response.status(BAD_REQUEST).entity("parameter 'batchSize' must be between 1 and " + RequestForLoanBatchFlow.MAX_BATCH_SIZE + ".\n").build();
+        }
+
+        final long start = System.nanoTime();
+        final Semaphore permits = new Semaphore(concurrency);
+        final List<CompletableFuture<?>> flows = new ArrayList<>();
+        final List<BulkItemBean> items = new ArrayList<>(details.size());
+        final Map<Party, List<Integer>> pendingByBank = new LinkedHashMap<>();
+
+        for (int i = 0; i < details.size(); i++) {
+            final DataBean detail = details.get(i);
+            final BulkItemBean item = new BulkItemBean(i, detail.getCompany());
+            final Party otherParty = bankFor(detail);
+            items.add(item);
+
+            final String validationError = validateLoanApplication(detail, otherParty);
+            if (validationError != null) {
+                item.failed(validationError.trim());
+                continue;
+            }
+            pendingByBank.computeIfAbsent(otherParty, party -> new ArrayList<>()).add(i);
+        }
+
+        for (Map.Entry<Party, List<Integer>> bank : pendingByBank.entrySet()) {
+            for (List<Integer> chunk : Lists.partition(bank.getValue(), batchSize)) {
+                final List<BulkItemBean> chunkItems = chunk.stream().map(items::get).collect(toList());
+
+                permits.acquire();
+                final AdmissionController.Permit admitted = admission.acquire(bank.getKey().getName(), BULK_ADMISSION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (admitted == null) {
+                    permits.release();
+                    chunkItems.forEach(item -> item.failed(bank.getKey().getName() + " is too busy, retry later"));
+                    continue;
+                }
+                try {
+                    final FlowTracker.TrackedFlow tracked;
+                    if (chunk.size() == 1) {
+                        final DataBean detail = details.get(chunk.get(0));
+                        tracked = flowTracker.track(rpcOps.startTrackedFlowDynamic(RequestForLoanFlow.Initiator.class, bank.getKey(), detail.getValue(), detail.getCompany()), "RequestForLoanFlow");
+                    } else {
+                        final List<RequestForLoanBatchFlow.LoanApplication> applications = chunk.stream()
+                                .map(details::get)
+                                .map(detail -> new RequestForLoanBatchFlow.LoanApplication(detail.getCompany(), detail.getValue()))
+                                .collect(toList());
+                        tracked = flowTracker.track(rpcOps.startTrackedFlowDynamic(RequestForLoanBatchFlow.Initiator.class, bank.getKey(), applications), "RequestForLoanBatchFlow");
+                    }
+                    chunkItems.forEach(item -> item.setRunId(tracked.getStatus().getRunId()));
+                    admitted.releaseWhenDone(tracked);
+                    bankRouter.inFlight(bank.getKey().getName(), chunk.size(), tracked.getCompletion());
+                    flows.add(tracked.getCompletion().thenAccept(finished -> {
+                        permits.release();
+                        for (BulkItemBean item : chunkItems) {
+                            if (finished.getStatus() == FlowStatusBean.Status.COMPLETED) {
+                                item.completed(finished.getTransactionId());
+                            } else {
+                                item.failed(finished.getError());
+                            }
+                        }
+                    }));
+                } catch (Throwable ex) {
+                    permits.release();
+                    admitted.cancel();
+                    logger.error(ex.getMessage(), ex);
+                    chunkItems.forEach(item -> item.failed(ex.getMessage()));
+                }
+            }
+        }
+
+        CompletableFuture.allOf(flows.toArray(new CompletableFuture[0])).join();
+
+        final long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        final long succeeded = items.stream().filter(item -> item.getTransactionId() != null).count();
+        return Response.status(OK)
+                .entity(items)
+                .header("X-Elapsed-Millis", elapsedMillis)
+                .header("X-Throughput-Per-Second", String.format("%.2f", items.size() * 1000.0 / elapsedMillis))
+                .header("X-Succeeded", succeeded)
+                .header("X-Failed", items.size() - succeeded)
+                .build();
+    }
+
+    /**
+     * Imports loan applications from a CSV (company,amount,bank) or NDJSON upload, read as it streams in; see
+     * {@link LoanImporter}. Each application starts a RequestForLoanFlow, at most 'concurrency' at a time. Answers once
+     * the last flow has finished with the import's progress; GET import/{importId} shows it while the import runs.
+     * An interrupted import resumes where it was committed when the same file is sent again with its 'importId'.
+     */
+    @POST
+    @Path("import")
+    @Consumes({CSV, NDJSON})
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response importLoanApplications(InputStream input,
+                                           @HeaderParam("Content-Type") String contentType,
+                                           @QueryParam("importId") String importId,
+                                           @QueryParam("concurrency") @DefaultValue("32") int concurrency) throws InterruptedException {
+        final String id = importId != null ? importId : UUID.randomUUID().toString();
+        if (!LoanImporter.isValidId(id)) {
+            return Response.status(BAD_REQUEST).entity("parameter 'importId' must be 1 to 64 letters, digits, '.', '_' or '-'.\n").build();
+        }
+
+        if (concurrency < 1 || concurrency > MAX_BULK_CONCURRENCY) {
+            return Response.status(BAD_REQUEST).entity("parameter 'concurrency' must be between 1 and " + MAX_BULK_CONCURRENCY + ".\n").build();
+        }
+
+        final LoanImportParser.Format format = contentType != null && contentType.startsWith(NDJSON) ? LoanImportParser.Format.NDJSON : LoanImportParser.Format.CSV;
+        try {
+            final LoanImporter.Job job = importer.run(id, format, input, concurrency, new LoanImporter.Submitter() {
+                @Override
+                public CompletableFuture<FlowStatusBean> submit(DataBean application, UniqueIdentifier linearId) throws Exception {
+                    return submitImported(application, linearId);
+                }
+
+                @Override
+                public boolean recorded(UniqueIdentifier linearId) {
+                    return recordedRequest(linearId);
+                }
+            });
+            if (job == null) {
+                return Response.status(CONFLICT).location(URI.create("import/" + id)).entity("Import " + id + " is already running.\n").build();
+            }
+            return Response.status(OK).location(URI.create("import/" + id)).entity(job.progress()).build();
+        } catch (IOException ex) {
+            logger.error(ex.getMessage(), ex);
+            return Response.status(BAD_REQUEST).entity("Import " + id + " was interrupted, send the file again with importId=" + id + " to resume: " + ex.getMessage() + "\n").build();
+        }
+    }
+
+    @GET
+    @Path("import/{importId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getImportProgress(@PathParam("importId") String importId) {
+        final LoanImporter.Job job = importer.job(importId);
+        if (job == null) {
+            return Response.status(NOT_FOUND).entity("No import " + importId + " has run since the web server started.\n").build();
+        }
+        return Response.status(OK).entity(job.progress()).build();
+    }
+
+    /**
+     * The lines of an import that failed and why, as CSV.
+     */
+    @GET
+    @Path("import/{importId}/errors")
+    @Produces(CSV)
+    public Response getImportErrors(@PathParam("importId") String importId) {
+        final File errors = importer.errors(importId);
+        if (errors == null) {
+            return Response.status(NOT_FOUND).entity("Import " + importId + " has no error report.\n").build();
+        }
+        return Response.status(OK)
+                .entity(errors)
+                .header("Content-Disposition", "attachment; filename=\"" + importId + "-errors.csv\"")
+                .build();
+    }
+
+    /**
+     * Starts the flow for one imported application, after the same checks as a single loan application.
+     */
+    private CompletableFuture<FlowStatusBean> submitImported(DataBean application, UniqueIdentifier linearId) throws Exception {
+        final Party otherParty = bankFor(application);
+        final String validationError = validateLoanApplication(application, otherParty);
+        if (validationError != null) {
+            throw new IllegalArgumentException(validationError.trim());
+        }
+
+        final AdmissionController.Permit permit = admission.acquire(otherParty.getName(), BULK_ADMISSION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (permit == null) {
+            throw new RejectedExecutionException(otherParty.getName() + " is too busy, retry later");
+        }
+        try {
+            final FlowTracker.TrackedFlow tracked = flowTracker.track(rpcOps.startTrackedFlowDynamic(RequestForLoanFlow.Initiator.class, otherParty, application.getValue(), application.getCompany(), linearId), "RequestForLoanFlow");
+            permit.releaseWhenDone(tracked);
+            bankRouter.inFlight(otherParty.getName(), 1, tracked.getCompletion());
+            return tracked.getCompletion();
+        } catch (Exception ex) {
+            permit.cancel();
+            throw ex;
+        }
+    }
+
+    /**
+     * Whether the vault has the loan request with the given linear id, consumed or not, since the bank may have
+     * answered it already.
+     */
+    private boolean recordedRequest(UniqueIdentifier linearId) {
+        final QueryCriteria criteria = new QueryCriteria.LinearStateQueryCriteria(null, ImmutableList.of(linearId), Vault.StateStatus.ALL, null);
+        return !rpcOps.vaultQueryBy(criteria, new PageSpecification(1, 1), new Sort(Collections.emptySet()), LoanRequestState.class)
+                .getStates().isEmpty();
+    }
+
+    /**
+     * Checks a loan application before a flow is started for it. Returns the message for the caller, or null when
+     * the application is valid.
+     */
+    private String validateLoanApplication(DataBean detail, Party bankParty) {
+        if (detail.getPartyName() == null && detail.getCompany() != null && bankParty == null) {
+            return "parameter 'partyName' missing and no bank is on the network to route the application to.\n";
+        }
+
+        if (detail.getValue() <= 0) {
+            return " parameter 'Amount' must be non-negative.\n";
+        }
+
+        if (detail.getCompany() == null) {
+            return "Company name is missing. \n";
+        }
+
+        if (bankParty == null) {
+            return "Party named " + detail.getPartyName() + "cannot be found.\n";
+        }
+        return null;
+    }
+
+    /**
+     * The bank named in the application, or the one its company is routed to when it names none.
+     */
+    private Party bankFor(DataBean detail) {
+        if (detail.getPartyName() != null) {
+            return partyCache.wellKnownParty(detail.getPartyName());
+        }
+        if (detail.getCompany() == null) {
+            return null;
+        }
+        final CordaX500Name routed = bankRouter.route(detail.getCompany());
+        return routed == null ? null : partyCache.wellKnownParty(routed);
+    }
+
     @POST
     @Path("bankapplication")
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response loanEligibilityCheck(DataBean dataBean) throws InterruptedException, ExecutionException {
+    public Response loanEligibilityCheck(DataBean dataBean, @QueryParam("async") boolean async) throws InterruptedException, ExecutionException {
 
         CordaX500Name creditAgencyNode = dataBean.getPartyName();
         String loanReqLinearId = dataBean.getLoanReqLinearId();
-        final Party otherParty = rpcOps.wellKnownPartyFromX500Name(creditAgencyNode);
+        final Party otherParty = partyCache.wellKnownParty(creditAgencyNode);
 
         if (creditAgencyNode == null) {
             return Response.status(BAD_REQUEST).entity("parameter 'partyName' missing or has wrong format.\n").build();
@@ -142,17 +755,77 @@ public class LoanFinanceApi {
         UniqueIdentifier linearIdLoanReqState = new UniqueIdentifier();
         UniqueIdentifier uuidFinanceState = linearIdLoanReqState.copy(null, UUID.fromString(loanReqLinearId));
 
+        final AdmissionController.Permit permit = admission.tryAcquire(otherParty.getName());
+        if (permit == null) {
+            return tooBusy(otherParty);
+        }
+
         try {
             RequestCreditRatingFlow.Initiator initiator = new RequestCreditRatingFlow.Initiator(otherParty,uuidFinanceState);
-            final SignedTransaction signedTx = rpcOps
-                    .startTrackedFlowDynamic(RequestCreditRatingFlow.Initiator.class, otherParty,uuidFinanceState)
-                    .getReturnValue()
-                    .get();
+            final FlowProgressHandle<SignedTransaction> handle = rpcOps.startTrackedFlowDynamic(RequestCreditRatingFlow.Initiator.class, otherParty,uuidFinanceState);
+            final FlowTracker.TrackedFlow tracked = flowTracker.track(handle, "RequestCreditRatingFlow");
+            permit.releaseWhenDone(tracked);
+            if (async) {
+                return accepted(tracked.getStatus());
+            }
+            final SignedTransaction signedTx = handle.getReturnValue().get();
 
             final String msg = String.format("STANDARD CHARTERED BANK Response.\n Transaction id %s  is successfully committed to ledger. \n", signedTx.getId() + " \n" + "The Application Id (linear id) for loan is : " + initiator.getLinearIdRequestForLoan());
             return Response.status(CREATED).entity(msg).build();
 
         } catch (Throwable ex) {
+            permit.cancel();
+            final String msg = ex.getMessage();
+            logger.error(ex.getMessage(), ex);
+            return Response.status(BAD_REQUEST).entity(msg).build();
+        }
+    }
+
+    /**
+     * Single round trip credit check: the credit agency decides during the flow and the decided LoanVerificationState
+     * is recorded in one transaction, replacing bankapplication followed by creditresponse.
+     */
+    @POST
+    @Path("creditcheck")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response creditCheck(DataBean dataBean, @QueryParam("async") boolean async) {
+
+        CordaX500Name creditAgencyNode = dataBean.getPartyName();
+        String loanReqLinearId = dataBean.getLoanReqLinearId();
+        final Party otherParty = partyCache.wellKnownParty(creditAgencyNode);
+
+        if (creditAgencyNode == null) {
+            return Response.status(BAD_REQUEST).entity("parameter 'partyName' missing or has wrong format.\n").build();
+        }
+
+        if (loanReqLinearId == null) {
+            return Response.status(BAD_REQUEST).entity("linear id of FinanceAndBank State is missing . \n").build();
+        }
+
+        if (otherParty == null) {
+            return Response.status(BAD_REQUEST).entity("Party named " + creditAgencyNode + "cannot be found.\n").build();
+        }
+
+        final AdmissionController.Permit permit = admission.tryAcquire(otherParty.getName());
+        if (permit == null) {
+            return tooBusy(otherParty);
+        }
+
+        try {
+            UniqueIdentifier linearIdLoanReqState = new UniqueIdentifier(null, UUID.fromString(loanReqLinearId));
+            final FlowProgressHandle<SignedTransaction> handle = rpcOps.startTrackedFlowDynamic(CreditCheckFlow.Initiator.class, otherParty, linearIdLoanReqState);
+            final FlowTracker.TrackedFlow tracked = flowTracker.track(handle, "CreditCheckFlow");
+            permit.releaseWhenDone(tracked);
+            if (async) {
+                return accepted(tracked.getStatus());
+            }
+            final SignedTransaction signedTx = handle.getReturnValue().get();
+
+            final String msg = String.format("Credit decision recorded.\n Transaction id %s is successfully committed to ledger. \n", signedTx.getId());
+            return Response.status(CREATED).entity(msg).build();
+
+        } catch (Throwable ex) {
+            permit.cancel();
             final String msg = ex.getMessage();
             logger.error(ex.getMessage(), ex);
             return Response.status(BAD_REQUEST).entity(msg).build();
@@ -165,12 +838,12 @@ public class LoanFinanceApi {
     @POST
     @Path("creditresponse")
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response creditAgencyResponse(DataBean dataBean) throws InterruptedException, ExecutionException {
+    public Response creditAgencyResponse(DataBean dataBean, @QueryParam("async") boolean async) throws InterruptedException, ExecutionException {
 
         CordaX500Name partyName = dataBean.getPartyName();
         String loanVerStateLinearId = dataBean.getLoanVerLinearId();
 
-        final Party otherParty = rpcOps.wellKnownPartyFromX500Name(partyName);
+        final Party otherParty = partyCache.wellKnownParty(partyName);
 
         if (partyName == null) {
             return Response.status(BAD_REQUEST).entity(" parameter 'partyName' missing or has wrong format.\n").build();
@@ -184,21 +857,109 @@ public class LoanFinanceApi {
             return Response.status(BAD_REQUEST).entity("linear id of previous unconsumed state cannot be empty. \n").build();
         }
 
-        System.out.println("Vault Query Finance State : " + rpcOps.vaultQuery(LoanRequestState.class).getStates() );
         UniqueIdentifier linearIdLoanVerState = new UniqueIdentifier();
         UniqueIdentifier uuidLoanVerState = linearIdLoanVerState.copy(null, UUID.fromString(loanVerStateLinearId));
 
+        final AdmissionController.Permit permit = admission.tryAcquire(otherParty.getName());
+        if (permit == null) {
+            return tooBusy(otherParty);
+        }
+
+        try {
+            final FlowTracker.ExclusiveStart start = flowTracker.trackExclusive(ImmutableList.of(uuidLoanVerState), "CreditRatingResponseFlow",
+                    () -> rpcOps.startTrackedFlowDynamic(CreditRatingResponseFlow.Initiator.class, otherParty, uuidLoanVerState));
+            if (!start.isStarted()) {
+                permit.cancel();
+                return conflict(start.getStatus());
+            }
+            permit.releaseWhenDone(start.getFlow());
+            if (async) {
+                return accepted(start.getStatus());
+            }
+            final FlowStatusBean finished = start.getCompletion().get();
+            if (finished.getStatus() == FlowStatusBean.Status.FAILED) {
+                return Response.status(BAD_REQUEST).entity(finished.getError()).build();
+            }
+
+            final String msg = String.format("LONDON CREDIT RATING AGENCY Reponse.\n Transaction id %s is successfully committed to ledger. \n", finished.getTransactionId());
+            return Response.status(CREATED).entity(msg).build();
+
+        } catch (Throwable ex) {
+            permit.cancel();
+            final String msg = ex.getMessage();
+            logger.error(ex.getMessage(), ex);
+            return Response.status(BAD_REQUEST).entity(msg).build();
+        }
+    }
+
+    /**
+     * Credit agency answers many pending verifications of one bank in a single transaction. Every item names the bank
+     * in 'partyName' and the pending LoanVerificationState in 'loanVerLinearId'.
+     */
+    @POST
+    @Path("creditresponses")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response creditAgencyBatchResponse(List<DataBean> dataBeans, @QueryParam("async") boolean async) {
+
+        if (dataBeans == null || dataBeans.isEmpty()) {
+            return Response.status(BAD_REQUEST).entity("At least one credit response is needed.\n").build();
+        }
+
+        if (dataBeans.size() > CreditRatingBatchResponseFlow.MAX_BATCH_SIZE) {
+            return Response.status(BAD_REQUEST).entity("At most " + CreditRatingBatchResponseFlow.MAX_BATCH_SIZE + " credit responses can be sent at once.\n").build();
+        }
+
+        CordaX500Name partyName = dataBeans.get(0).getPartyName();
+        if (partyName == null) {
+            return Response.status(BAD_REQUEST).entity(" parameter 'partyName' missing or has wrong format.\n").build();
+        }
+
+        final Party otherParty = partyCache.wellKnownParty(partyName);
+        if (otherParty == null) {
+            return Response.status(BAD_REQUEST).entity("Party named " + partyName + "cannot be found.\n").build();
+        }
+
+        final List<UniqueIdentifier> linearIdsLoanVerState = new ArrayList<>(dataBeans.size());
+        for (DataBean dataBean : dataBeans) {
+            if (!partyName.equals(dataBean.getPartyName())) {
+                return Response.status(BAD_REQUEST).entity("All credit responses of a batch must be for the same bank.\n").build();
+            }
+            if (dataBean.getLoanVerLinearId() == null) {
+                return Response.status(BAD_REQUEST).entity("linear id of previous unconsumed state cannot be empty. \n").build();
+            }
+            try {
+                linearIdsLoanVerState.add(new UniqueIdentifier(null, UUID.fromString(dataBean.getLoanVerLinearId())));
+            } catch (IllegalArgumentException ex) {
+                return Response.status(BAD_REQUEST).entity("linear id " + dataBean.getLoanVerLinearId() + " is not a valid UUID.\n").build();
+            }
+        }
+
+        final AdmissionController.Permit permit = admission.tryAcquire(otherParty.getName());
+        if (permit == null) {
+            return tooBusy(otherParty);
+        }
+
         try {
-            CreditRatingResponseFlow.Initiator initiator = new CreditRatingResponseFlow.Initiator(otherParty, uuidLoanVerState);
-            final SignedTransaction signedTx = rpcOps
-                    .startTrackedFlowDynamic(initiator.getClass(), otherParty, uuidLoanVerState)
-                    .getReturnValue()
-                    .get();
+            final FlowTracker.ExclusiveStart start = flowTracker.trackExclusive(linearIdsLoanVerState, "CreditRatingBatchResponseFlow",
+                    () -> rpcOps.startTrackedFlowDynamic(CreditRatingBatchResponseFlow.Initiator.class, otherParty, linearIdsLoanVerState));
+            if (!start.isStarted()) {
+                permit.cancel();
+                return conflict(start.getStatus());
+            }
+            permit.releaseWhenDone(start.getFlow());
+            if (async) {
+                return accepted(start.getStatus());
+            }
+            final FlowStatusBean finished = start.getCompletion().get();
+            if (finished.getStatus() == FlowStatusBean.Status.FAILED) {
+                return Response.status(BAD_REQUEST).entity(finished.getError()).build();
+            }
 
-            final String msg = String.format("LONDON CREDIT RATING AGENCY Reponse.\n Transaction id %s is successfully committed to ledger. \n", signedTx.getId());
+            final String msg = String.format("%d credit decisions recorded.\n Transaction id %s is successfully committed to ledger. \n", linearIdsLoanVerState.size(), finished.getTransactionId());
             return Response.status(CREATED).entity(msg).build();
 
         } catch (Throwable ex) {
+            permit.cancel();
             final String msg = ex.getMessage();
             logger.error(ex.getMessage(), ex);
             return Response.status(BAD_REQUEST).entity(msg).build();
@@ -207,11 +968,11 @@ public class LoanFinanceApi {
 
     @POST
     @Path("financeacknowledgment")
-    public Response bankLoanConfirmation(DataBean dataBean) throws InterruptedException, ExecutionException {
+    public Response bankLoanConfirmation(DataBean dataBean, @QueryParam("async") boolean async) throws InterruptedException, ExecutionException {
 
         CordaX500Name partyName = dataBean.getPartyName();
         String loanVerStateLinearId = dataBean.getLoanVerLinearId();
-        final Party otherParty = rpcOps.wellKnownPartyFromX500Name(partyName);
+        final Party otherParty = partyCache.wellKnownParty(partyName);
 
         if (partyName == null) {
             return Response.status(BAD_REQUEST).entity(" parameter 'partyName' missing or has wrong format.\n").build();
@@ -228,24 +989,95 @@ public class LoanFinanceApi {
         UniqueIdentifier linearIdLoanVerState = new UniqueIdentifier();
         UniqueIdentifier uuidLoanVerState = linearIdLoanVerState.copy(null, UUID.fromString(loanVerStateLinearId));
 
+        final AdmissionController.Permit permit = admission.tryAcquire(otherParty.getName());
+        if (permit == null) {
+            return tooBusy(otherParty);
+        }
+
         try {
-            LoanResponseFlow.Initiator initiator = new LoanResponseFlow.Initiator(otherParty , uuidLoanVerState);
-            final SignedTransaction signedTx = rpcOps
-                    .startTrackedFlowDynamic(initiator.getClass(), otherParty, uuidLoanVerState)
-                    .getReturnValue()
-                    .get();
-
-            System.out.println("Previous  Finance Linear Id is  : " + initiator.getLinearIdLoanReqDataState());
-            final String msg = String.format("Loan Application Response from STANDARD CHARTERED BANK. \n Transaction id %s is sucessfully  committed to ledger.\n", signedTx.getId());
+            final FlowTracker.ExclusiveStart start = flowTracker.trackExclusive(ImmutableList.of(uuidLoanVerState), "LoanResponseFlow",
+                    () -> rpcOps.startTrackedFlowDynamic(LoanResponseFlow.Initiator.class, otherParty, uuidLoanVerState));
+            if (!start.isStarted()) {
+                permit.cancel();
+                return conflict(start.getStatus());
+            }
+            permit.releaseWhenDone(start.getFlow());
+            if (async) {
+                return accepted(start.getStatus());
+            }
+            final FlowStatusBean finished = start.getCompletion().get();
+            if (finished.getStatus() == FlowStatusBean.Status.FAILED) {
+                return Response.status(BAD_REQUEST).entity(finished.getError()).build();
+            }
+
+            final String msg = String.format("Loan Application Response from STANDARD CHARTERED BANK. \n Transaction id %s is sucessfully  committed to ledger.\n", finished.getTransactionId());
             return Response.status(CREATED).entity(msg).build();
 
         } catch (Throwable ex) {
+            permit.cancel();
             final String msg = ex.getMessage();
             logger.error(ex.getMessage(), ex);
             return Response.status(BAD_REQUEST).entity(msg).build();
         }
     }
 
+    /**
+     * Returns the progress of a flow started through this API. Any POST above returns the run id straight away when
+     * called with ?async=true.
+     */
+    @GET
+    @Path("flows/{runId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getFlowStatus(@PathParam("runId") String runId) {
+        final FlowStatusBean status = flowTracker.get(runId);
+        if (status == null) {
+            return Response.status(NOT_FOUND).entity("No flow with run id " + runId + " was started through this API.\n").build();
+        }
+        return Response.status(OK).entity(status).build();
+    }
+
+    /**
+     * Completes only once the flow has finished, without holding a worker thread while waiting. If the flow is still
+     * running when the timeout expires the current status is returned with 202 so the client can poll again.
+     * Needs the servlet to be deployed with async support, otherwise use GET flows/{runId}.
+     */
+    @GET
+    @Path("flows/{runId}/result")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void awaitFlowResult(@PathParam("runId") String runId,
+                                @QueryParam("timeout") @DefaultValue("60") long timeoutSeconds,
+                                @Suspended AsyncResponse asyncResponse) {
+        final CompletableFuture<FlowStatusBean> completion = flowTracker.completion(runId);
+        if (completion == null) {
+            asyncResponse.resume(Response.status(NOT_FOUND).entity("No flow with run id " + runId + " was started through this API.\n").build());
+            return;
+        }
+
+        asyncResponse.setTimeout(timeoutSeconds, TimeUnit.SECONDS);
+        asyncResponse.setTimeoutHandler(response -> response.resume(Response.status(ACCEPTED).entity(flowTracker.get(runId)).build()));
+        completion.thenAccept(status -> asyncResponse.resume(Response
+                .status(status.getStatus() == FlowStatusBean.Status.COMPLETED ? OK : BAD_REQUEST)
+                .entity(status)
+                .build()));
+    }
+
+    private Response accepted(FlowStatusBean status) {
+        return Response.status(ACCEPTED).location(URI.create("flows/" + status.getRunId())).entity(status).build();
+    }
+
+    /** The counterparty already has as many flows running as it keeps up with; the caller should come back later. */
+    private Response tooBusy(Party counterparty) {
+        return Response.status(TOO_MANY_REQUESTS)
+                .header("Retry-After", admission.retryAfterSeconds(counterparty.getName()))
+                .entity(counterparty.getName() + " is busy with other flows, retry later.\n")
+                .build();
+    }
+
+    /** A flow for the same input is still running; the caller can follow that one instead of starting another. */
+    private Response conflict(FlowStatusBean running) {
+        return Response.status(CONFLICT).location(URI.create("flows/" + running.getRunId())).entity(running).build();
+    }
+
     /**
      * Returns all parties registered with the [NetworkMapService]. These names can be used to look up identities
      * using the [IdentityService].
@@ -254,19 +1086,43 @@ public class LoanFinanceApi {
     @Path("peers")
     @Produces(MediaType.APPLICATION_JSON)
     public Map<String, List<CordaX500Name>> getPeers() {
-        List<NodeInfo> nodeInfoSnapshot = rpcOps.networkMapSnapshot();
-        return ImmutableMap.of("peers", nodeInfoSnapshot.stream().map(node -> node.getLegalIdentities().get(0).getName())
-                .filter(name -> !name.equals(myLegalName) && !serviceNames.contains(name.getOrganisation()))
-                .collect(toList()));
+        return ImmutableMap.of("peers", partyCache.peers());
+    }
+
+    /**
+     * The banks loan applications are routed to, with their share of the hash ring, the applications routed to them
+     * and the applications in flight.
+     */
+    @GET
+    @Path("banks")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, List<Map<String, Object>>> getBanks() {
+        return ImmutableMap.of("banks", bankRouter.banks());
+    }
+
+    /**
+     * Hit and miss counters of the network map cache used to resolve parties.
+     */
+    @GET
+    @Path("partycache")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Long> getPartyCacheStats() {
+        return partyCache.stats();
     }
 
     /**
-     * Displays all states that exist in the node's vault.
+     * Displays the LoanRequestStates that exist in the node's vault, one page at a time.
      */
     @GET
     @Path("states")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<StateAndRef<LoanRequestState>> getStatesFromVault() {
-        return rpcOps.vaultQuery(LoanRequestState.class).getStates();
+    public Response getStatesFromVault(@QueryParam("page") @DefaultValue("1") int page,
+                                       @QueryParam("pageSize") @DefaultValue("200") int pageSize,
+                                       @QueryParam("sort") String sort,
+                                       @QueryParam("status") String status,
+                                       @QueryParam("company") String company,
+                                       @QueryParam("bank") String bank,
+                                       @QueryParam("eligible") Boolean eligible) {
+        return queryStates(LoanRequestState.class, page, pageSize, sort, status, company, bank, eligible);
     }
 }
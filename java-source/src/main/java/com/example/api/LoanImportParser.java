@@ -0,0 +1,166 @@
+package com.example.api;
+
+import com.example.bean.DataBean;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.corda.core.identity.CordaX500Name;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Turns one line of an import file into a loan application. CSV files have the columns company, amount and bank,
+ * in that order unless a header line names them; NDJSON files have one object per line with the same fields. The
+ * bank is a legal name and may be left empty to have the application routed by company name. Lines that cannot be
+ * read are rejected with an IllegalArgumentException saying why.
+ */
+public class LoanImportParser {
+
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    static private final ObjectMapper JSON = new ObjectMapper();
+
+    private final Format format;
+    private int companyColumn = 0;
+    private int amountColumn = 1;
+    private int bankColumn = 2;
+    private boolean firstLine = true;
+
+    public LoanImportParser(Format format) {
+        this.format = format;
+    }
+
+    /**
+     * The application on the line, or null when the line carries none: it is blank or it is the CSV header.
+     */
+    public DataBean parse(String line) {
+        final boolean first = firstLine;
+        firstLine = false;
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        if (format == Format.NDJSON) {
+            return parseJson(line);
+        }
+
+        final List<String> fields = splitCsv(line);
+        if (first && isHeader(fields)) {
+            return null;
+        }
+        return application(field(fields, companyColumn), field(fields, amountColumn), field(fields, bankColumn));
+    }
+
+    private boolean isHeader(List<String> fields) {
+        int company = -1;
+        int amount = -1;
+        int bank = -1;
+        for (int i = 0; i < fields.size(); i++) {
+            switch (fields.get(i).trim().toLowerCase(Locale.ROOT)) {
+                case "company":
+                    company = i;
+                    break;
+                case "amount":
+                case "value":
+                    amount = i;
+                    break;
+                case "bank":
+                case "partyname":
+                    bank = i;
+                    break;
+                default:
+            }
+        }
+        if (company < 0) {
+            return false;
+        }
+        if (amount < 0) {
+            throw new IllegalArgumentException("the header names no amount column.");
+        }
+        companyColumn = company;
+        amountColumn = amount;
+        bankColumn = bank;
+        return true;
+    }
+
+    private DataBean parseJson(String line) {
+        final JsonNode node;
+        try {
+            node = JSON.readTree(line);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("not a JSON object: " + ex.getMessage());
+        }
+        if (node == null || !node.isObject()) {
+            throw new IllegalArgumentException("not a JSON object.");
+        }
+        final JsonNode amount = node.has("amount") ? node.get("amount") : node.get("value");
+        final JsonNode bank = node.has("bank") ? node.get("bank") : node.get("partyName");
+        return application(text(node.get("company")), text(amount), text(bank));
+    }
+
+    private static DataBean application(String company, String amount, String bank) {
+        if (company == null || company.trim().isEmpty()) {
+            throw new IllegalArgumentException("company name is missing.");
+        }
+        final DataBean application = new DataBean();
+        application.setCompany(company.trim());
+        try {
+            application.setValue(Integer.parseInt(amount == null ? "" : amount.trim()));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("amount '" + amount + "' is not a whole number.");
+        }
+        if (bank != null && !bank.trim().isEmpty()) {
+            try {
+                application.setPartyName(CordaX500Name.parse(bank.trim()));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("bank '" + bank + "' is not a legal name: " + ex.getMessage());
+            }
+        }
+        return application;
+    }
+
+    private static String text(JsonNode node) {
+        return node == null || node.isNull() ? null : node.asText();
+    }
+
+    private static String field(List<String> fields, int column) {
+        return column >= 0 && column < fields.size() ? fields.get(column) : null;
+    }
+
+    /**
+     * Splits a CSV line on commas outside double quotes; a doubled quote inside quotes stands for one quote.
+     */
+    static List<String> splitCsv(String line) {
+        final List<String> fields = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("a quoted field is not closed.");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,413 @@
+package com.example.api;
+
+import com.example.bean.DataBean;
+import com.example.bean.FlowStatusBean;
+import com.google.common.collect.ImmutableMap;
+import net.corda.core.contracts.UniqueIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * Imports loan applications from an uploaded file. The file is read line by line as it arrives and every application
+ * is handed to the {@link Submitter}, with at most 'concurrency' of them in flight, so neither the file nor the
+ * outstanding flows pile up in memory.
+ *
+ * An import is committed up to the last line below which every application has finished; that line and the finished
+ * lines above it are written to a checkpoint every second. Uploading the same file again under the same import id
+ * skips everything the checkpoint covers. Every line is noted in a journal with the linear id of the request its flow
+ * will create, before the flow is started, so the lines that were in flight when an import was interrupted are known
+ * on resume: a line is only submitted again, with the same linear id, when the vault has no request with that id.
+ * Lines that fail, and why, are appended to an error report that can be downloaded as CSV; they count as finished and
+ * are not retried on resume. Lines refused because the bank is too busy are deferred instead: they stay uncommitted,
+ * the import ends INTERRUPTED and sending the file again submits them.
+ *
+ * Checkpoints and error reports are kept in the directory set with {@value #DIRECTORY_PROPERTY} (default
+ * {@value #DEFAULT_DIRECTORY}).
+ */
+public class LoanImporter {
+
+    public static final String DIRECTORY_PROPERTY = "loan.import.dir";
+    static final String DEFAULT_DIRECTORY = "loan-imports";
+    static final long CHECKPOINT_INTERVAL_MILLIS = 1000;
+    static private final Pattern IMPORT_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    static private final Logger logger = LoggerFactory.getLogger(LoanImporter.class);
+
+    /**
+     * Starts the flows for the applications and looks up the ones recorded before an interruption.
+     */
+    public interface Submitter {
+        /**
+         * Starts the flow for one application, creating the request with the given linear id, and returns its
+         * completion; throws IllegalArgumentException when the application is refused before a flow is started, and
+         * RejectedExecutionException when it cannot be taken now and should be tried again later.
+         */
+        CompletableFuture<FlowStatusBean> submit(DataBean application, UniqueIdentifier linearId) throws Exception;
+
+        /**
+         * Whether the vault has a loan request with the given linear id, consumed or not.
+         */
+        boolean recorded(UniqueIdentifier linearId);
+    }
+
+    public enum State {
+        RUNNING, COMPLETED, INTERRUPTED
+    }
+
+    /** The progress of one import. */
+    public class Job {
+        private final String id;
+        private final long startNanos = System.nanoTime();
+        private volatile State state = State.RUNNING;
+        private long committedLine;
+        private final TreeSet<Long> finishedAbove = new TreeSet<>();
+        private final TreeMap<Long, UniqueIdentifier> started = new TreeMap<>();
+        private Writer journal;
+        private long linesRead;
+        private long resumed;
+        private long submitted;
+        private long succeeded;
+        private long failed;
+        private long deferred;
+        private long lastCheckpointNanos = System.nanoTime();
+
+        Job(String id) {
+            this.id = id;
+        }
+
+        synchronized boolean isCommitted(long line) {
+            return line <= committedLine || finishedAbove.contains(line);
+        }
+
+        /**
+         * The linear id of the request the line's flow creates if it was started before the import was interrupted,
+         * or null.
+         */
+        synchronized UniqueIdentifier startedAs(long line) {
+            return started.get(line);
+        }
+
+        /** Notes the line and the linear id of its request in the journal before its flow can be started. */
+        synchronized void starting(long line, UniqueIdentifier linearId) throws IOException {
+            started.put(line, linearId);
+            journal.write(started(line, linearId) + "\n");
+            journal.flush();
+        }
+
+        synchronized void finished(long line, boolean success) {
+            if (success) {
+                succeeded++;
+            } else {
+                failed++;
+            }
+            skipped(line);
+        }
+
+        /** Leaves a line the bank had no room for uncommitted, for the next upload of the file. */
+        synchronized void deferred(long line) {
+            started.remove(line);
+            deferred++;
+        }
+
+        /** Marks a line without an application, or already imported, as done. */
+        synchronized void skipped(long line) {
+            started.remove(line);
+            finishedAbove.add(line);
+            while (finishedAbove.remove(committedLine + 1)) {
+                committedLine++;
+            }
+        }
+
+        public synchronized Map<String, Object> progress() {
+            final double seconds = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)) / 1000.0;
+            return ImmutableMap.<String, Object>builder()
+                    .put("importId", id)
+                    .put("state", state.name())
+                    .put("linesRead", linesRead)
+                    .put("resumed", resumed)
+                    .put("submitted", submitted)
+                    .put("succeeded", succeeded)
+                    .put("failed", failed)
+                    .put("deferred", deferred)
+                    .put("committedLine", committedLine)
+                    .put("throughputPerSecond", Math.round(submitted / seconds * 100) / 100.0)
+                    .build();
+        }
+
+        private void checkpoint(boolean force) throws IOException {
+            final String contents;
+            synchronized (this) {
+                if (!force && System.nanoTime() - lastCheckpointNanos < TimeUnit.MILLISECONDS.toNanos(CHECKPOINT_INTERVAL_MILLIS)) {
+                    return;
+                }
+                lastCheckpointNanos = System.nanoTime();
+                contents = committedLine + "\n" + finishedAbove.stream().map(String::valueOf).collect(joining(",")) + "\n"
+                        + started.entrySet().stream().map(entry -> started(entry.getKey(), entry.getValue())).collect(joining(",")) + "\n";
+            }
+            // written aside and moved over the old one, an interruption leaves either checkpoint whole
+            final File checkpoint = file(id, ".checkpoint");
+            final File written = file(id, ".checkpoint.tmp");
+            Files.write(written.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+            Files.move(written.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // the checkpoint lists the lines started so far, the journal only has to cover the ones started after it;
+            // lines are only started by the thread reading the file, which is the one writing checkpoints
+            synchronized (this) {
+                if (journal != null) {
+                    journal.close();
+                    journal = openJournal(false);
+                }
+            }
+        }
+
+        private Writer openJournal(boolean append) throws IOException {
+            return new OutputStreamWriter(new FileOutputStream(file(id, ".started"), append), StandardCharsets.UTF_8);
+        }
+
+        private synchronized void closeJournal() throws IOException {
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+        }
+
+        private synchronized void restore() throws IOException {
+            final File checkpoint = file(id, ".checkpoint");
+            if (checkpoint.exists()) {
+                final List<String> lines = Files.readAllLines(checkpoint.toPath(), StandardCharsets.UTF_8);
+                committedLine = Long.parseLong(lines.get(0).trim());
+                if (lines.size() > 1) {
+                    readLines(lines.get(1), finishedAbove);
+                }
+                if (lines.size() > 2) {
+                    readStarted(lines.get(2));
+                }
+            }
+            final File journalled = file(id, ".started");
+            if (journalled.exists()) {
+                for (String line : Files.readAllLines(journalled.toPath(), StandardCharsets.UTF_8)) {
+                    readStarted(line);
+                }
+            }
+            started.keySet().removeIf(this::isCommitted);
+            journal = openJournal(true);
+        }
+
+        private String started(long line, UniqueIdentifier linearId) {
+            return line + ":" + linearId.getId();
+        }
+
+        private void readStarted(String entries) {
+            for (String entry : entries.split(",")) {
+                final int separator = entry.indexOf(':');
+                if (separator > 0) {
+                    started.put(Long.parseLong(entry.substring(0, separator).trim()),
+                            new UniqueIdentifier(null, UUID.fromString(entry.substring(separator + 1).trim())));
+                }
+            }
+        }
+
+        private void readLines(String numbers, TreeSet<Long> into) {
+            for (String number : numbers.split(",")) {
+                if (!number.trim().isEmpty()) {
+                    into.add(Long.parseLong(number.trim()));
+                }
+            }
+        }
+    }
+
+    private final File directory;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    public LoanImporter() {
+        this.directory = new File(System.getProperty(DIRECTORY_PROPERTY, DEFAULT_DIRECTORY));
+    }
+
+    /**
+     * The import with the given id run since this web server started, or null.
+     */
+    public Job job(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * The error report of an import, or null if it has none.
+     */
+    public File errors(String id) {
+        final File errors = isValidId(id) ? file(id, ".errors.csv") : null;
+        return errors != null && errors.exists() ? errors : null;
+    }
+
+    public static boolean isValidId(String id) {
+        return id != null && IMPORT_ID.matcher(id).matches();
+    }
+
+    /**
+     * Imports the input to its end and waits for the last flow. Returns null when an import with the id is running
+     * already.
+     */
+    public Job run(String id, LoanImportParser.Format format, InputStream input, int concurrency, Submitter submitter) throws IOException, InterruptedException {
+        final Job job = new Job(id);
+        if (jobs.compute(id, (key, previous) -> previous != null && previous.state == State.RUNNING ? previous : job) != job) {
+            return null;
+        }
+        Files.createDirectories(directory.toPath());
+        job.restore();
+
+        final LoanImportParser parser = new LoanImportParser(format);
+        final Semaphore permits = new Semaphore(concurrency);
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        try (Writer errorReport = errorReport(id)) {
+            try {
+                String text;
+                long line = 0;
+                while ((text = reader.readLine()) != null) {
+                    line++;
+                    synchronized (job) {
+                        job.linesRead++;
+                    }
+                    if (job.isCommitted(line)) {
+                        synchronized (job) {
+                            job.resumed++;
+                        }
+                        if (line == 1) {
+                            // the parser still has to see a header line to know the column order
+                            try {
+                                parser.parse(text);
+                            } catch (IllegalArgumentException ignored) {
+                                // reported when the line was first imported
+                            }
+                        }
+                        continue;
+                    }
+                    submit(job, line, text, parser, permits, submitter, errorReport);
+                    job.checkpoint(false);
+                }
+                permits.acquire(concurrency);
+                job.state = job.deferred == 0 ? State.COMPLETED : State.INTERRUPTED;
+            } catch (Exception ex) {
+                // let the flows in flight finish so the checkpoint covers them, the rest is submitted again on resume
+                job.state = State.INTERRUPTED;
+                permits.tryAcquire(concurrency, 1, TimeUnit.MINUTES);
+                throw ex;
+            } finally {
+                job.checkpoint(true);
+                job.closeJournal();
+                logger.info("Import {} {}: {}", id, job.state, job.progress());
+            }
+        }
+        return job;
+    }
+
+    private void submit(Job job, long line, String text, LoanImportParser parser, Semaphore permits, Submitter submitter,
+                        Writer errorReport) throws InterruptedException, IOException {
+        final DataBean application;
+        try {
+            application = parser.parse(text);
+        } catch (IllegalArgumentException ex) {
+            reportError(errorReport, line, null, ex.getMessage());
+            job.finished(line, false);
+            return;
+        }
+        if (application == null) {
+            job.skipped(line);
+            return;
+        }
+        final UniqueIdentifier startedAs = job.startedAs(line);
+        if (startedAs != null && submitter.recorded(startedAs)) {
+            synchronized (job) {
+                job.resumed++;
+            }
+            job.skipped(line);
+            return;
+        }
+        // a flow started before the interruption that is still running creates the same request, not a second one
+        final UniqueIdentifier linearId = startedAs != null ? startedAs : new UniqueIdentifier();
+
+        permits.acquire();
+        try {
+            job.starting(line, linearId);
+            final CompletableFuture<FlowStatusBean> completion = submitter.submit(application, linearId);
+            synchronized (job) {
+                job.submitted++;
+            }
+            completion.whenComplete((status, error) -> {
+                final boolean success = error == null && status.getStatus() == FlowStatusBean.Status.COMPLETED;
+                if (!success) {
+                    reportError(errorReport, line, application, error != null ? error.getMessage() : status.getError());
+                }
+                job.finished(line, success);
+                permits.release();
+            });
+        } catch (RejectedExecutionException ex) {
+            permits.release();
+            job.deferred(line);
+            logger.warn("Import {} line {} deferred: {}", job.id, line, ex.getMessage());
+        } catch (Exception ex) {
+            permits.release();
+            reportError(errorReport, line, application, ex.getMessage());
+            job.finished(line, false);
+        }
+    }
+
+    private Writer errorReport(String id) throws IOException {
+        final File errors = file(id, ".errors.csv");
+        final boolean created = !errors.exists();
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(errors, true), StandardCharsets.UTF_8);
+        if (created) {
+            writer.write("line,company,amount,bank,error\n");
+        }
+        return writer;
+    }
+
+    private static void reportError(Writer errorReport, long line, DataBean application, String error) {
+        final List<String> fields = new ArrayList<>();
+        fields.add(String.valueOf(line));
+        fields.add(application == null ? "" : application.getCompany());
+        fields.add(application == null ? "" : String.valueOf(application.getValue()));
+        fields.add(application == null || application.getPartyName() == null ? "" : application.getPartyName().toString());
+        fields.add(error == null ? "" : error.trim());
+        final String row = fields.stream().map(LoanImporter::quote).collect(joining(",")) + "\n";
+        synchronized (errorReport) {
+            try {
+                errorReport.write(row);
+                errorReport.flush();
+            } catch (IOException ex) {
+                logger.error("Cannot write to the import error report", ex);
+            }
+        }
+    }
+
+    private static String quote(String field) {
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+
+    private File file(String id, String suffix) {
+        return new File(directory, id + suffix);
+    }
+}
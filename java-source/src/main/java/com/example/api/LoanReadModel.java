@@ -0,0 +1,294 @@
+package com.example.api;
+
+import com.example.bean.LoanViewBean;
+import com.example.state.LoanRequestState;
+import com.example.state.LoanVerificationState;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.BinaryComparisonOperator;
+import net.corda.core.node.services.vault.ColumnPredicate;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Read-side projection of the unconsumed loan states on this node. It is loaded once by paging through the vault in
+ * the background and then kept current from {@link LoanVaultFeed}, so lookups by linear id, company or bank are
+ * answered from hash indexes without a vault query.
+ *
+ * The load pages by recorded time and state ref rather than by offset, so states consumed while it runs do not shift
+ * later pages over states not yet read; the updates that arrive meanwhile are applied once it is done. A load that
+ * fails is started over after a delay that doubles up to {@value #MAX_RETRY_DELAY_MILLIS} ms.
+ */
+public class LoanReadModel {
+
+    static final int LOAD_PAGE_SIZE = 1000;
+    static final long FIRST_RETRY_DELAY_MILLIS = 1000;
+    static final long MAX_RETRY_DELAY_MILLIS = 60000;
+    static private final Sort LOAD_ORDER = new Sort(ImmutableList.of(
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+
+    static private final Logger logger = LoggerFactory.getLogger(LoanReadModel.class);
+
+    private static class LoanRecord {
+        StateAndRef<LoanRequestState> request;
+        final Map<UniqueIdentifier, StateAndRef<LoanVerificationState>> verifications = new HashMap<>();
+        String company;
+        CordaX500Name bank;
+
+        boolean isEmpty() {
+            return request == null && verifications.isEmpty();
+        }
+
+        LoanViewBean view(UniqueIdentifier loanId) {
+            return new LoanViewBean(loanId, request, new ArrayList<>(verifications.values()));
+        }
+    }
+
+    private final Object lock = new Object();
+    private final Map<UniqueIdentifier, LoanRecord> loans = new ConcurrentHashMap<>();
+    private final Map<UniqueIdentifier, UniqueIdentifier> loanIdByVerificationId = new ConcurrentHashMap<>();
+    private final Map<String, Set<UniqueIdentifier>> loansByCompany = new ConcurrentHashMap<>();
+    private final Map<CordaX500Name, Set<UniqueIdentifier>> loansByBank = new ConcurrentHashMap<>();
+    private final List<Vault.Update<? extends ContractState>> pendingUpdates = new ArrayList<>();
+    private volatile boolean ready = false;
+    private final ScheduledExecutorService loader;
+    private long retryDelayMillis = FIRST_RETRY_DELAY_MILLIS;
+
+    public LoanReadModel(CordaRPCOps rpcOps, LoanVaultFeed feed) {
+        feed.addListener(this::onUpdate);
+        this.loader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "loan-read-model-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loader.execute(() -> load(rpcOps));
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Looks a loan up by the linear id of either its LoanRequestState or one of its LoanVerificationStates.
+     */
+    public LoanViewBean byLinearId(UniqueIdentifier linearId) {
+        synchronized (lock) {
+            UniqueIdentifier loanId = linearId;
+            LoanRecord record = loans.get(loanId);
+            if (record == null) {
+                loanId = loanIdByVerificationId.get(linearId);
+                record = loanId == null ? null : loans.get(loanId);
+            }
+            return record == null ? null : record.view(loanId);
+        }
+    }
+
+    public List<LoanViewBean> byCompany(String company) {
+        return views(loansByCompany.get(normalise(company)));
+    }
+
+    public List<LoanViewBean> byBank(CordaX500Name bank) {
+        return views(loansByBank.get(bank));
+    }
+
+    public Map<String, Integer> stats() {
+        final Map<String, Integer> stats = new HashMap<>();
+        stats.put("loans", loans.size());
+        stats.put("verifications", loanIdByVerificationId.size());
+        stats.put("companies", loansByCompany.size());
+        stats.put("banks", loansByBank.size());
+        return stats;
+    }
+
+    private List<LoanViewBean> views(Set<UniqueIdentifier> loanIds) {
+        if (loanIds == null) {
+            return Collections.emptyList();
+        }
+        synchronized (lock) {
+            return loanIds.stream()
+                    .filter(loans::containsKey)
+                    .map(loanId -> loans.get(loanId).view(loanId))
+                    .collect(toList());
+        }
+    }
+
+    private void load(CordaRPCOps rpcOps) {
+        synchronized (lock) {
+            // a retry starts over, the updates buffered from here on cover everything the pages may miss
+            loans.clear();
+            loanIdByVerificationId.clear();
+            loansByCompany.clear();
+            loansByBank.clear();
+            pendingUpdates.clear();
+        }
+        try {
+            loadType(rpcOps, LoanRequestState.class);
+            loadType(rpcOps, LoanVerificationState.class);
+            synchronized (lock) {
+                // Updates that arrived while paging are newer than or equal to what was loaded.
+                pendingUpdates.forEach(this::apply);
+                pendingUpdates.clear();
+                ready = true;
+            }
+            logger.info("Loan read model loaded {} loans", loans.size());
+        } catch (RuntimeException ex) {
+            logger.error("Loading the loan read model failed, retrying in " + retryDelayMillis + " ms", ex);
+            loader.schedule(() -> load(rpcOps), retryDelayMillis, TimeUnit.MILLISECONDS);
+            retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Pages through the unconsumed states of a type from the last one read onwards. Only the states recorded at the
+     * same instant as the last one read are paged by offset, when there are more of them than fit on a page.
+     */
+    private <T extends ContractState> void loadType(CordaRPCOps rpcOps, Class<T> stateType) {
+        LoanChanges.Mark after = LoanChanges.Mark.START;
+        int pageNumber = 1;
+        while (true) {
+            final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED, null, null, null, null,
+                    new QueryCriteria.TimeCondition(QueryCriteria.TimeInstantType.RECORDED,
+                            new ColumnPredicate.BinaryComparison<>(BinaryComparisonOperator.GREATER_THAN_OR_EQUAL, after.time)));
+            final Vault.Page<T> page = rpcOps.vaultQueryBy(criteria, new PageSpecification(pageNumber, LOAD_PAGE_SIZE), LOAD_ORDER, stateType);
+            boolean progressed = false;
+            synchronized (lock) {
+                for (int i = 0; i < page.getStates().size(); i++) {
+                    final StateAndRef<T> state = page.getStates().get(i);
+                    final LoanChanges.Mark mark = new LoanChanges.Mark(page.getStatesMetadata().get(i).getRecordedTime(),
+                            state.getRef().getTxhash().toString(), state.getRef().getIndex());
+                    if (after.covers(mark.time, mark.txId, mark.index)) {
+                        continue;
+                    }
+                    produced(state);
+                    after = mark;
+                    progressed = true;
+                }
+            }
+            if (page.getStates().size() < LOAD_PAGE_SIZE) {
+                return;
+            }
+            pageNumber = progressed ? 1 : pageNumber + 1;
+        }
+    }
+
+    private void onUpdate(Vault.Update<? extends ContractState> update) {
+        synchronized (lock) {
+            if (ready) {
+                apply(update);
+            } else {
+                pendingUpdates.add(update);
+            }
+        }
+    }
+
+    private void apply(Vault.Update<? extends ContractState> update) {
+        update.getConsumed().forEach(this::consumed);
+        update.getProduced().forEach(this::produced);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void produced(StateAndRef<? extends ContractState> stateAndRef) {
+        final ContractState state = stateAndRef.getState().getData();
+        if (state instanceof LoanRequestState) {
+            final LoanRequestState request = (LoanRequestState) state;
+            final LoanRecord record = loans.computeIfAbsent(request.getLinearIdLoanReq(), id -> new LoanRecord());
+            record.request = (StateAndRef<LoanRequestState>) stateAndRef;
+            index(request.getLinearIdLoanReq(), record, request.getCompanyName(), request.getBankNode());
+        } else if (state instanceof LoanVerificationState) {
+            final LoanVerificationState verification = (LoanVerificationState) state;
+            final LoanRecord record = loans.computeIfAbsent(verification.getLinearIdLoanReq(), id -> new LoanRecord());
+            record.verifications.put(verification.getLinearIdLoanVer(), (StateAndRef<LoanVerificationState>) stateAndRef);
+            loanIdByVerificationId.put(verification.getLinearIdLoanVer(), verification.getLinearIdLoanReq());
+            index(verification.getLinearIdLoanReq(), record, verification.getCompanyName(), verification.getBankNode());
+        }
+    }
+
+    private void consumed(StateAndRef<? extends ContractState> stateAndRef) {
+        final ContractState state = stateAndRef.getState().getData();
+        if (state instanceof LoanRequestState) {
+            final UniqueIdentifier loanId = ((LoanRequestState) state).getLinearIdLoanReq();
+            final LoanRecord record = loans.get(loanId);
+            if (record != null && record.request != null && record.request.getRef().equals(stateAndRef.getRef())) {
+                record.request = null;
+                removeIfEmpty(loanId, record);
+            }
+        } else if (state instanceof LoanVerificationState) {
+            final LoanVerificationState verification = (LoanVerificationState) state;
+            final UniqueIdentifier loanId = verification.getLinearIdLoanReq();
+            final LoanRecord record = loans.get(loanId);
+            if (record == null) {
+                return;
+            }
+            final StateAndRef<LoanVerificationState> current = record.verifications.get(verification.getLinearIdLoanVer());
+            if (current != null && current.getRef().equals(stateAndRef.getRef())) {
+                record.verifications.remove(verification.getLinearIdLoanVer());
+                loanIdByVerificationId.remove(verification.getLinearIdLoanVer());
+                removeIfEmpty(loanId, record);
+            }
+        }
+    }
+
+    private void index(UniqueIdentifier loanId, LoanRecord record, String company, Party bank) {
+        if (record.company == null && company != null) {
+            record.company = normalise(company);
+            loansByCompany.computeIfAbsent(record.company, key -> ConcurrentHashMap.newKeySet()).add(loanId);
+        }
+        if (record.bank == null && bank != null) {
+            record.bank = bank.getName();
+            loansByBank.computeIfAbsent(record.bank, key -> ConcurrentHashMap.newKeySet()).add(loanId);
+        }
+    }
+
+    private void removeIfEmpty(UniqueIdentifier loanId, LoanRecord record) {
+        if (!record.isEmpty()) {
+            return;
+        }
+        loans.remove(loanId);
+        if (record.company != null) {
+            unindex(loansByCompany, record.company, loanId);
+        }
+        if (record.bank != null) {
+            unindex(loansByBank, record.bank, loanId);
+        }
+    }
+
+    private static <K> void unindex(Map<K, Set<UniqueIdentifier>> index, K key, UniqueIdentifier loanId) {
+        final Set<UniqueIdentifier> loanIds = index.get(key);
+        if (loanIds != null) {
+            loanIds.remove(loanId);
+            if (loanIds.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static String normalise(String company) {
+        return company == null ? null : company.trim().toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.api;
+
+import com.example.schema.LoanRequestSchemaV1;
+import com.example.schema.LoanVerificationSchemaV1;
+import com.example.state.LoanRequestState;
+import com.example.state.LoanVerificationState;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+import net.corda.core.node.services.vault.Sort.SortColumn;
+
+import java.util.Locale;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.MAX_PAGE_SIZE;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
+
+/**
+ * Translates the paging, sorting and filter parameters of the state query endpoints into vault query criteria, so
+ * that the node does the filtering instead of the web server. Company, bank and eligibility are matched on the indexed
+ * columns of {@link LoanRequestSchemaV1} and {@link LoanVerificationSchemaV1}. States recorded before those tables
+ * existed get their rows from LoanSchemaBackfillService when the node starts.
+ */
+public class LoanStateQuery {
+
+    static final int MAX_API_PAGE_SIZE = 5000;
+
+    private final int page;
+    private final int pageSize;
+    private final Sort sort;
+    private final Vault.StateStatus status;
+    private final String company;
+    private final Boolean eligible;
+
+    private LoanStateQuery(LoanStateQuery previous) {
+        this.page = previous.page + 1;
+        this.pageSize = previous.pageSize;
+        this.sort = previous.sort;
+        this.status = previous.status;
+        this.company = previous.company;
+        this.eligible = previous.eligible;
+    }
+
+    public LoanStateQuery(int page, int pageSize, String sort, String status, String company, Boolean eligible) {
+        if (page < 1) {
+            throw new IllegalArgumentException("parameter 'page' must be 1 or greater.");
+        }
+        if (pageSize < 1 || pageSize > Math.min(MAX_API_PAGE_SIZE, MAX_PAGE_SIZE)) {
+            throw new IllegalArgumentException("parameter 'pageSize' must be between 1 and " + MAX_API_PAGE_SIZE + ".");
+        }
+        this.page = page;
+        this.pageSize = pageSize;
+        this.sort = parseSort(sort);
+        this.status = parseStatus(status);
+        this.company = company;
+        this.eligible = eligible;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * The same query, one page further on.
+     */
+    public LoanStateQuery nextPage() {
+        return new LoanStateQuery(this);
+    }
+
+    public PageSpecification paging() {
+        return new PageSpecification(page, pageSize);
+    }
+
+    public Sort sorting() {
+        return sort;
+    }
+
+    /**
+     * Builds the criteria for the node. When a bank is given only states of that bank are returned.
+     */
+    public QueryCriteria criteria(Class<? extends ContractState> stateType, Party bank) {
+        QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(status);
+        if (company == null && bank == null && eligible == null) {
+            return criteria;
+        }
+
+        final Class<?> entity;
+        if (stateType == LoanRequestState.class) {
+            entity = LoanRequestSchemaV1.PersistentLoanRequest.class;
+        } else if (stateType == LoanVerificationState.class) {
+            entity = LoanVerificationSchemaV1.PersistentLoanVerification.class;
+        } else {
+            throw new IllegalArgumentException(stateType.getSimpleName() + " has no columns to filter on.");
+        }
+        if (company != null) {
+            criteria = criteria.and(column(entity, "companyKey", LoanRequestSchemaV1.companyKey(company)));
+        }
+        if (bank != null) {
+            criteria = criteria.and(column(entity, "bankParty", bank.getName().toString()));
+        }
+        if (eligible != null) {
+            criteria = criteria.and(column(entity, "eligible", eligible));
+        }
+        return criteria;
+    }
+
+    @SuppressWarnings("unchecked")
+    private QueryCriteria column(Class<?> entity, String field, Object value) {
+        return new QueryCriteria.VaultCustomQueryCriteria(Builder.equal(getField(field, entity), value), status);
+    }
+
+    static Vault.StateStatus parseStatus(String status) {
+        if (status == null) {
+            return Vault.StateStatus.UNCONSUMED;
+        }
+        try {
+            return Vault.StateStatus.valueOf(status.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("parameter 'status' must be one of UNCONSUMED, CONSUMED or ALL.");
+        }
+    }
+
+    /**
+     * Accepts "field" or "field,asc|desc" where field is one of recordedTime, consumedTime, linearId or txId.
+     * Results are ordered by recorded time when nothing is given, and by state ref after the given field, so that
+     * states with the same value keep their order from one page to the next.
+     */
+    private static Sort parseSort(String sort) {
+        final String[] parts = (sort == null || sort.isEmpty() ? "recordedTime" : sort).split(",");
+        final Sort.Direction direction;
+        if (parts.length < 2 || parts[1].trim().equalsIgnoreCase("asc")) {
+            direction = Sort.Direction.ASC;
+        } else if (parts[1].trim().equalsIgnoreCase("desc")) {
+            direction = Sort.Direction.DESC;
+        } else {
+            throw new IllegalArgumentException("sort direction must be asc or desc.");
+        }
+
+        final SortAttribute attribute;
+        switch (parts[0].trim()) {
+            case "recordedTime":
+                attribute = new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME);
+                break;
+            case "consumedTime":
+                attribute = new SortAttribute.Standard(Sort.VaultStateAttribute.CONSUMED_TIME);
+                break;
+            case "linearId":
+                attribute = new SortAttribute.Standard(Sort.LinearStateAttribute.UUID);
+                break;
+            case "txId":
+                attribute = new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID);
+                break;
+            default:
+                throw new IllegalArgumentException("parameter 'sort' must be one of recordedTime, consumedTime, linearId or txId.");
+        }
+        final ImmutableList.Builder<SortColumn> columns = ImmutableList.<SortColumn>builder().add(new SortColumn(attribute, direction));
+        if (!parts[0].trim().equals("txId")) {
+            columns.add(new SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), direction));
+        }
+        columns.add(new SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), direction));
+        return new Sort(columns.build());
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.api;
+
+import com.example.state.LoanRequestState;
+import com.example.state.LoanVerificationState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * One vaultTrack subscription per loan state type, shared by everything in the web layer that reacts to vault
+ * updates. Only a single state is requested as snapshot, readers that need the current contents page through the
+ * vault themselves.
+ */
+public class LoanVaultFeed {
+
+    static private final Logger logger = LoggerFactory.getLogger(LoanVaultFeed.class);
+
+    private final List<Consumer<Vault.Update<? extends ContractState>>> listeners = new CopyOnWriteArrayList<>();
+
+    public LoanVaultFeed(CordaRPCOps rpcOps) {
+        track(rpcOps, LoanRequestState.class);
+        track(rpcOps, LoanVerificationState.class);
+    }
+
+    public void addListener(Consumer<Vault.Update<? extends ContractState>> listener) {
+        listeners.add(listener);
+    }
+
+    private <T extends ContractState> void track(CordaRPCOps rpcOps, Class<T> stateType) {
+        rpcOps.vaultTrackBy(new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.ALL),
+                new PageSpecification(1, 1),
+                new Sort(Collections.emptySet()),
+                stateType)
+                .getUpdates()
+                .subscribe(this::publish, error -> logger.error("Vault feed for " + stateType.getSimpleName() + " failed", error));
+    }
+
+    private void publish(Vault.Update<? extends ContractState> update) {
+        for (Consumer<Vault.Update<? extends ContractState>> listener : listeners) {
+            try {
+                listener.accept(update);
+            } catch (RuntimeException ex) {
+                logger.error("Vault update listener failed", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.api;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.BinaryComparisonOperator;
+import net.corda.core.node.services.vault.ColumnPredicate;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads every state of a type one page at a time, ordered by recorded or consumed time and then by state ref. Each
+ * page starts after the last state read rather than at an offset, so states consumed while the read runs do not shift
+ * later states onto pages already read, and states recorded or consumed at the same instant keep their order. Only
+ * the states sharing the instant of the last one read are paged by offset, when there are more of them than fit on a
+ * page.
+ */
+class LoanVaultPager {
+
+    /** Takes the states of one page that were not handed over before, with their metadata. */
+    interface PageHandler<T extends ContractState> {
+        void handle(List<StateAndRef<T>> states, List<Vault.StateMetadata> metadata) throws IOException;
+    }
+
+    private LoanVaultPager() {
+    }
+
+    /**
+     * Hands every state with the given status that comes after the mark over to the handler, in pages of up to
+     * 'pageSize'. With 'until' set only states whose time is before it are read.
+     */
+    static <T extends ContractState> void forEachPage(CordaRPCOps rpcOps, Class<T> stateType, Vault.StateStatus status,
+                                                      QueryCriteria.TimeInstantType timeType, LoanChanges.Mark from,
+                                                      Instant until, int pageSize, PageHandler<T> handler) throws IOException {
+        final boolean recorded = timeType == QueryCriteria.TimeInstantType.RECORDED;
+        final Sort sort = new Sort(ImmutableList.of(
+                new Sort.SortColumn(new SortAttribute.Standard(recorded ? Sort.VaultStateAttribute.RECORDED_TIME : Sort.VaultStateAttribute.CONSUMED_TIME), Sort.Direction.ASC),
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+                new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+
+        LoanChanges.Mark after = from;
+        int pageNumber = 1;
+        while (true) {
+            final ColumnPredicate<Instant> time = until == null
+                    ? new ColumnPredicate.BinaryComparison<>(BinaryComparisonOperator.GREATER_THAN_OR_EQUAL, after.time)
+                    : new ColumnPredicate.Between<>(after.time, until);
+            final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(status, null, null, null, null,
+                    new QueryCriteria.TimeCondition(timeType, time));
+            final Vault.Page<T> page = rpcOps.vaultQueryBy(criteria, new PageSpecification(pageNumber, pageSize), sort, stateType);
+
+            final List<StateAndRef<T>> states = new ArrayList<>(page.getStates().size());
+            final List<Vault.StateMetadata> metadata = new ArrayList<>(page.getStates().size());
+            for (int i = 0; i < page.getStates().size(); i++) {
+                final StateAndRef<T> state = page.getStates().get(i);
+                final Vault.StateMetadata stateMetadata = page.getStatesMetadata().get(i);
+                final Instant stateTime = recorded ? stateMetadata.getRecordedTime() : stateMetadata.getConsumedTime();
+                final String txId = state.getRef().getTxhash().toString();
+                final int index = state.getRef().getIndex();
+                // the time predicate includes both ends, 'until' is not part of the range
+                if (after.covers(stateTime, txId, index) || until != null && !stateTime.isBefore(until)) {
+                    continue;
+                }
+                states.add(state);
+                metadata.add(stateMetadata);
+                after = new LoanChanges.Mark(stateTime, txId, index);
+            }
+            if (!states.isEmpty()) {
+                handler.handle(states, metadata);
+            }
+            if (page.getStates().size() < pageSize) {
+                return;
+            }
+            pageNumber = states.isEmpty() ? pageNumber + 1 : 1;
+        }
+    }
+}
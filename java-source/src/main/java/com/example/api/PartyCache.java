@@ -0,0 +1,149 @@
+package com.example.api;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.NetworkMapCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * In-memory copy of the network map for the web layer. It is seeded from networkMapFeed() and kept current by the
+ * feed's updates, so resolving an X500 name or listing the peers does not cost an RPC round trip per request. Updates
+ * that arrive before the snapshot is applied are held back and applied after it, in order.
+ */
+public class PartyCache {
+
+    static private final Logger logger = LoggerFactory.getLogger(PartyCache.class);
+
+    private final CordaRPCOps rpcOps;
+    private final CordaX500Name myLegalName;
+    private final List<String> serviceNames;
+    private final Map<CordaX500Name, NodeInfo> nodes = new ConcurrentHashMap<>();
+    private final Map<CordaX500Name, Party> parties = new ConcurrentHashMap<>();
+    private volatile List<CordaX500Name> peers = ImmutableList.of();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final Object lock = new Object();
+    private final List<NetworkMapCache.MapChange> pendingChanges = new ArrayList<>();
+    private boolean ready;
+
+    public PartyCache(CordaRPCOps rpcOps, CordaX500Name myLegalName, List<String> serviceNames) {
+        this.rpcOps = rpcOps;
+        this.myLegalName = myLegalName;
+        this.serviceNames = serviceNames;
+
+        final DataFeed<List<NodeInfo>, NetworkMapCache.MapChange> feed = rpcOps.networkMapFeed();
+        feed.getUpdates().subscribe(this::onChange, error -> logger.error("Network map feed failed", error));
+        synchronized (lock) {
+            feed.getSnapshot().forEach(this::addNode);
+            // the updates come after the snapshot, a node removed since is removed again
+            pendingChanges.forEach(this::apply);
+            pendingChanges.clear();
+            ready = true;
+            refreshPeers();
+        }
+    }
+
+    /**
+     * Resolves a well known party from memory. Names that are not cached yet fall back to the node and are cached.
+     */
+    public Party wellKnownParty(CordaX500Name name) {
+        if (name == null) {
+            return null;
+        }
+        final Party party = parties.get(name);
+        if (party != null) {
+            hits.incrementAndGet();
+            return party;
+        }
+        misses.incrementAndGet();
+        final Party resolved = rpcOps.wellKnownPartyFromX500Name(name);
+        if (resolved != null) {
+            parties.put(name, resolved);
+        }
+        return resolved;
+    }
+
+    /**
+     * The legal names of every node on the network except this one and the notaries.
+     */
+    public List<CordaX500Name> peers() {
+        return peers;
+    }
+
+    /**
+     * Every node currently on the network map.
+     */
+    public List<NodeInfo> nodes() {
+        return ImmutableList.copyOf(nodes.values());
+    }
+
+    /**
+     * Runs the listener on the feed's thread after every change to the network map.
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public Map<String, Long> stats() {
+        return ImmutableMap.of(
+                "hits", hits.get(),
+                "misses", misses.get(),
+                "nodes", (long) nodes.size(),
+                "parties", (long) parties.size());
+    }
+
+    private void onChange(NetworkMapCache.MapChange change) {
+        synchronized (lock) {
+            if (!ready) {
+                pendingChanges.add(change);
+                return;
+            }
+            apply(change);
+            refreshPeers();
+        }
+        listeners.forEach(Runnable::run);
+    }
+
+    private void apply(NetworkMapCache.MapChange change) {
+        if (change instanceof NetworkMapCache.MapChange.Removed) {
+            removeNode(change.getNode());
+        } else if (change instanceof NetworkMapCache.MapChange.Modified) {
+            removeNode(((NetworkMapCache.MapChange.Modified) change).getPreviousNode());
+            addNode(change.getNode());
+        } else {
+            addNode(change.getNode());
+        }
+    }
+
+    private void addNode(NodeInfo node) {
+        nodes.put(node.getLegalIdentities().get(0).getName(), node);
+        node.getLegalIdentities().forEach(party -> parties.put(party.getName(), party));
+    }
+
+    private void removeNode(NodeInfo node) {
+        nodes.remove(node.getLegalIdentities().get(0).getName());
+        node.getLegalIdentities().forEach(party -> parties.remove(party.getName()));
+    }
+
+    private void refreshPeers() {
+        peers = ImmutableList.copyOf(nodes.keySet().stream()
+                .filter(name -> !name.equals(myLegalName) && !serviceNames.contains(name.getOrganisation()))
+                .collect(toList()));
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.bean;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Outcome of one loan application sent through POST /loans/loanapplications/bulk.
+ */
+@XmlRootElement
+public class BulkItemBean {
+
+    private final int index;
+    private final String company;
+    private String runId;
+    private String transactionId;
+    private String error;
+
+    public BulkItemBean(int index, String company) {
+        this.index = index;
+        this.company = company;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getCompany() {
+        return company;
+    }
+
+    public String getRunId() {
+        return runId;
+    }
+
+    public void setRunId(String runId) {
+        this.runId = runId;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void completed(String transactionId) {
+        this.transactionId = transactionId;
+    }
+
+    public void failed(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkItemBean [index=" + index + "company=" + company + "runId=" + runId + "transactionId=" + transactionId + "error=" + error + "]";
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.bean;
+
+import javax.xml.bind.annotation.XmlRootElement;
+import java.time.Instant;
+
+/**
+ * Snapshot of a flow started through the REST API, as reported by GET /loans/flows/{runId}.
+ */
+@XmlRootElement
+public class FlowStatusBean {
+
+    public enum Status { RUNNING, COMPLETED, FAILED }
+
+    private final String runId;
+    private final String flowName;
+    private final Instant startedAt;
+    private volatile Status status = Status.RUNNING;
+    private volatile String currentStep;
+    private volatile String transactionId;
+    private volatile String error;
+    private volatile Instant finishedAt;
+
+    public FlowStatusBean(String runId, String flowName) {
+        this.runId = runId;
+        this.flowName = flowName;
+        this.startedAt = Instant.now();
+    }
+
+    public String getRunId() {
+        return runId;
+    }
+
+    public String getFlowName() {
+        return flowName;
+    }
+
+    public String getStartedAt() {
+        return startedAt.toString();
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getCurrentStep() {
+        return currentStep;
+    }
+
+    public void setCurrentStep(String currentStep) {
+        this.currentStep = currentStep;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public String getFinishedAt() {
+        return finishedAt == null ? null : finishedAt.toString();
+    }
+
+    public boolean isFinished() {
+        return status != Status.RUNNING;
+    }
+
+    public void completed(String transactionId) {
+        this.transactionId = transactionId;
+        this.finishedAt = Instant.now();
+        this.status = Status.COMPLETED;
+    }
+
+    public void failed(String error) {
+        this.error = error;
+        this.finishedAt = Instant.now();
+        this.status = Status.FAILED;
+    }
+
+    @Override
+    public String toString() {
+        return "FlowStatusBean [runId=" + runId + "flowName=" + flowName + "status=" + status + "currentStep=" + currentStep + "transactionId=" + transactionId + "]";
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.bean;
+
+import com.example.state.LoanRequestState;
+import com.example.state.LoanVerificationState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Compact description of a loan state being produced or consumed, as pushed to GET /loans/events.
+ */
+@XmlRootElement
+public class LoanEventBean {
+
+    public enum Kind { PRODUCED, CONSUMED }
+
+    private long id;
+    private final Kind kind;
+    private final String stateType;
+    private final String linearId;
+    private final String loanRequestLinearId;
+    private final String stateRef;
+    private final String company;
+    private final int amount;
+    private final boolean eligible;
+
+    private LoanEventBean(Kind kind, String stateType, String linearId, String loanRequestLinearId, String stateRef,
+                          String company, int amount, boolean eligible) {
+        this.kind = kind;
+        this.stateType = stateType;
+        this.linearId = linearId;
+        this.loanRequestLinearId = loanRequestLinearId;
+        this.stateRef = stateRef;
+        this.company = company;
+        this.amount = amount;
+        this.eligible = eligible;
+    }
+
+    /**
+     * Describes a LoanRequestState or LoanVerificationState. Returns null for any other state.
+     */
+    public static LoanEventBean of(Kind kind, StateAndRef<? extends ContractState> stateAndRef) {
+        final ContractState state = stateAndRef.getState().getData();
+        final String stateRef = stateAndRef.getRef().toString();
+        if (state instanceof LoanRequestState) {
+            final LoanRequestState request = (LoanRequestState) state;
+            return new LoanEventBean(kind, "LoanRequestState", String.valueOf(request.getLinearIdLoanReq()),
+                    String.valueOf(request.getLinearIdLoanReq()), stateRef, request.getCompanyName(), request.getAmount(),
+                    request.isEligibleForLoan());
+        }
+        if (state instanceof LoanVerificationState) {
+            final LoanVerificationState verification = (LoanVerificationState) state;
+            return new LoanEventBean(kind, "LoanVerificationState", String.valueOf(verification.getLinearIdLoanVer()),
+                    String.valueOf(verification.getLinearIdLoanReq()), stateRef, verification.getCompanyName(),
+                    verification.getAmount(), verification.isEligibleForLoan());
+        }
+        return null;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getStateType() {
+        return stateType;
+    }
+
+    public String getLinearId() {
+        return linearId;
+    }
+
+    public String getLoanRequestLinearId() {
+        return loanRequestLinearId;
+    }
+
+    public String getStateRef() {
+        return stateRef;
+    }
+
+    public String getCompany() {
+        return company;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public boolean isEligible() {
+        return eligible;
+    }
+
+    @Override
+    public String toString() {
+        return "LoanEventBean [id=" + id + "kind=" + kind + "stateType=" + stateType + "linearId=" + linearId + "stateRef=" + stateRef + "]";
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.bean;
+
+import com.example.state.LoanRequestState;
+import com.example.state.LoanVerificationState;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.List;
+
+/**
+ * A loan as known to this node: the current LoanRequestState, if this node sees it, together with the current
+ * LoanVerificationStates that point at it.
+ */
+@XmlRootElement
+public class LoanViewBean {
+
+    private final UniqueIdentifier loanRequestLinearId;
+    private final StateAndRef<LoanRequestState> request;
+    private final List<StateAndRef<LoanVerificationState>> verifications;
+
+    public LoanViewBean(UniqueIdentifier loanRequestLinearId, StateAndRef<LoanRequestState> request, List<StateAndRef<LoanVerificationState>> verifications) {
+        this.loanRequestLinearId = loanRequestLinearId;
+        this.request = request;
+        this.verifications = ImmutableList.copyOf(verifications);
+    }
+
+    public UniqueIdentifier getLoanRequestLinearId() {
+        return loanRequestLinearId;
+    }
+
+    public StateAndRef<LoanRequestState> getRequest() {
+        return request;
+    }
+
+    public List<StateAndRef<LoanVerificationState>> getVerifications() {
+        return verifications;
+    }
+
+    @Override
+    public String toString() {
+        return "LoanViewBean [loanRequestLinearId=" + loanRequestLinearId + "request=" + request + "verifications=" + verifications + "]";
+    }
+}
@@ -6,11 +6,14 @@ import net.corda.core.contracts.Command;
 import net.corda.core.contracts.CommandData;
 import net.corda.core.contracts.Contract;
 import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.identity.Party;
 import net.corda.core.transactions.LedgerTransaction;
 
 import java.security.PublicKey;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
@@ -35,29 +38,37 @@ public class LoanReqContract implements Contract {
         }
     }
 
+    /**
+     * A loan request transaction carries one or more new applications. Every output is checked on its own, so a batch
+     * of applications for the same bank can share one signature round and one notarisation.
+     */
     private void verifyInitiateLoan(LedgerTransaction tx, List<PublicKey> signers) {
 
         requireThat(req -> {
 
             req.using("No input should be consumed while initiating loan", tx.getInputStates().isEmpty());
-            req.using("Only one output should be created during the process of initiating loan", tx.getOutputStates().size() == 1);
+            req.using("At least one output should be created during the process of initiating loan", !tx.getOutputStates().isEmpty());
 
-            ContractState outputState = tx.getOutput(0);
+            Set<UniqueIdentifier> linearIds = new HashSet<>();
 
-            req.using(" Ouput must be a LoanRequestState", outputState instanceof LoanRequestState);
+            for (ContractState outputState : tx.getOutputStates()) {
 
-            LoanRequestState loanReqState = (LoanRequestState) outputState;
+                req.using(" Ouput must be a LoanRequestState", outputState instanceof LoanRequestState);
 
-            req.using("Loan amount should not be zero", loanReqState.getAmount() > 0);
+                LoanRequestState loanReqState = (LoanRequestState) outputState;
 
-            Party financeAgency = loanReqState.getFinanceNode();
+                req.using("Loan amount should not be zero", loanReqState.getAmount() > 0);
+                req.using("Every loan application must have its own linear id", linearIds.add(loanReqState.getLinearId()));
 
-            PublicKey financeAgencyKey = financeAgency.getOwningKey();
-            PublicKey bankKey = loanReqState.getBankNode().getOwningKey();
+                Party financeAgency = loanReqState.getFinanceNode();
 
-            req.using("Finance agency should sign the transaction", signers.contains(financeAgencyKey));
+                PublicKey financeAgencyKey = financeAgency.getOwningKey();
+                PublicKey bankKey = loanReqState.getBankNode().getOwningKey();
 
-            req.using("Bank should sign the transaction", signers.contains(bankKey));
+                req.using("Finance agency should sign the transaction", signers.contains(financeAgencyKey));
+
+                req.using("Bank should sign the transaction", signers.contains(bankKey));
+            }
 
             return null;
         });
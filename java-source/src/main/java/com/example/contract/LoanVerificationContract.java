@@ -6,11 +6,15 @@ import net.corda.core.contracts.Command;
 import net.corda.core.contracts.CommandData;
 import net.corda.core.contracts.Contract;
 import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.transactions.LedgerTransaction;
 import org.jetbrains.annotations.NotNull;
 
 import java.security.PublicKey;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
@@ -25,6 +29,10 @@ public class LoanVerificationContract implements Contract {
 
         public class ReceiveCreditApproval implements LoanReqContract.Commands {
         }
+
+        /** Bank and credit agency record the agency's decision in one transaction, see CreditCheckFlow. */
+        public class IssueCreditDecision implements Commands {
+        }
     }
 
 
@@ -42,6 +50,8 @@ public class LoanVerificationContract implements Contract {
             verifySendForCreditApproval(tx, requiredSigners);
         } else if (commandType instanceof Commands.ReceiveCreditApproval) {
             verifyReceiveCreditApproval(tx, requiredSigners);
+        } else if (commandType instanceof Commands.IssueCreditDecision) {
+            verifyIssueCreditDecision(tx, requiredSigners);
         }
     }
 
@@ -67,33 +77,70 @@ public class LoanVerificationContract implements Contract {
         });
     }
 
-    private void verifyReceiveCreditApproval(LedgerTransaction tx, List<PublicKey> signers) {
+    private void verifyIssueCreditDecision(LedgerTransaction tx, List<PublicKey> signers) {
 
         requireThat(req -> {
 
-            req.using("Only one input should be consumed while giving response from credit agency to Bank", tx.getInputStates().size() == 1);
-            req.using("Only one output should be created ", tx.getOutputStates().size() == 1);
+            req.using("No input should be consumed while issuing a credit decision", tx.getInputStates().isEmpty());
+            req.using("Only one output should be created while issuing a credit decision", tx.getOutputStates().size() == 1);
 
-            ContractState input = tx.getInput(0);
             ContractState output = tx.getOutput(0);
 
-            req.using("input should only be of type LoanVerificationState ", input instanceof LoanVerificationState);
-            req.using("output shoud be of the type LoanVerificationState", output instanceof LoanVerificationState);
+            req.using("Output must be a LoanVerificationState", output instanceof LoanVerificationState);
+
+            LoanVerificationState loanVerState = (LoanVerificationState) output;
+
+            req.using("Loan amount should not be zero", loanVerState.getAmount() > 0);
+            req.using("The decision must refer to a loan request", loanVerState.getLinearIdLoanReq() != null);
+            req.using("CreditAgency must be part of the decision", loanVerState.getCreditAgencyNode() != null);
 
-            LoanVerificationState inputState = (LoanVerificationState) input;
-            LoanVerificationState outputState = (LoanVerificationState) output;
+            PublicKey bankKey = loanVerState.getBankNode().getOwningKey();
+            PublicKey creditAgencyKey = loanVerState.getCreditAgencyNode().getOwningKey();
 
-            PublicKey bankKey = inputState.getBankNode().getOwningKey();
-            PublicKey creditAgencyKey = ((LoanVerificationState) output).getCreditAgencyNode().getOwningKey();
+            req.using("Bank's signature is mandatory for completion of transaction ", signers.contains(bankKey));
+            req.using("CreditAgency's signature is mandatory for completion of transaction ", signers.contains(creditAgencyKey));
 
-            req.using("bank must sign the transaction", signers.contains(bankKey));
-            req.using("creditAgency must sign the transaction", signers.contains(creditAgencyKey));
             return null;
         });
     }
-}
 
+    /**
+     * The credit agency answers one or more pending verifications in one transaction. Every output must be the decision
+     * for the input with the same linear id, so a batch cannot drop, duplicate or alter a pending loan.
+     */
+    private void verifyReceiveCreditApproval(LedgerTransaction tx, List<PublicKey> signers) {
 
+        requireThat(req -> {
+
+            req.using("At least one input should be consumed while giving response from credit agency to Bank", !tx.getInputStates().isEmpty());
+            req.using("Every input should have exactly one output ", tx.getOutputStates().size() == tx.getInputStates().size());
+
+            Map<UniqueIdentifier, LoanVerificationState> pending = new HashMap<>();
+            for (ContractState input : tx.getInputStates()) {
+                req.using("input should only be of type LoanVerificationState ", input instanceof LoanVerificationState);
+                LoanVerificationState inputState = (LoanVerificationState) input;
+                req.using("inputs must not share a linear id", pending.put(inputState.getLinearId(), inputState) == null);
+            }
+
+            for (ContractState output : tx.getOutputStates()) {
+                req.using("output shoud be of the type LoanVerificationState", output instanceof LoanVerificationState);
+
+                LoanVerificationState outputState = (LoanVerificationState) output;
+                LoanVerificationState inputState = pending.remove(outputState.getLinearId());
 
+                req.using("every output must answer an input with the same linear id", inputState != null);
+                req.using("the decision must keep the loan details of its input", inputState.getAmount() == outputState.getAmount()
+                        && Objects.equals(inputState.getCompanyName(), outputState.getCompanyName())
+                        && Objects.equals(inputState.getLinearIdLoanReq(), outputState.getLinearIdLoanReq())
+                        && inputState.getBankNode().equals(outputState.getBankNode()));
 
+                PublicKey bankKey = inputState.getBankNode().getOwningKey();
+                PublicKey creditAgencyKey = outputState.getCreditAgencyNode().getOwningKey();
 
+                req.using("bank must sign the transaction", signers.contains(bankKey));
+                req.using("creditAgency must sign the transaction", signers.contains(creditAgencyKey));
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.contract.LoanVerificationContract;
+import com.example.service.CreditDecisionService;
+import com.example.service.FlowMetricsService;
+import com.example.service.LoanStateIndexService;
+import com.example.service.NotarySelectionService;
+import com.example.state.LoanRequestState;
+import com.example.state.LoanVerificationState;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+
+/**
+ * Single round trip alternative to RequestCreditRatingFlow followed by CreditRatingResponseFlow. The bank sends the
+ * loan details to the credit agency, the agency answers with its decision in the same session, and the decided
+ * LoanVerificationState is recorded in one notarised transaction instead of two.
+ */
+public class CreditCheckFlow {
+
+    /**
+     * What the credit agency needs to take its decision.
+     */
+    @CordaSerializable
+    public static class CreditCheckRequest {
+        private final String companyName;
+        private final int amount;
+        private final UniqueIdentifier linearIdLoanReq;
+
+        public CreditCheckRequest(String companyName, int amount, UniqueIdentifier linearIdLoanReq) {
+            this.companyName = companyName;
+            this.amount = amount;
+            this.linearIdLoanReq = linearIdLoanReq;
+        }
+
+        public String getCompanyName() {
+            return companyName;
+        }
+
+        public int getAmount() {
+            return amount;
+        }
+
+        public UniqueIdentifier getLinearIdLoanReq() {
+            return linearIdLoanReq;
+        }
+    }
+
+    @InitiatingFlow
+    @StartableByRPC
+    public static class Initiator extends FlowLogic<SignedTransaction> {
+        private final Party creditParty;
+        private final UniqueIdentifier linearIdRequestForLoan;
+
+        /** This constructor is called from REST API **/
+        public Initiator(Party creditParty, UniqueIdentifier linearIdRequestForLoan) {
+            this.creditParty = creditParty;
+            this.linearIdRequestForLoan = linearIdRequestForLoan;
+        }
+
+        public UniqueIdentifier getLinearIdRequestForLoan() {
+            return linearIdRequestForLoan;
+        }
+
+        private final ProgressTracker.Step LOAN_ELIGIBILITY = new ProgressTracker.Step("Sending Loan application to credit rating agecny to check loan eligibilty and CIBIL score");
+        private final ProgressTracker.Step LOAN_ELIGIBILITY_RESPONSE = new ProgressTracker.Step("Response from credit rating agency about loan eligibility and approval");
+        private final ProgressTracker.Step VERIFYING_TRANSACTION = new ProgressTracker.Step("Verifying contract constraints.");
+        private final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step("Signing transaction with our private key.");
+        private final ProgressTracker.Step GATHERING_SIGS = new ProgressTracker.Step("Gathering the counterparty's signature.") {
+            public ProgressTracker childProgressTracker() {
+                return CollectSignaturesFlow.Companion.tracker();
+            }
+        };
+        private final ProgressTracker.Step FINALISING_TRANSACTION = new ProgressTracker.Step("Obtaining notary signature and recording transaction.") {
+            public ProgressTracker childProgressTracker() {
+                return FinalityFlow.Companion.tracker();
+            }
+        };
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                LOAN_ELIGIBILITY,
+                LOAN_ELIGIBILITY_RESPONSE,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                GATHERING_SIGS,
+                FINALISING_TRANSACTION
+        );
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            final FlowMetricsService metrics = FlowMetricsService.started(this);
+            try {
+                final SignedTransaction signedTx = checkCredit();
+                metrics.completed(this);
+                return signedTx;
+            } catch (FlowException | RuntimeException ex) {
+                metrics.failed(this);
+                throw ex;
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction checkCredit() throws FlowException {
+            final Party notary = NotarySelectionService.select(this, getServiceHub().getMyInfo().getLegalIdentities().get(0));
+            final Party bankParty = getServiceHub().getMyInfo().getLegalIdentities().get(0);
+            FlowMetricsService.step(this, LOAN_ELIGIBILITY);
+
+            final StateAndRef<LoanRequestState> loanRequestStateAndRef = LoanStateIndexService.resolve(this, LoanRequestState.class, linearIdRequestForLoan);
+            if (loanRequestStateAndRef == null) {
+                throw new FlowException("Linearid with id not found." + linearIdRequestForLoan);
+            }
+
+            final LoanRequestState loanRequestState = loanRequestStateAndRef.getState().getData();
+            final CreditCheckRequest request = new CreditCheckRequest(loanRequestState.getCompanyName(), loanRequestState.getAmount(), linearIdRequestForLoan);
+
+            /** The credit agency decides while the session is open, no pending state is written **/
+            FlowSession creditAgencySession = initiateFlow(creditParty);
+            final boolean isEligibleForLoan = creditAgencySession.sendAndReceive(Boolean.class, request).unwrap(decision -> decision);
+            FlowMetricsService.step(this, LOAN_ELIGIBILITY_RESPONSE);
+
+            LoanVerificationState loanVerificationState = new LoanVerificationState(request.getAmount(), bankParty, creditParty, isEligibleForLoan, request.getCompanyName(), new UniqueIdentifier(), linearIdRequestForLoan);
+            final Command<LoanVerificationContract.Commands.IssueCreditDecision> issueDecisionCommand = new Command<LoanVerificationContract.Commands.IssueCreditDecision>(new LoanVerificationContract.Commands.IssueCreditDecision(), ImmutableList.of(bankParty.getOwningKey(), creditParty.getOwningKey()));
+            final TransactionBuilder txBuilder = new TransactionBuilder(notary)
+                    .addOutputState(loanVerificationState, LoanVerificationContract.LOANVERIFICATION_CONTRACT_ID)
+                    .addCommand(issueDecisionCommand);
+
+            FlowMetricsService.step(this, VERIFYING_TRANSACTION);
+            txBuilder.verify(getServiceHub());
+            FlowMetricsService.step(this, SIGNING_TRANSACTION);
+            final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+            FlowMetricsService.step(this, GATHERING_SIGS);
+            final SignedTransaction fullySignedTx = subFlow(new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(creditAgencySession), CollectSignaturesFlow.Companion.tracker()));
+            FlowMetricsService.step(this, FINALISING_TRANSACTION);
+            final SignedTransaction notarisedTx = NotarySelectionService.finalise(this, notary, fullySignedTx);
+            return notarisedTx;
+        }
+    }
+
+    @InitiatedBy(Initiator.class)
+    public static class Acceptor extends FlowLogic<SignedTransaction> {
+        private final FlowSession otherPartyFlow;
+
+        public Acceptor(FlowSession otherPartyFlow) {
+            this.otherPartyFlow = otherPartyFlow;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            final CreditCheckRequest request = otherPartyFlow.receive(CreditCheckRequest.class).unwrap(data -> {
+                requireThat(require -> {
+                    require.using("Company name must be given.", data.getCompanyName() != null);
+                    require.using("Loan amount should not be zero", data.getAmount() > 0);
+                    return null;
+                });
+                return data;
+            });
+            final boolean isEligibleForLoan = CreditDecisionService.decide(this, request.getCompanyName(), request.getAmount());
+            otherPartyFlow.send(isEligibleForLoan);
+
+            final Party creditParty = getServiceHub().getMyInfo().getLegalIdentities().get(0);
+
+            class SignTxFlow extends SignTransactionFlow {
+                public SignTxFlow(FlowSession otherSideSession, ProgressTracker progressTracker) {
+                    super(otherSideSession, progressTracker);
+                }
+
+                @Override
+                protected void checkTransaction(SignedTransaction stx) throws FlowException {
+                    requireThat(require -> {
+                        ContractState output = stx.getTx().getOutputs().get(0).getData();
+                        require.using("This must be a credit decision (LoanVerificationState).", output instanceof LoanVerificationState);
+                        LoanVerificationState decision = (LoanVerificationState) output;
+                        require.using("The decision must be the one given by the credit agency.", decision.isEligibleForLoan() == isEligibleForLoan);
+                        require.using("The decision must be for the loan that was checked.", request.getLinearIdLoanReq().equals(decision.getLinearIdLoanReq())
+                                && request.getCompanyName().equals(decision.getCompanyName())
+                                && request.getAmount() == decision.getAmount());
+                        require.using("The credit agency in the decision must be us.", creditParty.equals(decision.getCreditAgencyNode()));
+                        return null;
+                    });
+                }
+            }
+            return subFlow(new SignTxFlow(otherPartyFlow, SignTransactionFlow.Companion.tracker()));
+        }
+    }
+}
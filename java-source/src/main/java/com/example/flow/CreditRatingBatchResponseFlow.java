@@ -0,0 +1,216 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.contract.LoanVerificationContract;
+import com.example.service.CreditDecisionService;
+import com.example.service.FlowMetricsService;
+import com.example.service.LoanStateIndexService;
+import com.example.service.NotarySelectionService;
+import com.example.state.LoanVerificationState;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+
+/**
+ * Batched variant of CreditRatingResponseFlow: the credit agency answers many pending LoanVerificationStates of the
+ * same bank in one transaction, consuming each of them and writing its decision under a single ReceiveCreditApproval
+ * command. The whole batch costs one signature round with the bank and one notarisation. Verifications issued through
+ * different notaries are first moved to the notary holding most of the batch with NotaryChangeFlow.
+ */
+public class CreditRatingBatchResponseFlow {
+
+    /** Upper bound on the verifications answered by one transaction, agreed by both sides. */
+    public static final int MAX_BATCH_SIZE = 500;
+
+    @InitiatingFlow
+    @StartableByRPC
+    public static class Initiator extends FlowLogic<SignedTransaction> {
+        private final Party bankParty;
+        private final List<UniqueIdentifier> linearIdsLoanDataVerState;
+
+        /* This constructor is called from REST API **/
+        public Initiator(Party bankParty, List<UniqueIdentifier> linearIdsLoanDataVerState) {
+            this.bankParty = bankParty;
+            this.linearIdsLoanDataVerState = linearIdsLoanDataVerState;
+        }
+
+        private final ProgressTracker.Step LOAN_ELIGIBILITY_RESPONSE = new ProgressTracker.Step("Response from credit rating agency about loan eligibility and approval");
+        private final ProgressTracker.Step VERIFYING_TRANSACTION = new ProgressTracker.Step("Verifying contract constraints.");
+        private final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step("Signing transaction with our private key.");
+        private final ProgressTracker.Step GATHERING_SIGS = new ProgressTracker.Step("Gathering the counterparty's signature.") {
+            public ProgressTracker childProgressTracker() {
+                return CollectSignaturesFlow.Companion.tracker();
+            }
+        };
+        private final ProgressTracker.Step FINALISING_TRANSACTION = new ProgressTracker.Step("Obtaining notary signature and recording transaction.") {
+            public ProgressTracker childProgressTracker() {
+                return FinalityFlow.Companion.tracker();
+            }
+        };
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                LOAN_ELIGIBILITY_RESPONSE,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                GATHERING_SIGS,
+                FINALISING_TRANSACTION
+        );
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            final FlowMetricsService metrics = FlowMetricsService.started(this);
+            try {
+                final SignedTransaction signedTx = respondWithCreditRatings();
+                metrics.completed(this);
+                return signedTx;
+            } catch (FlowException | RuntimeException ex) {
+                metrics.failed(this);
+                throw ex;
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction respondWithCreditRatings() throws FlowException {
+            if (linearIdsLoanDataVerState == null || linearIdsLoanDataVerState.isEmpty()) {
+                throw new FlowException("At least one LoanVerificationState is needed.");
+            }
+            final Set<UniqueIdentifier> requested = new HashSet<>(linearIdsLoanDataVerState);
+            if (requested.size() > MAX_BATCH_SIZE) {
+                throw new FlowException("At most " + MAX_BATCH_SIZE + " LoanVerificationStates can be answered in one transaction.");
+            }
+
+            final Party creditParty = getServiceHub().getMyInfo().getLegalIdentities().get(0);
+
+            /* Resolving every LoanVerificationState of the batch, the ones missing from the state index in one vault query */
+            List<StateAndRef<LoanVerificationState>> inputStates = LoanStateIndexService.resolveAll(this, LoanVerificationState.class, requested);
+            if (inputStates.size() != requested.size()) {
+                for (StateAndRef<LoanVerificationState> inputState : inputStates) {
+                    requested.remove(inputState.getState().getData().getLinearId());
+                }
+                throw new FlowException("State Cannot be found : " + requested);
+            }
+            LoanStateIndexService.reserve(this, inputStates);
+            for (StateAndRef<LoanVerificationState> inputState : inputStates) {
+                LoanVerificationState pending = inputState.getState().getData();
+                if (!bankParty.equals(pending.getBankNode())) {
+                    throw new FlowException("LoanVerificationState " + pending.getLinearId() + " belongs to " + pending.getBankNode().getName() + ", not to " + bankParty.getName());
+                }
+            }
+
+            // every input must be spent through the notary it was issued with, so the batch needs a single one; the
+            // round-robin and least-latency policies spread a bank's verifications, those elsewhere are moved over
+            final Party notary = mostUsedNotary(inputStates);
+            final List<StateAndRef<LoanVerificationState>> moved = new ArrayList<>();
+            final List<StateAndRef<LoanVerificationState>> onNotary = new ArrayList<>(inputStates.size());
+            for (StateAndRef<LoanVerificationState> inputState : inputStates) {
+                if (notary.equals(inputState.getState().getNotary())) {
+                    onNotary.add(inputState);
+                } else {
+                    final StateAndRef<LoanVerificationState> changed = subFlow(new NotaryChangeFlow<>(inputState, notary, AbstractStateReplacementFlow.Instigator.Companion.tracker()));
+                    moved.add(changed);
+                    onNotary.add(changed);
+                }
+            }
+            if (!moved.isEmpty()) {
+                LoanStateIndexService.reserve(this, moved);
+            }
+            inputStates = onNotary;
+
+            FlowMetricsService.step(this, LOAN_ELIGIBILITY_RESPONSE);
+
+            final Command<LoanVerificationContract.Commands.ReceiveCreditApproval> receiveCreditApproval = new Command<LoanVerificationContract.Commands.ReceiveCreditApproval>(new LoanVerificationContract.Commands.ReceiveCreditApproval(), ImmutableList.of(creditParty.getOwningKey(), bankParty.getOwningKey()));
+            final TransactionBuilder txBuilder = new TransactionBuilder(notary).addCommand(receiveCreditApproval);
+            for (StateAndRef<LoanVerificationState> inputState : inputStates) {
+                LoanVerificationState pending = inputState.getState().getData();
+                boolean isEligibleForLoanFlag = CreditDecisionService.decide(this, pending.getCompanyName(), pending.getAmount());
+                LoanVerificationState decision = new LoanVerificationState(pending.getAmount(), bankParty, creditParty, isEligibleForLoanFlag, pending.getCompanyName(), pending.getLinearId(), pending.getLinearIdLoanReq());
+                txBuilder.addInputState(inputState)
+                        .addOutputState(decision, LoanVerificationContract.LOANVERIFICATION_CONTRACT_ID);
+            }
+
+            FlowMetricsService.step(this, VERIFYING_TRANSACTION);
+            txBuilder.verify(getServiceHub());
+            FlowMetricsService.step(this, SIGNING_TRANSACTION);
+            final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+            FlowMetricsService.step(this, GATHERING_SIGS);
+            FlowSession otherPartySession = initiateFlow(bankParty);
+            final SignedTransaction fullySignedTx = subFlow(new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
+            FlowMetricsService.step(this, FINALISING_TRANSACTION);
+            final SignedTransaction notarisedTx = NotarySelectionService.finalise(this, notary, fullySignedTx);
+            return notarisedTx;
+        }
+
+        /** The notary most of the inputs were issued with; ties go to the first input's notary. */
+        private static Party mostUsedNotary(List<StateAndRef<LoanVerificationState>> inputStates) {
+            final Map<Party, Integer> counts = new HashMap<>();
+            Party mostUsed = inputStates.get(0).getState().getNotary();
+            for (StateAndRef<LoanVerificationState> inputState : inputStates) {
+                final Party notary = inputState.getState().getNotary();
+                final int count = counts.merge(notary, 1, Integer::sum);
+                if (count > counts.get(mostUsed)) {
+                    mostUsed = notary;
+                }
+            }
+            return mostUsed;
+        }
+    }
+
+    @InitiatedBy(Initiator.class)
+    public static class Acceptor extends FlowLogic<SignedTransaction> {
+        private final FlowSession otherPartyFlow;
+
+        public Acceptor(FlowSession otherPartyFlow) {
+            this.otherPartyFlow = otherPartyFlow;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            final Party bankParty = getServiceHub().getMyInfo().getLegalIdentities().get(0);
+
+            class SignTxFlow extends SignTransactionFlow {
+                public SignTxFlow(FlowSession otherSideSession, ProgressTracker progressTracker) {
+                    super(otherSideSession, progressTracker);
+                }
+
+                @Override
+                protected void checkTransaction(SignedTransaction stx) throws FlowException {
+                    requireThat(require -> {
+                        List<TransactionState<ContractState>> outputs = stx.getTx().getOutputs();
+                        require.using("The batch must not exceed " + MAX_BATCH_SIZE + " credit decisions.", outputs.size() <= MAX_BATCH_SIZE);
+                        for (TransactionState<ContractState> output : outputs) {
+                            require.using("This must be an credit agency transaction (LoanVerificationState).", output.getData() instanceof LoanVerificationState);
+                            require.using("Every credit decision in the batch must be addressed to us.", bankParty.equals(((LoanVerificationState) output.getData()).getBankNode()));
+                        }
+                        return null;
+                    });
+                }
+            }
+            return subFlow(new SignTxFlow(otherPartyFlow, SignTransactionFlow.Companion.tracker()));
+        }
+    }
+}
@@ -3,24 +3,25 @@ package com.example.flow;
 import co.paralleluniverse.fibers.Suspendable;
 import com.example.contract.LoanVerificationContract;
 import com.example.state.LoanVerificationState;
+import com.example.service.CreditDecisionService;
+import com.example.service.FlowMetricsService;
+import com.example.service.LoanStateIndexService;
+import com.example.service.NotarySelectionService;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import net.corda.core.contracts.*;
 import net.corda.core.flows.*;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.Vault;
-import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 
-import java.util.Arrays;
-import java.util.List;
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
 public class CreditRatingResponseFlow {
     @InitiatingFlow
     @StartableByRPC
+    @StartableByService
     public static class Initiator extends FlowLogic<SignedTransaction> {
         private final Party bankParty;
         private  String companyName;
@@ -29,7 +30,6 @@ public class CreditRatingResponseFlow {
         UniqueIdentifier linearId = null;
         UniqueIdentifier linearIdLoanReqState = null;
         UniqueIdentifier linearIdLoanDataVerState = null;
-        final String[] values = {"JETSAIRWAYS","AMERICONAIRWAYS","SAHARAAIRLINES","JETBLUEAIRLINE"};
 
         /* This constructor is called from REST API **/
         public Initiator(Party bankParty, UniqueIdentifier linearIdLoanDataVerState) {
@@ -61,6 +61,11 @@ public class CreditRatingResponseFlow {
                 FINALISING_TRANSACTION
         );
 
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
         public UniqueIdentifier getLinearId() {
             return linearId;
         }
@@ -92,40 +97,43 @@ public class CreditRatingResponseFlow {
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
+            final FlowMetricsService metrics = FlowMetricsService.started(this);
+            try {
+                final SignedTransaction signedTx = respondWithCreditRating();
+                metrics.completed(this);
+                return signedTx;
+            } catch (FlowException | RuntimeException ex) {
+                metrics.failed(this);
+                throw ex;
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction respondWithCreditRating() throws FlowException {
             LoanVerificationState loanVerificationStates = null;
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
             Party creditParty = getServiceHub().getMyInfo().getLegalIdentities().get(0);
 
-            /* Querying LoanVerificationState from vault using linear id */
-            QueryCriteria criteriaBankState = new QueryCriteria.LinearStateQueryCriteria(
-                    null,
-                    ImmutableList.of(linearIdLoanDataVerState),
-                    Vault.StateStatus.UNCONSUMED,
-                    null);
-
-            StateAndRef<LoanVerificationState> inputState = null;
-            List<StateAndRef<LoanVerificationState>> inputStateList = getServiceHub().getVaultService().queryBy(LoanVerificationState.class, criteriaBankState).getStates();
-            if (inputStateList == null || inputStateList.isEmpty()) {
-                throw new IllegalArgumentException("State Cannot be found : " + inputStateList.size() + " " + linearIdLoanDataVerState);
+            /* Resolving LoanVerificationState by linear id, from the state index or the vault */
+            StateAndRef<LoanVerificationState> inputState = LoanStateIndexService.resolve(this, LoanVerificationState.class, linearIdLoanDataVerState);
+            if (inputState == null) {
+                throw new IllegalArgumentException("State Cannot be found : " + linearIdLoanDataVerState);
             }
+            LoanStateIndexService.reserve(this, ImmutableList.of(inputState));
+            // the input can only be spent through the notary it was issued with
+            final Party notary = inputState.getState().getNotary();
 
             linearId = linearIdLoanDataVerState;
-            inputState = inputStateList.get(0);
 
-            companyName = inputStateList.get(0).getState().getData().getCompanyName();
-            amount = inputStateList.get(0).getState().getData().getAmount();
-            linearIdLoanReqState = inputStateList.get(0).getState().getData().getLinearIdLoanReq();
+            companyName = inputState.getState().getData().getCompanyName();
+            amount = inputState.getState().getData().getAmount();
+            linearIdLoanReqState = inputState.getState().getData().getLinearIdLoanReq();
 
-            boolean contains = Arrays.stream(values).anyMatch(companyName::equals);
+            isEligibleForLoanFlag = CreditDecisionService.decide(this, companyName, amount);
 
             /** Setting the loanEligibility flag in the state's vault **/
-            if (contains) {
-                loanVerificationStates = new LoanVerificationState(amount, bankParty, creditParty, false, companyName,linearId, linearIdLoanReqState);
-            } else {
-                 loanVerificationStates = new LoanVerificationState(amount, bankParty, creditParty, true, companyName,linearId, linearIdLoanReqState);
-            }
+            loanVerificationStates = new LoanVerificationState(amount, bankParty, creditParty, isEligibleForLoanFlag, companyName,linearId, linearIdLoanReqState);
 
-            progressTracker.setCurrentStep(LOAN_ELIGIBILITY_RESPONSE);
+            FlowMetricsService.step(this, LOAN_ELIGIBILITY_RESPONSE);
 
             //LoanVerificationState loanVerificationStates = new LoanVerificationState(amount,bankParty,me,true, companyName,linearId, linearIdLoanReqState);
             final Command<LoanVerificationContract.Commands.ReceiveCreditApproval> receiveCreditApproval = new Command<LoanVerificationContract.Commands.ReceiveCreditApproval>(new LoanVerificationContract.Commands.ReceiveCreditApproval(),ImmutableList.of(loanVerificationStates.getCreditAgencyNode().getOwningKey(), loanVerificationStates.getBankNode().getOwningKey()));
@@ -134,21 +142,22 @@ public class CreditRatingResponseFlow {
                     .addOutputState(loanVerificationStates, LoanVerificationContract.LOANVERIFICATION_CONTRACT_ID)
                     .addCommand(receiveCreditApproval);
             //step 2
-            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
+            FlowMetricsService.step(this, VERIFYING_TRANSACTION);
             txBuilder.verify(getServiceHub());
             //stage 3
-            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+            FlowMetricsService.step(this, SIGNING_TRANSACTION);
             // Sign the transaction.
             final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
             //Stage 4
-            progressTracker.setCurrentStep(GATHERING_SIGS);
+            FlowMetricsService.step(this, GATHERING_SIGS);
             // Send the state to the counterparty, and receive it back with their signature.
             FlowSession otherPartySession = initiateFlow(bankParty);
             final SignedTransaction fullySignedTx = subFlow(new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
             //stage 5
-            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+            FlowMetricsService.step(this, FINALISING_TRANSACTION);
             //Notarise and record the transaction in both party vaults.
-            return subFlow(new FinalityFlow(fullySignedTx));
+            final SignedTransaction notarisedTx = NotarySelectionService.finalise(this, notary, fullySignedTx);
+            return notarisedTx;
         }
     }
 
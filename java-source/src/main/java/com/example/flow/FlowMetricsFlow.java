@@ -0,0 +1,31 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.service.CreditDecisionService;
+import com.example.service.FlowMetricsService;
+import com.example.service.LoanPipelineService;
+import com.example.service.LoanSchemaBackfillService;
+import com.example.service.LoanStateIndexService;
+import com.example.service.NotarySelectionService;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+
+/**
+ * Returns the node's flow, state index, credit decision, loan pipeline, schema backfill and notary metrics in the Prometheus text format, so the web server can expose them.
+ */
+@StartableByRPC
+public class FlowMetricsFlow extends FlowLogic<String> {
+
+    @Suspendable
+    @Override
+    public String call() throws FlowException {
+        final StringBuilder out = new StringBuilder(getServiceHub().cordaService(FlowMetricsService.class).render());
+        getServiceHub().cordaService(LoanStateIndexService.class).render(out);
+        getServiceHub().cordaService(CreditDecisionService.class).render(out);
+        getServiceHub().cordaService(LoanPipelineService.class).render(out);
+        getServiceHub().cordaService(LoanSchemaBackfillService.class).render(out);
+        getServiceHub().cordaService(NotarySelectionService.class).render(out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.service.LoanPipelineService;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByService;
+
+/**
+ * Looks through the vault for loans waiting on a stage of the loan pipeline and hands them to it. It runs as a flow
+ * because the vault and the transaction storage can only be read inside a database transaction.
+ */
+@StartableByService
+public class LoanPipelineScanFlow extends FlowLogic<Void> {
+
+    @Suspendable
+    @Override
+    public Void call() throws FlowException {
+        getServiceHub().cordaService(LoanPipelineService.class).scan();
+        return null;
+    }
+}
@@ -4,6 +4,9 @@ import co.paralleluniverse.fibers.Suspendable;
 import com.example.contract.LoanReqContract;
 import com.example.state.LoanRequestState;
 import com.example.state.LoanVerificationState;
+import com.example.service.FlowMetricsService;
+import com.example.service.LoanStateIndexService;
+import com.example.service.NotarySelectionService;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import net.corda.core.contracts.Command;
@@ -12,21 +15,18 @@ import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.flows.*;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.Vault;
-import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 
-import java.util.List;
-
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
 public class LoanResponseFlow {
     @InitiatingFlow
     @StartableByRPC
+    @StartableByService
     public static class Initiator extends FlowLogic<SignedTransaction> {
-        private final Party financeParty;
+        private Party financeParty;
         private String companyName;
         private int amount;
         private boolean isEligibleForLoan;
@@ -42,6 +42,11 @@ public class LoanResponseFlow {
             this.linearIdLoanDataVer = linearIdLoanDataVer;
         }
 
+        /* Answers the finance agency that sent the loan request; used by the loan pipeline */
+        public Initiator(UniqueIdentifier linearIdLoanDataVer) {
+            this(null, linearIdLoanDataVer);
+        }
+
         private final ProgressTracker.Step VERIFYING_TRANSACTION = new ProgressTracker.Step("Verifying contract constraints.");
         private final ProgressTracker.Step BANK_RESPONSE = new ProgressTracker.Step("Sending response to Finance agency from Bank");
         private final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step("Signing transaction with our private key.");
@@ -66,6 +71,11 @@ public class LoanResponseFlow {
                 FINALISING_TRANSACTION
         );
 
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
         public UniqueIdentifier getLinearIdLoanDataVer() {
             return linearIdLoanDataVer;
         }
@@ -89,14 +99,26 @@ public class LoanResponseFlow {
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
+            final FlowMetricsService metrics = FlowMetricsService.started(this);
+            try {
+                final SignedTransaction signedTx = respondToLoanRequest();
+                metrics.completed(this);
+                return signedTx;
+            } catch (FlowException | RuntimeException ex) {
+                metrics.failed(this);
+                throw ex;
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction respondToLoanRequest() throws FlowException {
 
             Party bankParty = getServiceHub().getMyInfo().getLegalIdentities().get(0);
             StateAndRef<LoanRequestState> inputState = null;
             StateAndRef<LoanVerificationState> loanVerificationState = null;
             //LoanVerificationState bankState = new LoanVerificationState(bankParty, linearIdLoanDataVer, linearIdLoanReqDataState);
 
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
-            progressTracker.setCurrentStep(BANK_RESPONSE);
+            FlowMetricsService.step(this, BANK_RESPONSE);
             //Generate an unsigned transaction
 
             /** adding the linear id of unconsumed Previous LoanRequestState **/
@@ -104,42 +126,29 @@ public class LoanResponseFlow {
 
             LoanRequestState loanRequestState = null;
 
-            QueryCriteria criteriaForBankVault = new QueryCriteria.LinearStateQueryCriteria(
-                    null,
-                    ImmutableList.of(linearIdLoanDataVer),
-                    Vault.StateStatus.UNCONSUMED,
-                   null);
-
-            List<StateAndRef<LoanVerificationState>>  loanVerificationStateList = getServiceHub().getVaultService().queryBy(LoanVerificationState.class, criteriaForBankVault).getStates();
-
-            if ((loanVerificationStateList != null) && (!loanVerificationStateList.isEmpty())) {
-                loanVerificationState = loanVerificationStateList.get(0);
-            } else {
-                throw new FlowException("Exception while fetching FinanceID : " + linearIdLoanDataVer + "size "+ loanVerificationStateList.size());
+            loanVerificationState = LoanStateIndexService.resolve(this, LoanVerificationState.class, linearIdLoanDataVer);
+            if (loanVerificationState == null) {
+                throw new FlowException("Exception while fetching FinanceID : " + linearIdLoanDataVer);
             }
 
             linearIdLoanReqDataState = loanVerificationState.getState().getData().getLinearIdLoanReq();
             isEligibleForLoan = loanVerificationState.getState().getData().getLoanEligibleFlag();
             amount = loanVerificationState.getState().getData().getAmount();
             companyName = loanVerificationState.getState().getData().getCompanyName();
-            loanRequestState = new LoanRequestState(financeParty, bankParty, companyName, amount, linearId, isEligibleForLoan, linearIdLoanDataVer);
             /********* NEED TO QUERY FROM BANK STATE THE FLAG ****/
 
 
-            QueryCriteria criteria = new QueryCriteria.LinearStateQueryCriteria(
-                    null,
-                    ImmutableList.of(linearIdLoanReqDataState),
-                    Vault.StateStatus.UNCONSUMED,
-                    null);
-
-            List<StateAndRef<LoanRequestState>> loanRequestStateListResults = getServiceHub().getVaultService().queryBy(LoanRequestState.class, criteria).getStates();
-
-            if ((loanRequestStateListResults == null) || (loanRequestStateListResults.isEmpty())) {
+            inputState = LoanStateIndexService.resolve(this, LoanRequestState.class, linearIdLoanReqDataState);
+            if (inputState == null) {
                 throw new FlowException("Linearid with id %s not found." + linearIdLoanReqDataState );
-            } else {
-                //linearId = linearIdLoanReqDataState;
-                inputState = loanRequestStateListResults.get(0);
             }
+            LoanStateIndexService.reserve(this, ImmutableList.of(inputState));
+            // the input can only be spent through the notary it was issued with
+            final Party notary = inputState.getState().getNotary();
+            if (financeParty == null) {
+                financeParty = inputState.getState().getData().getFinanceNode();
+            }
+            loanRequestState = new LoanRequestState(financeParty, bankParty, companyName, amount, linearId, isEligibleForLoan, linearIdLoanDataVer);
 
             //loanRequestState.setEligibleForLoan(loanVerificationState.getState().getData().getLoanEligibleFlag());
             //inputState.getState().getData().setEligibleForLoan(loanVerificationState.getState().getData().getLoanEligibleFlag());
@@ -152,21 +161,22 @@ public class LoanResponseFlow {
                     .addOutputState(loanRequestStateObj, LoanReqContract.LOANREQUEST_CONTRACT_ID).addCommand(loanNotificationCommand);
 
             //step 2
-            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
+            FlowMetricsService.step(this, VERIFYING_TRANSACTION);
             txBuilder.verify(getServiceHub());
             //stage 3
-            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+            FlowMetricsService.step(this, SIGNING_TRANSACTION);
             // Sign the transaction.
             final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
             //Stage 4
-            progressTracker.setCurrentStep(GATHERING_SIGS);
+            FlowMetricsService.step(this, GATHERING_SIGS);
             // Send the state to the counterparty, and receive it back with their signature.
             FlowSession otherPartySession = initiateFlow(financeParty);
             final SignedTransaction fullySignedTx = subFlow(new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
             //stage 5
-            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+            FlowMetricsService.step(this, FINALISING_TRANSACTION);
             //Notarise and record the transaction in both party vaults.
-            return subFlow(new FinalityFlow(fullySignedTx));
+            final SignedTransaction notarisedTx = NotarySelectionService.finalise(this, notary, fullySignedTx);
+            return notarisedTx;
         }
     }
 
@@ -0,0 +1,133 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.schema.LoanRequestSchemaV1;
+import com.example.schema.LoanVerificationSchemaV1;
+import com.example.state.LoanRequestState;
+import com.example.state.LoanVerificationState;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByService;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Writes the loan_request_states and loan_verification_states rows of loan states recorded before the states were
+ * mapped to those tables. The node only maps a state when it records it, so states from before the upgrade have no
+ * rows and the API's filters would not find them. Each run fills in up to 'batchSize' states, in the flow's database
+ * transaction, and returns how many it filled in.
+ */
+@StartableByService
+public class LoanSchemaBackfillFlow extends FlowLogic<Integer> {
+
+    private final int batchSize;
+
+    public LoanSchemaBackfillFlow(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Suspendable
+    @Override
+    public Integer call() throws FlowException {
+        try {
+            final Connection connection = getServiceHub().jdbcSession();
+            int filled = 0;
+            for (StateRef ref : unmapped(connection, LoanRequestState.class, "loan_request_states", batchSize)) {
+                insertRequest(connection, ref, (LoanRequestState) getServiceHub().loadState(ref).getData());
+                filled++;
+            }
+            for (StateRef ref : unmapped(connection, LoanVerificationState.class, "loan_verification_states", batchSize - filled)) {
+                insertVerification(connection, ref, (LoanVerificationState) getServiceHub().loadState(ref).getData());
+                filled++;
+            }
+            return filled;
+        } catch (SQLException ex) {
+            throw new FlowException("Filling in the loan state tables failed: " + ex.getMessage(), ex);
+        }
+    }
+
+    /** Up to 'limit' refs of vault states of the type that have no row in the table. */
+    private static List<StateRef> unmapped(Connection connection, Class<? extends ContractState> stateType, String table, int limit) throws SQLException {
+        final List<StateRef> refs = new ArrayList<>();
+        if (limit <= 0) {
+            return refs;
+        }
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT v.transaction_id, v.output_index FROM vault_states v LEFT JOIN " + table + " m"
+                        + " ON m.transaction_id = v.transaction_id AND m.output_index = v.output_index"
+                        + " WHERE v.contract_state_class_name = ? AND m.transaction_id IS NULL")) {
+            select.setString(1, stateType.getName());
+            select.setMaxRows(limit);
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    refs.add(new StateRef(SecureHash.parse(rows.getString(1)), rows.getInt(2)));
+                }
+            }
+        }
+        return refs;
+    }
+
+    private static void insertRequest(Connection connection, StateRef ref, LoanRequestState state) throws SQLException {
+        final LoanRequestSchemaV1.PersistentLoanRequest row =
+                (LoanRequestSchemaV1.PersistentLoanRequest) state.generateMappedObject(new LoanRequestSchemaV1());
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO loan_request_states (transaction_id, output_index, finance_party, bank_party, company_name,"
+                        + " company_key, amount, eligible, linear_id, linear_id_verification) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            insert.setString(1, ref.getTxhash().toString());
+            insert.setInt(2, ref.getIndex());
+            insert.setString(3, row.getFinanceParty());
+            insert.setString(4, row.getBankParty());
+            insert.setString(5, row.getCompanyName());
+            insert.setString(6, row.getCompanyKey());
+            insert.setInt(7, row.getAmount());
+            insert.setBoolean(8, row.isEligible());
+            setUuid(insert, 9, row.getLinearId());
+            setUuid(insert, 10, row.getLinearIdVerification());
+            insert.executeUpdate();
+        }
+    }
+
+    private static void insertVerification(Connection connection, StateRef ref, LoanVerificationState state) throws SQLException {
+        final LoanVerificationSchemaV1.PersistentLoanVerification row =
+                (LoanVerificationSchemaV1.PersistentLoanVerification) state.generateMappedObject(new LoanVerificationSchemaV1());
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO loan_verification_states (transaction_id, output_index, bank_party, credit_party, company_name,"
+                        + " company_key, amount, eligible, linear_id, linear_id_loan_req) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            insert.setString(1, ref.getTxhash().toString());
+            insert.setInt(2, ref.getIndex());
+            insert.setString(3, row.getBankParty());
+            insert.setString(4, row.getCreditParty());
+            insert.setString(5, row.getCompanyName());
+            insert.setString(6, row.getCompanyKey());
+            insert.setInt(7, row.getAmount());
+            insert.setBoolean(8, row.isEligible());
+            setUuid(insert, 9, row.getLinearId());
+            setUuid(insert, 10, row.getLinearIdLoanReq());
+            insert.executeUpdate();
+        }
+    }
+
+    /** Binds a UUID the way Hibernate stores one by default, as its 16 bytes. */
+    private static void setUuid(PreparedStatement statement, int parameter, UUID uuid) throws SQLException {
+        if (uuid == null) {
+            statement.setNull(parameter, Types.BINARY);
+            return;
+        }
+        final byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (uuid.getMostSignificantBits() >>> (8 * (7 - i)));
+            bytes[8 + i] = (byte) (uuid.getLeastSignificantBits() >>> (8 * (7 - i)));
+        }
+        statement.setBytes(parameter, bytes);
+    }
+}
@@ -4,6 +4,9 @@ import co.paralleluniverse.fibers.Suspendable;
 import com.example.contract.LoanVerificationContract;
 import com.example.state.LoanRequestState;
 import com.example.state.LoanVerificationState;
+import com.example.service.FlowMetricsService;
+import com.example.service.LoanStateIndexService;
+import com.example.service.NotarySelectionService;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import net.corda.core.contracts.Command;
@@ -12,19 +15,16 @@ import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.flows.*;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.Vault;
-import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 
-import java.util.ArrayList;
-import java.util.List;
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
 public class RequestCreditRatingFlow {
     @InitiatingFlow
     @StartableByRPC
+    @StartableByService
     public static class Initiator extends FlowLogic<SignedTransaction> {
         private final Party creditParty;
         private String companyName;
@@ -91,33 +91,44 @@ public class RequestCreditRatingFlow {
                 FINALISING_TRANSACTION
         );
 
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
+            final FlowMetricsService metrics = FlowMetricsService.started(this);
+            try {
+                final SignedTransaction signedTx = requestCreditRating();
+                metrics.completed(this);
+                return signedTx;
+            } catch (FlowException | RuntimeException ex) {
+                metrics.failed(this);
+                throw ex;
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction requestCreditRating() throws FlowException {
 
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
-            progressTracker.setCurrentStep(LOAN_ELIGIBILITY);
+            final Party notary = NotarySelectionService.select(this, getServiceHub().getMyInfo().getLegalIdentities().get(0));
+            FlowMetricsService.step(this, LOAN_ELIGIBILITY);
             Party bankParty = getServiceHub().getMyInfo().getLegalIdentities().get(0);
             StateAndRef<LoanVerificationState> financStateInstance = null;
 
             /******Validation of financeDataState linear id *****/
-               QueryCriteria criteria = new QueryCriteria.LinearStateQueryCriteria(
-                        null,
-                        ImmutableList.of(linearIdRequestForLoan),
-                        Vault.StateStatus.UNCONSUMED,
-                        null);
-
-                List<UniqueIdentifier> financeStateListValidationResult = new ArrayList<UniqueIdentifier>();
-                List<StateAndRef<LoanRequestState>> financeStateListResults = getServiceHub().getVaultService().queryBy(LoanRequestState.class,criteria).getStates();
-                if (financeStateListResults.isEmpty()) {
+                StateAndRef<LoanRequestState> financeStateResult = LoanStateIndexService.resolve(this, LoanRequestState.class, linearIdRequestForLoan);
+                if (financeStateResult == null) {
                     throw new FlowException("Linearid with id not found." + linearIdRequestForLoan );
                 }
 
 
 
               /*** Getting the amount, companyName and loan-eligibility from the vault of Previous State **/
-              amount = financeStateListResults.get(0).getState().getData().getAmount();
-              companyName = financeStateListResults.get(0).getState().getData().getCompanyName();
+              amount = financeStateResult.getState().getData().getAmount();
+              companyName = financeStateResult.getState().getData().getCompanyName();
               isEligibleForLoan = false;
 
             /******* Validation of financeDataState linear id *****/
@@ -129,21 +140,22 @@ public class RequestCreditRatingFlow {
                     .addCommand(sendLoanApprovalCommand);
 
             //step 2
-            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
+            FlowMetricsService.step(this, VERIFYING_TRANSACTION);
             txBuilder.verify(getServiceHub());
             //stage 3
-            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+            FlowMetricsService.step(this, SIGNING_TRANSACTION);
             // Sign the transaction.
             final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
             //Stage 4
-            progressTracker.setCurrentStep(GATHERING_SIGS);
+            FlowMetricsService.step(this, GATHERING_SIGS);
             // Send the state to the counterparty, and receive it back with their signature.
             FlowSession otherPartySession = initiateFlow(creditParty);
             final SignedTransaction fullySignedTx = subFlow(new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
             //stage 5
-            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+            FlowMetricsService.step(this, FINALISING_TRANSACTION);
             //Notarise and record the transaction in both party vaults.
-            return subFlow(new FinalityFlow(fullySignedTx));
+            final SignedTransaction notarisedTx = NotarySelectionService.finalise(this, notary, fullySignedTx);
+            return notarisedTx;
         }
     }
 
@@ -0,0 +1,181 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.contract.LoanReqContract;
+import com.example.service.FlowMetricsService;
+import com.example.service.NotarySelectionService;
+import com.example.state.LoanRequestState;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+
+import java.util.List;
+
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+
+/**
+ * Batched variant of RequestForLoanFlow: the finance agency sends many loan applications for the same bank in one
+ * transaction, one LoanRequestState output per application under a single InitiateLoan command. The whole batch
+ * costs one signature round with the bank and one notarisation.
+ */
+public class RequestForLoanBatchFlow {
+
+    /** Upper bound on the applications carried by one transaction, agreed by both sides. */
+    public static final int MAX_BATCH_SIZE = 500;
+
+    /**
+     * One loan application of a batch.
+     */
+    @CordaSerializable
+    public static class LoanApplication {
+        private final String companyName;
+        private final int amount;
+
+        public LoanApplication(String companyName, int amount) {
+            this.companyName = companyName;
+            this.amount = amount;
+        }
+
+        public String getCompanyName() {
+            return companyName;
+        }
+
+        public int getAmount() {
+            return amount;
+        }
+    }
+
+    @InitiatingFlow
+    @StartableByRPC
+    public static class Initiator extends FlowLogic<SignedTransaction> {
+
+        private final Party bankParty;
+        private final List<LoanApplication> applications;
+
+        /**
+         * This constructor is being called from REST API
+         **/
+        public Initiator(Party bankParty, List<LoanApplication> applications) {
+            this.bankParty = bankParty;
+            this.applications = applications;
+        }
+
+        private final ProgressTracker.Step LOAN_REQUEST = new ProgressTracker.Step("Finance Agency preparing a batch of loan applications for bank");
+        private final ProgressTracker.Step VERIFYING_TRANSACTION = new ProgressTracker.Step("Verifying contract constraints.");
+        private final ProgressTracker.Step SIGNING_TRANSACTION = new ProgressTracker.Step("Signing transaction with our private key.");
+        private final ProgressTracker.Step GATHERING_SIGS = new ProgressTracker.Step("Gathering the counterparty's signature.") {
+            public ProgressTracker childProgressTracker() {
+                return CollectSignaturesFlow.Companion.tracker();
+            }
+        };
+        private final ProgressTracker.Step FINALISING_TRANSACTION = new ProgressTracker.Step("Obtaining notary signature and recording transaction.") {
+            public ProgressTracker childProgressTracker() {
+                return FinalityFlow.Companion.tracker();
+            }
+        };
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                LOAN_REQUEST,
+                VERIFYING_TRANSACTION,
+                SIGNING_TRANSACTION,
+                GATHERING_SIGS,
+                FINALISING_TRANSACTION
+        );
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            final FlowMetricsService metrics = FlowMetricsService.started(this);
+            try {
+                final SignedTransaction signedTx = requestLoans();
+                metrics.completed(this);
+                return signedTx;
+            } catch (FlowException | RuntimeException ex) {
+                metrics.failed(this);
+                throw ex;
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction requestLoans() throws FlowException {
+            if (applications == null || applications.isEmpty()) {
+                throw new FlowException("At least one loan application is needed.");
+            }
+            if (applications.size() > MAX_BATCH_SIZE) {
+                throw new FlowException("At most " + MAX_BATCH_SIZE + " loan applications can be sent in one transaction.");
+            }
+
+            final Party notary = NotarySelectionService.select(this, bankParty);
+            FlowMetricsService.step(this, LOAN_REQUEST);
+
+            Party financeParty = getServiceHub().getMyInfo().getLegalIdentities().get(0);
+            final Command<LoanReqContract.Commands.InitiateLoan> initiateLoanCommand = new Command<LoanReqContract.Commands.InitiateLoan>(new LoanReqContract.Commands.InitiateLoan(), ImmutableList.of(bankParty.getOwningKey(), financeParty.getOwningKey()));
+            final TransactionBuilder txBuilder = new TransactionBuilder(notary).addCommand(initiateLoanCommand);
+            for (LoanApplication application : applications) {
+                LoanRequestState financeBankState = new LoanRequestState(financeParty, bankParty, application.getCompanyName(), application.getAmount(), new UniqueIdentifier(), false);
+                txBuilder.addOutputState(financeBankState, LoanReqContract.LOANREQUEST_CONTRACT_ID);
+            }
+
+            FlowMetricsService.step(this, VERIFYING_TRANSACTION);
+            txBuilder.verify(getServiceHub());
+            FlowMetricsService.step(this, SIGNING_TRANSACTION);
+            final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
+            FlowMetricsService.step(this, GATHERING_SIGS);
+            FlowSession otherPartySession = initiateFlow(bankParty);
+            final SignedTransaction fullySignedTx = subFlow(new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
+            FlowMetricsService.step(this, FINALISING_TRANSACTION);
+            final SignedTransaction notarisedTx = NotarySelectionService.finalise(this, notary, fullySignedTx);
+            return notarisedTx;
+        }
+    }
+
+    @InitiatedBy(Initiator.class)
+    public static class Acceptor extends FlowLogic<SignedTransaction> {
+
+        private final FlowSession otherPartyFlow;
+
+        public Acceptor(FlowSession otherPartyFlow) {
+            this.otherPartyFlow = otherPartyFlow;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            final Party bankParty = getServiceHub().getMyInfo().getLegalIdentities().get(0);
+
+            class SignTxFlow extends SignTransactionFlow {
+                public SignTxFlow(FlowSession otherSideSession, ProgressTracker progressTracker) {
+                    super(otherSideSession, progressTracker);
+                }
+
+                @Override
+                protected void checkTransaction(SignedTransaction stx) throws FlowException {
+                    requireThat(require -> {
+                        List<TransactionState<ContractState>> outputs = stx.getTx().getOutputs();
+                        require.using("The batch must not exceed " + MAX_BATCH_SIZE + " loan applications.", outputs.size() <= MAX_BATCH_SIZE);
+                        for (TransactionState<ContractState> output : outputs) {
+                            require.using("This must be a transaction between bank and finance Agency (LoanRequestState transaction).", output.getData() instanceof LoanRequestState);
+                            require.using("Every loan application in the batch must be addressed to us.", bankParty.equals(((LoanRequestState) output.getData()).getBankNode()));
+                        }
+                        return null;
+                    });
+                }
+            }
+            return subFlow(new SignTxFlow(otherPartyFlow, SignTransactionFlow.Companion.tracker()));
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.example.flow;
 import co.paralleluniverse.fibers.Suspendable;
 import com.example.contract.LoanReqContract;
 import com.example.state.LoanRequestState;
+import com.example.service.FlowMetricsService;
+import com.example.service.NotarySelectionService;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import net.corda.core.contracts.Command;
@@ -35,6 +37,15 @@ public class RequestForLoanFlow {
             this.companyName = companyName;
         }
 
+        /**
+         * Used by the import, which notes the linear id of the new request before the flow starts so it can find the
+         * request again if the import is interrupted.
+         */
+        public Initiator(Party bankParty, int amount, String companyName, UniqueIdentifier linearIdLoanReqState) {
+            this(bankParty, amount, companyName);
+            this.linearIdLoanReqState = linearIdLoanReqState;
+        }
+
         public UniqueIdentifier getLinearIdLoanReqState() {
             return linearIdLoanReqState;
         }
@@ -80,40 +91,62 @@ public class RequestForLoanFlow {
                 FINALISING_TRANSACTION
         );
 
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
+            final FlowMetricsService metrics = FlowMetricsService.started(this);
+            try {
+                final SignedTransaction signedTx = requestLoan();
+                metrics.completed(this);
+                return signedTx;
+            } catch (FlowException | RuntimeException ex) {
+                metrics.failed(this);
+                throw ex;
+            }
+        }
 
-            final Party notary = getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0);
+        @Suspendable
+        private SignedTransaction requestLoan() throws FlowException {
+
+            final Party notary = NotarySelectionService.select(this, bankParty);
 
             //Stage 1
-            progressTracker.setCurrentStep(LOAN_REQUEST);
+            FlowMetricsService.step(this, LOAN_REQUEST);
 
             //Generate an unsigned transaction
             Party financeParty = getServiceHub().getMyInfo().getLegalIdentities().get(0);
-            LoanRequestState financeBankState = new LoanRequestState(financeParty, bankParty, companyName, amount, new UniqueIdentifier(), false);
+            if (linearIdLoanReqState == null) {
+                linearIdLoanReqState = new UniqueIdentifier();
+            }
+            LoanRequestState financeBankState = new LoanRequestState(financeParty, bankParty, companyName, amount, linearIdLoanReqState, false);
             final Command<LoanReqContract.Commands.InitiateLoan> initiateLoanCommand = new Command<LoanReqContract.Commands.InitiateLoan>(new LoanReqContract.Commands.InitiateLoan(), ImmutableList.of(financeBankState.getBankNode().getOwningKey(), financeBankState.getFinanceNode().getOwningKey()));
 
             final TransactionBuilder txBuilder = new TransactionBuilder(notary)
                     .addOutputState(financeBankState, LoanReqContract.LOANREQUEST_CONTRACT_ID)
                     .addCommand(initiateLoanCommand);
 
-            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
+            FlowMetricsService.step(this, VERIFYING_TRANSACTION);
 
             txBuilder.verify(getServiceHub());
             //stage 3
-            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
+            FlowMetricsService.step(this, SIGNING_TRANSACTION);
             // Sign the transaction.
             final SignedTransaction partSignedTx = getServiceHub().signInitialTransaction(txBuilder);
             //Stage 4
-            progressTracker.setCurrentStep(GATHERING_SIGS);
+            FlowMetricsService.step(this, GATHERING_SIGS);
             // Send the state to the counterparty, and receive it back with their signature.
             FlowSession otherPartySession = initiateFlow(bankParty);
             final SignedTransaction fullySignedTx = subFlow(new CollectSignaturesFlow(partSignedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
             //stage 5
-            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
+            FlowMetricsService.step(this, FINALISING_TRANSACTION);
             //Notarise and record the transaction in both party vaults.
-            return subFlow(new FinalityFlow(fullySignedTx));
+            final SignedTransaction notarisedTx = NotarySelectionService.finalise(this, notary, fullySignedTx);
+            return notarisedTx;
         }
     }
 
@@ -0,0 +1,42 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.serialization.SerializationAPIKt;
+import net.corda.core.serialization.SerializationFactory;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Returns the given transactions from the node's transaction storage in the node's own serialised form, so the web
+ * server can archive them next to the states they produced and a node can read them back.
+ */
+@StartableByRPC
+public class SerializedTransactionsFlow extends FlowLogic<List<byte[]>> {
+
+    private final List<SecureHash> transactionIds;
+
+    public SerializedTransactionsFlow(List<SecureHash> transactionIds) {
+        this.transactionIds = transactionIds;
+    }
+
+    @Suspendable
+    @Override
+    public List<byte[]> call() throws FlowException {
+        final SerializationFactory factory = SerializationFactory.Companion.getDefaultFactory();
+        final List<byte[]> transactions = new ArrayList<>(transactionIds.size());
+        for (SecureHash id : transactionIds) {
+            final SignedTransaction transaction = getServiceHub().getValidatedTransactions().getTransaction(id);
+            if (transaction == null) {
+                throw new FlowException("Transaction " + id + " is not in this node's storage");
+            }
+            transactions.add(SerializationAPIKt.serialize(transaction, factory, factory.getDefaultContext()).getBytes());
+        }
+        return transactions;
+    }
+}
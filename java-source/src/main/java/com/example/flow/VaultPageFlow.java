@@ -0,0 +1,41 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.service.FlowMetricsService;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+
+/**
+ * Reads one page of the vault for a node service. The vault can only be queried inside a database transaction, which
+ * a service's own threads do not have, so they start this flow for each page instead.
+ */
+@StartableByService
+public class VaultPageFlow<T extends ContractState> extends FlowLogic<Vault.Page<T>> {
+
+    private final Class<T> stateType;
+    private final QueryCriteria criteria;
+    private final PageSpecification paging;
+    private final Sort sort;
+
+    public VaultPageFlow(Class<T> stateType, QueryCriteria criteria, PageSpecification paging, Sort sort) {
+        this.stateType = stateType;
+        this.criteria = criteria;
+        this.paging = paging;
+        this.sort = sort;
+    }
+
+    @Suspendable
+    @Override
+    public Vault.Page<T> call() throws FlowException {
+        final long queryStart = System.nanoTime();
+        final Vault.Page<T> page = getServiceHub().getVaultService().queryBy(stateType, criteria, paging, sort);
+        FlowMetricsService.vaultQuery(this, queryStart);
+        return page;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.schema;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * The columns of a LoanRequestState, so the vault can filter loan requests in SQL instead of deserialising every
+ * state. The columns the API filters by are indexed.
+ */
+public class LoanRequestSchemaV1 extends MappedSchema {
+    public LoanRequestSchemaV1() {
+        super(LoanRequestSchema.class, 1, ImmutableList.of(PersistentLoanRequest.class));
+    }
+
+    /**
+     * The value stored in the company_key columns for a company name.
+     */
+    public static String companyKey(String companyName) {
+        return companyName == null ? null : companyName.trim().toUpperCase(Locale.ROOT);
+    }
+
+    @Entity
+    @Table(name = "loan_request_states", indexes = {
+            @Index(name = "loan_request_company_idx", columnList = "company_key"),
+            @Index(name = "loan_request_bank_idx", columnList = "bank_party"),
+            @Index(name = "loan_request_eligible_idx", columnList = "eligible"),
+            @Index(name = "loan_request_linear_id_idx", columnList = "linear_id"),
+            @Index(name = "loan_request_verification_idx", columnList = "linear_id_verification")})
+    public static class PersistentLoanRequest extends PersistentState {
+        @Column(name = "finance_party") private final String financeParty;
+        @Column(name = "bank_party") private final String bankParty;
+        @Column(name = "company_name") private final String companyName;
+        /** The company name in upper case, the API matches companies regardless of case. */
+        @Column(name = "company_key") private final String companyKey;
+        @Column(name = "amount") private final int amount;
+        @Column(name = "eligible") private final boolean eligible;
+        @Column(name = "linear_id") private final UUID linearId;
+        @Column(name = "linear_id_verification") private final UUID linearIdVerification;
+
+        public PersistentLoanRequest(String financeParty, String bankParty, String companyName, String companyKey, int amount,
+                                     boolean eligible, UUID linearId, UUID linearIdVerification) {
+            this.financeParty = financeParty;
+            this.bankParty = bankParty;
+            this.companyName = companyName;
+            this.companyKey = companyKey;
+            this.amount = amount;
+            this.eligible = eligible;
+            this.linearId = linearId;
+            this.linearIdVerification = linearIdVerification;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentLoanRequest() {
+            this.financeParty = null;
+            this.bankParty = null;
+            this.companyName = null;
+            this.companyKey = null;
+            this.amount = 0;
+            this.eligible = false;
+            this.linearId = null;
+            this.linearIdVerification = null;
+        }
+
+        public String getFinanceParty() {
+            return financeParty;
+        }
+
+        public String getBankParty() {
+            return bankParty;
+        }
+
+        public String getCompanyName() {
+            return companyName;
+        }
+
+        public String getCompanyKey() {
+            return companyKey;
+        }
+
+        public int getAmount() {
+            return amount;
+        }
+
+        public boolean isEligible() {
+            return eligible;
+        }
+
+        public UUID getLinearId() {
+            return linearId;
+        }
+
+        public UUID getLinearIdVerification() {
+            return linearIdVerification;
+        }
+    }
+}
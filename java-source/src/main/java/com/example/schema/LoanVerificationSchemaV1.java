@@ -0,0 +1,98 @@
+package com.example.schema;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.util.UUID;
+
+/**
+ * The columns of a LoanVerificationState, so the vault can filter credit checks in SQL instead of deserialising every
+ * state. The columns the API filters by are indexed. linear_id_loan_req holds the linear id of the LoanRequestState
+ * the check belongs to; it is not a database constraint because a linear id spans many rows of loan_request_states,
+ * one per version of the request.
+ */
+public class LoanVerificationSchemaV1 extends MappedSchema {
+    public LoanVerificationSchemaV1() {
+        super(LoanVerificationSchema.class, 1, ImmutableList.of(PersistentLoanVerification.class));
+    }
+
+    @Entity
+    @Table(name = "loan_verification_states", indexes = {
+            @Index(name = "loan_verification_company_idx", columnList = "company_key"),
+            @Index(name = "loan_verification_bank_idx", columnList = "bank_party"),
+            @Index(name = "loan_verification_eligible_idx", columnList = "eligible"),
+            @Index(name = "loan_verification_linear_id_idx", columnList = "linear_id"),
+            @Index(name = "loan_verification_loan_req_idx", columnList = "linear_id_loan_req")})
+    public static class PersistentLoanVerification extends PersistentState {
+        @Column(name = "bank_party") private final String bankParty;
+        @Column(name = "credit_party") private final String creditParty;
+        @Column(name = "company_name") private final String companyName;
+        /** The company name in upper case, the API matches companies regardless of case. */
+        @Column(name = "company_key") private final String companyKey;
+        @Column(name = "amount") private final int amount;
+        @Column(name = "eligible") private final boolean eligible;
+        @Column(name = "linear_id") private final UUID linearId;
+        @Column(name = "linear_id_loan_req") private final UUID linearIdLoanReq;
+
+        public PersistentLoanVerification(String bankParty, String creditParty, String companyName, String companyKey, int amount,
+                                          boolean eligible, UUID linearId, UUID linearIdLoanReq) {
+            this.bankParty = bankParty;
+            this.creditParty = creditParty;
+            this.companyName = companyName;
+            this.companyKey = companyKey;
+            this.amount = amount;
+            this.eligible = eligible;
+            this.linearId = linearId;
+            this.linearIdLoanReq = linearIdLoanReq;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentLoanVerification() {
+            this.bankParty = null;
+            this.creditParty = null;
+            this.companyName = null;
+            this.companyKey = null;
+            this.amount = 0;
+            this.eligible = false;
+            this.linearId = null;
+            this.linearIdLoanReq = null;
+        }
+
+        public String getBankParty() {
+            return bankParty;
+        }
+
+        public String getCreditParty() {
+            return creditParty;
+        }
+
+        public String getCompanyName() {
+            return companyName;
+        }
+
+        public String getCompanyKey() {
+            return companyKey;
+        }
+
+        public int getAmount() {
+            return amount;
+        }
+
+        public boolean isEligible() {
+            return eligible;
+        }
+
+        public UUID getLinearId() {
+            return linearId;
+        }
+
+        public UUID getLinearIdLoanReq() {
+            return linearIdLoanReq;
+        }
+    }
+}
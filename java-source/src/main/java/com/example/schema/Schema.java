@@ -1,6 +0,0 @@
-package com.example.schema;
-
-/**
- * The family of schemas.
- */
-public class Schema { }
\ No newline at end of file
@@ -0,0 +1,181 @@
+package com.example.service;
+
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The credit agency's decision engine. Decisions are taken against a compiled {@link CreditRules} set read from the
+ * file named by the system property {@value #RULES_FILE_PROPERTY} (default {@value #DEFAULT_RULES_FILE} in the node
+ * directory). The file is checked for changes every few seconds and swapped in without a restart; a file that does
+ * not parse is logged and the previous rules stay in force. Without a file the agency's original blocklist applies.
+ *
+ * When the system property {@value #SANCTIONS_LIST_PROPERTY} names a sanctions list, listed companies are declined
+ * before the rules are consulted. The list is compiled once into a {@link SanctionsIndex} file next to it and memory
+ * mapped; the index is only rebuilt when the list is newer, so a restart does not parse the list again.
+ */
+@CordaService
+public class CreditDecisionService extends SingletonSerializeAsToken {
+
+    public static final String RULES_FILE_PROPERTY = "loan.creditRules";
+    public static final String DEFAULT_RULES_FILE = "credit-rules.conf";
+    public static final String SANCTIONS_LIST_PROPERTY = "loan.sanctionsList";
+    static private final long RELOAD_INTERVAL_SECONDS = 5;
+
+    static private final Logger logger = LoggerFactory.getLogger(CreditDecisionService.class);
+
+    private final Path rulesFile;
+    private final Path sanctionsList;
+    private final Path sanctionsIndexFile;
+    private final LatencyHistogram evaluations = new LatencyHistogram();
+    private final AtomicLong approved = new AtomicLong();
+    private final AtomicLong declined = new AtomicLong();
+    private final AtomicLong sanctioned = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong reloadFailures = new AtomicLong();
+    private volatile CreditRules rules = CreditRules.DEFAULT;
+    private volatile long loadedModified = -1;
+    private volatile long loadedSize = -1;
+    private volatile SanctionsIndex sanctions;
+    private volatile long sanctionsIndexModified = -1;
+
+    public CreditDecisionService(AppServiceHub serviceHub) {
+        this.rulesFile = Paths.get(System.getProperty(RULES_FILE_PROPERTY, DEFAULT_RULES_FILE)).toAbsolutePath();
+        final String sanctionsListName = System.getProperty(SANCTIONS_LIST_PROPERTY);
+        this.sanctionsList = sanctionsListName == null ? null : Paths.get(sanctionsListName).toAbsolutePath();
+        this.sanctionsIndexFile = sanctionsList == null ? null : sanctionsList.resolveSibling(sanctionsList.getFileName() + ".idx");
+        reloadIfChanged();
+
+        final ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "credit-rules-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloader.scheduleWithFixedDelay(this::reloadIfChanged, RELOAD_INTERVAL_SECONDS, RELOAD_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Decides whether the company is eligible for a loan of the given amount, and records how long the decision took.
+     */
+    public static boolean decide(FlowLogic<?> flow, String companyName, int amount) {
+        return flow.getServiceHub().cordaService(CreditDecisionService.class).isEligible(companyName, amount);
+    }
+
+    public boolean isEligible(String companyName, int amount) {
+        final long start = System.nanoTime();
+        final SanctionsIndex sanctionsIndex = sanctions;
+        final boolean listed = sanctionsIndex != null && sanctionsIndex.isListed(companyName);
+        final boolean eligible = !listed && rules.isEligible(companyName, amount);
+        if (listed) {
+            sanctioned.incrementAndGet();
+        }
+        evaluations.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        (eligible ? approved : declined).incrementAndGet();
+        return eligible;
+    }
+
+    private void reloadIfChanged() {
+        reloadRulesIfChanged();
+        if (sanctionsList != null) {
+            reloadSanctionsIfChanged();
+        }
+    }
+
+    private void reloadRulesIfChanged() {
+        try {
+            if (!Files.isRegularFile(rulesFile)) {
+                if (loadedModified != -1) {
+                    logger.warn("Credit rules file {} is gone, keeping the rules loaded last", rulesFile);
+                    loadedModified = -1;
+                }
+                return;
+            }
+            final long modified = Files.getLastModifiedTime(rulesFile).toMillis();
+            final long size = Files.size(rulesFile);
+            if (modified == loadedModified && size == loadedSize) {
+                return;
+            }
+            loadedModified = modified;
+            loadedSize = size;
+            try (Reader reader = Files.newBufferedReader(rulesFile, StandardCharsets.UTF_8)) {
+                rules = CreditRules.parse(reader);
+            }
+            reloads.incrementAndGet();
+            logger.info("Loaded {} credit rules from {}", rules.size(), rulesFile);
+        } catch (IOException | RuntimeException ex) {
+            reloadFailures.incrementAndGet();
+            logger.error("Could not load credit rules from " + rulesFile + ", keeping the rules loaded last", ex);
+        }
+    }
+
+    private void reloadSanctionsIfChanged() {
+        try {
+            if (Files.isRegularFile(sanctionsList) && (!Files.isRegularFile(sanctionsIndexFile)
+                    || Files.getLastModifiedTime(sanctionsList).compareTo(Files.getLastModifiedTime(sanctionsIndexFile)) > 0)) {
+                final long start = System.nanoTime();
+                SanctionsIndex.build(sanctionsList, sanctionsIndexFile);
+                logger.info("Built sanctions index {} in {} ms", sanctionsIndexFile, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+            if (!Files.isRegularFile(sanctionsIndexFile)) {
+                return;
+            }
+            final long modified = Files.getLastModifiedTime(sanctionsIndexFile).toMillis();
+            if (modified != sanctionsIndexModified) {
+                sanctions = SanctionsIndex.open(sanctionsIndexFile);
+                sanctionsIndexModified = modified;
+                logger.info("Mapped sanctions index {} with {} names", sanctionsIndexFile, sanctions.size());
+            }
+        } catch (IOException | RuntimeException ex) {
+            reloadFailures.incrementAndGet();
+            logger.error("Could not load sanctions index " + sanctionsIndexFile + ", keeping the index loaded last", ex);
+        }
+    }
+
+    /**
+     * Writes the decision counts, the evaluation time and the rule set size in the Prometheus text format.
+     */
+    public void render(StringBuilder out) {
+        out.append("# HELP loan_credit_decisions_total Credit decisions taken by this node.\n");
+        out.append("# TYPE loan_credit_decisions_total counter\n");
+        out.append("loan_credit_decisions_total{eligible=\"true\"} ").append(approved.get()).append('\n');
+        out.append("loan_credit_decisions_total{eligible=\"false\"} ").append(declined.get()).append('\n');
+        out.append("# HELP loan_credit_decision_seconds Time taken to evaluate the credit rules for one decision.\n");
+        out.append("# TYPE loan_credit_decision_seconds summary\n");
+        FlowMetricsService.summary(out, "loan_credit_decision_seconds", "", evaluations);
+        out.append("# HELP loan_credit_rules Blocklist entries and company limits in force.\n");
+        out.append("# TYPE loan_credit_rules gauge\n");
+        out.append("loan_credit_rules ").append(rules.size()).append('\n');
+        out.append("# HELP loan_credit_rules_reloads_total Rule file loads, successful or not.\n");
+        out.append("# TYPE loan_credit_rules_reloads_total counter\n");
+        out.append("loan_credit_rules_reloads_total{result=\"ok\"} ").append(reloads.get()).append('\n');
+        out.append("loan_credit_rules_reloads_total{result=\"failed\"} ").append(reloadFailures.get()).append('\n');
+
+        final SanctionsIndex sanctionsIndex = sanctions;
+        if (sanctionsIndex != null) {
+            out.append("# HELP loan_sanctions_names Names in the mapped sanctions index.\n");
+            out.append("# TYPE loan_sanctions_names gauge\n");
+            out.append("loan_sanctions_names ").append(sanctionsIndex.size()).append('\n');
+            out.append("# HELP loan_sanctions_lookups_total Sanctions checks, by how they were answered.\n");
+            out.append("# TYPE loan_sanctions_lookups_total counter\n");
+            out.append("loan_sanctions_lookups_total{answer=\"bloom\"} ").append(sanctionsIndex.getFiltered()).append('\n');
+            out.append("loan_sanctions_lookups_total{answer=\"index\"} ").append(sanctionsIndex.getProbed()).append('\n');
+            out.append("# HELP loan_sanctions_declined_total Credit decisions declined because the company is listed.\n");
+            out.append("# TYPE loan_sanctions_declined_total counter\n");
+            out.append("loan_sanctions_declined_total ").append(sanctioned.get()).append('\n');
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.service;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable, compiled credit rule set. Company names are normalised once when the rules are parsed, so a decision
+ * is a hash lookup in the blocklist and in the per-company limits plus two comparisons, whatever the size of the set.
+ * Names that are not blocked verbatim are also screened against the blocklist with a {@link FuzzyNameIndex}, so
+ * "Jet Airways Ltd" is caught by a block on JETSAIRWAYS.
+ *
+ * The rules file has one rule per line, '#' starts a comment:
+ * <pre>
+ * block      JETSAIRWAYS       # never lend to this company
+ * limit      BOEING 5000000    # lend at most this amount to this company
+ * min-amount 1000              # reject smaller loans
+ * max-amount 10000000          # reject larger loans, unless the company has its own limit
+ * fuzzy-threshold 0.75         # similarity at which a name counts as blocked, 0 turns fuzzy screening off
+ * </pre>
+ */
+public class CreditRules {
+
+    public static final double DEFAULT_FUZZY_THRESHOLD = 0.75;
+
+    /** The rules used when no rules file is configured: the agency's original blocklist. */
+    public static final CreditRules DEFAULT = new CreditRules(
+            ImmutableSet.of("JETSAIRWAYS", "AMERICONAIRWAYS", "SAHARAAIRLINES", "JETBLUEAIRLINE"),
+            ImmutableMap.of(),
+            1,
+            Integer.MAX_VALUE,
+            DEFAULT_FUZZY_THRESHOLD);
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final Set<String> blocked;
+    private final Map<String, Integer> limits;
+    private final int minAmount;
+    private final int maxAmount;
+    private final FuzzyNameIndex fuzzyBlocked;
+
+    CreditRules(Set<String> blocked, Map<String, Integer> limits, int minAmount, int maxAmount, double fuzzyThreshold) {
+        this.blocked = blocked;
+        this.limits = limits;
+        this.minAmount = minAmount;
+        this.maxAmount = maxAmount;
+        this.fuzzyBlocked = fuzzyThreshold > 0 ? FuzzyNameIndex.build(blocked, fuzzyThreshold) : null;
+    }
+
+    public boolean isEligible(String companyName, int amount) {
+        if (companyName == null || amount < minAmount) {
+            return false;
+        }
+        final String company = normalise(companyName);
+        if (blocked.contains(company) || (fuzzyBlocked != null && fuzzyBlocked.matches(company))) {
+            return false;
+        }
+        final Integer limit = limits.get(company);
+        return amount <= (limit != null ? limit : maxAmount);
+    }
+
+    public int size() {
+        return blocked.size() + limits.size();
+    }
+
+    /**
+     * Parses a rules file. Throws IllegalArgumentException naming the line of the first rule it does not understand.
+     */
+    public static CreditRules parse(Reader source) throws IOException {
+        final Set<String> blocked = new HashSet<>();
+        final Map<String, Integer> limits = new HashMap<>();
+        int minAmount = 1;
+        int maxAmount = Integer.MAX_VALUE;
+        double fuzzyThreshold = DEFAULT_FUZZY_THRESHOLD;
+
+        final BufferedReader reader = new BufferedReader(source);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            final int comment = line.indexOf('#');
+            final String[] words = WHITESPACE.split((comment >= 0 ? line.substring(0, comment) : line).trim());
+            if (words[0].isEmpty()) {
+                continue;
+            }
+            try {
+                switch (words[0].toLowerCase(Locale.ROOT)) {
+                    case "block":
+                        blocked.add(normalise(companyOf(words, words.length)));
+                        break;
+                    case "limit":
+                        limits.put(normalise(companyOf(words, words.length - 1)), Integer.parseInt(words[words.length - 1]));
+                        break;
+                    case "min-amount":
+                        minAmount = Integer.parseInt(single(words));
+                        break;
+                    case "max-amount":
+                        maxAmount = Integer.parseInt(single(words));
+                        break;
+                    case "fuzzy-threshold":
+                        fuzzyThreshold = Double.parseDouble(single(words));
+                        if (fuzzyThreshold < 0 || fuzzyThreshold > 1) {
+                            throw new IllegalArgumentException("fuzzy-threshold must be between 0 and 1");
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown rule '" + words[0] + "'");
+                }
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Credit rules line " + lineNumber + ": " + ex.getMessage(), ex);
+            }
+        }
+        return new CreditRules(ImmutableSet.copyOf(blocked), ImmutableMap.copyOf(limits), minAmount, maxAmount, fuzzyThreshold);
+    }
+
+    /** Company names may contain spaces, they run from the second word up to the given end. */
+    private static String companyOf(String[] words, int end) {
+        if (end < 2) {
+            throw new IllegalArgumentException("company name missing");
+        }
+        return String.join(" ", Arrays.copyOfRange(words, 1, end));
+    }
+
+    private static String single(String[] words) {
+        if (words.length != 2) {
+            throw new IllegalArgumentException("'" + words[0] + "' takes exactly one value");
+        }
+        return words[1];
+    }
+
+    static String normalise(String companyName) {
+        return WHITESPACE.matcher(companyName.trim()).replaceAll(" ").toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.service;
+
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StateMachineRunId;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.utilities.ProgressTracker;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects latency and outcome metrics for the loan flows running on this node: the time spent in every
+ * ProgressTracker step, how many flows started, completed and failed, and how long their vault queries took.
+ * The flows report through the static helpers below; {@link #render()} produces the Prometheus text format.
+ */
+@CordaService
+public class FlowMetricsService extends SingletonSerializeAsToken {
+
+    private static class StepMark {
+        final String flow;
+        final String step;
+        final long enteredNanos;
+
+        StepMark(String flow, String step, long enteredNanos) {
+            this.flow = flow;
+            this.step = step;
+            this.enteredNanos = enteredNanos;
+        }
+    }
+
+    private final Map<String, Map<String, LatencyHistogram>> stepLatencies = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> flowLatencies = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> vaultQueryLatencies = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> started = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> completed = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> failed = new ConcurrentHashMap<>();
+    private final Map<StateMachineRunId, Long> runStarts = new ConcurrentHashMap<>();
+    private final Map<StateMachineRunId, StepMark> currentSteps = new ConcurrentHashMap<>();
+
+    public FlowMetricsService(AppServiceHub serviceHub) {
+    }
+
+    /**
+     * Records the start of a flow and returns the service so the caller can report the outcome.
+     */
+    public static FlowMetricsService started(FlowLogic<?> flow) {
+        final FlowMetricsService metrics = flow.getServiceHub().cordaService(FlowMetricsService.class);
+        metrics.runStarts.put(flow.getRunId(), System.nanoTime());
+        counter(metrics.started, flowName(flow)).incrementAndGet();
+        return metrics;
+    }
+
+    /**
+     * Moves the flow's progress tracker to the given step and closes the timing of the previous one.
+     */
+    public static void step(FlowLogic<?> flow, ProgressTracker.Step step) {
+        flow.getProgressTracker().setCurrentStep(step);
+        final long now = System.nanoTime();
+        final FlowMetricsService metrics = flow.getServiceHub().cordaService(FlowMetricsService.class);
+        metrics.closeStep(metrics.currentSteps.put(flow.getRunId(), new StepMark(flowName(flow), step.getLabel(), now)), now);
+    }
+
+    /**
+     * Records how long a vault query inside the flow took.
+     */
+    public static void vaultQuery(FlowLogic<?> flow, long startNanos) {
+        final FlowMetricsService metrics = flow.getServiceHub().cordaService(FlowMetricsService.class);
+        histogram(metrics.vaultQueryLatencies, flowName(flow)).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void completed(FlowLogic<?> flow) {
+        finished(flow, completed);
+    }
+
+    public void failed(FlowLogic<?> flow) {
+        finished(flow, failed);
+    }
+
+    private void finished(FlowLogic<?> flow, Map<String, AtomicLong> outcome) {
+        final long now = System.nanoTime();
+        final String name = flowName(flow);
+        closeStep(currentSteps.remove(flow.getRunId()), now);
+        final Long start = runStarts.remove(flow.getRunId());
+        if (start != null) {
+            histogram(flowLatencies, name).record(now - start, TimeUnit.NANOSECONDS);
+        }
+        counter(outcome, name).incrementAndGet();
+    }
+
+    private void closeStep(StepMark previous, long now) {
+        if (previous != null) {
+            histogram(stepLatencies.computeIfAbsent(previous.flow, key -> new ConcurrentHashMap<>()), previous.step)
+                    .record(now - previous.enteredNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format.
+     */
+    public String render() {
+        final StringBuilder out = new StringBuilder();
+        counters(out, "loan_flow_started_total", "Flows started on this node.", started);
+        counters(out, "loan_flow_completed_total", "Flows that completed successfully.", completed);
+        counters(out, "loan_flow_failed_total", "Flows that ended with an exception.", failed);
+        out.append("# HELP loan_flow_in_flight Flows currently running on this node.\n");
+        out.append("# TYPE loan_flow_in_flight gauge\n");
+        out.append("loan_flow_in_flight ").append(runStarts.size()).append('\n');
+
+        summaryHeader(out, "loan_flow_duration_seconds", "End-to-end flow duration.");
+        new TreeMap<>(flowLatencies).forEach((flow, histogram) -> summary(out, "loan_flow_duration_seconds", "flow=\"" + escape(flow) + "\"", histogram));
+
+        summaryHeader(out, "loan_flow_step_seconds", "Time spent in each ProgressTracker step.");
+        new TreeMap<>(stepLatencies).forEach((flow, steps) -> new TreeMap<>(steps).forEach((step, histogram) ->
+                summary(out, "loan_flow_step_seconds", "flow=\"" + escape(flow) + "\",step=\"" + escape(step) + "\"", histogram)));
+
+        summaryHeader(out, "loan_flow_vault_query_seconds", "Vault queries issued by the flows.");
+        new TreeMap<>(vaultQueryLatencies).forEach((flow, histogram) -> summary(out, "loan_flow_vault_query_seconds", "flow=\"" + escape(flow) + "\"", histogram));
+        return out.toString();
+    }
+
+    private static void counters(StringBuilder out, String name, String help, Map<String, AtomicLong> values) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        new TreeMap<>(values).forEach((flow, value) ->
+                out.append(name).append("{flow=\"").append(escape(flow)).append("\"} ").append(value.get()).append('\n'));
+    }
+
+    private static void summaryHeader(StringBuilder out, String name, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" summary\n");
+    }
+
+    /**
+     * Writes one summary: the 0.5 and 0.99 quantiles, the maximum, the sum and the count. The labels may be empty.
+     */
+    public static void summary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        final String quantileLabels = labels.isEmpty() ? "{" : "{" + labels + ",";
+        final String ownLabels = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append(quantileLabels).append("quantile=\"0.5\"} ").append(seconds(histogram.quantileMicros(0.5))).append('\n');
+        out.append(name).append(quantileLabels).append("quantile=\"0.99\"} ").append(seconds(histogram.quantileMicros(0.99))).append('\n');
+        out.append(name).append("_max").append(ownLabels).append(' ').append(seconds(histogram.getMaxMicros())).append('\n');
+        out.append(name).append("_sum").append(ownLabels).append(' ').append(seconds(histogram.getSumMicros())).append('\n');
+        out.append(name).append("_count").append(ownLabels).append(' ').append(histogram.getCount()).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return String.valueOf(micros / 1_000_000.0);
+    }
+
+    public static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String flowName(FlowLogic<?> flow) {
+        final Class<?> enclosing = flow.getClass().getEnclosingClass();
+        return enclosing != null ? enclosing.getSimpleName() : flow.getClass().getSimpleName();
+    }
+
+    private static AtomicLong counter(Map<String, AtomicLong> counters, String key) {
+        return counters.computeIfAbsent(key, k -> new AtomicLong());
+    }
+
+    private static LatencyHistogram histogram(Map<String, LatencyHistogram> histograms, String key) {
+        return histograms.computeIfAbsent(key, k -> new LatencyHistogram());
+    }
+}
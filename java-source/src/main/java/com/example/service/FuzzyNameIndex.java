@@ -0,0 +1,306 @@
+package com.example.service;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Trigram index for fuzzy company-name screening. Names are reduced to a key of letters and digits without legal
+ * suffixes ("Jet Airways Ltd." becomes JETAIRWAYS), and two names match when the Dice coefficient of their key
+ * trigrams reaches the threshold: JETAIRWAYS and JETSAIRWAYS share 9 of 11 and 12 trigrams, a similarity of 0.78.
+ *
+ * Lookups never compare the query with every name. Names are numbered in order of their trigram count, so the names
+ * whose length the threshold allows form one id range that is cut out of each posting list by binary search. A
+ * candidate must then share one of the query's rarest trigrams (prefix filtering): only those posting lists are
+ * scanned, the remaining trigrams are checked against the candidates alone, and candidates that can no longer reach
+ * the threshold are dropped as soon as that is certain.
+ */
+public class FuzzyNameIndex {
+
+    /** Words dropped from the end of a name before it is compared. */
+    static final Set<String> LEGAL_SUFFIXES = ImmutableSet.of(
+            "LTD", "LIMITED", "INC", "INCORPORATED", "CORP", "CORPORATION", "CO", "COMPANY", "PLC", "LLC", "LLP",
+            "GMBH", "AG", "SA", "NV", "BV", "PVT", "PRIVATE", "GROUP", "HOLDINGS");
+
+    private static final int ALPHABET = 37; // padding, A-Z, 0-9
+    private static final int GRAMS = ALPHABET * ALPHABET * ALPHABET;
+    private static final double EPSILON = 1e-9;
+
+    private final String[] names;
+    private final int[] gramCounts;
+    /** firstWithCount[c] is the first id whose name has at least c trigrams. */
+    private final int[] firstWithCount;
+    private final int[] postingStart;
+    private final int[] postings;
+    private final double threshold;
+
+    /**
+     * Counters handed back by finished lookups, so a lookup allocates nothing proportional to the index. A pool rather
+     * than a thread local: flows run as fibers, which each get their own copy of a thread local. Lookups never suspend,
+     * so the pool holds at most one set of counters per thread that looked up at the same time.
+     */
+    private final ConcurrentLinkedQueue<int[]> overlapCounters = new ConcurrentLinkedQueue<>();
+
+    private FuzzyNameIndex(String[] names, int[] gramCounts, int[] postingStart, int[] postings, double threshold) {
+        this.names = names;
+        this.gramCounts = gramCounts;
+        this.postingStart = postingStart;
+        this.postings = postings;
+        this.threshold = threshold;
+
+        final int maxCount = names.length == 0 ? 0 : gramCounts[names.length - 1];
+        this.firstWithCount = new int[maxCount + 2];
+        int id = 0;
+        for (int count = 0; count <= maxCount + 1; count++) {
+            while (id < names.length && gramCounts[id] < count) {
+                id++;
+            }
+            firstWithCount[count] = id;
+        }
+    }
+
+    /**
+     * Builds the index. The threshold is the Dice similarity, between 0 exclusive and 1 inclusive, a name must reach to
+     * match.
+     */
+    public static FuzzyNameIndex build(Collection<String> screeningList, double threshold) {
+        if (!(threshold > 0 && threshold <= 1)) {
+            throw new IllegalArgumentException("Similarity threshold must be in (0, 1]: " + threshold);
+        }
+        final String[] listed = screeningList.toArray(new String[0]);
+        final int[][] listedGrams = new int[listed.length][];
+        final Integer[] order = new Integer[listed.length];
+        for (int i = 0; i < listed.length; i++) {
+            listedGrams[i] = trigrams(key(listed[i]));
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(listedGrams[a].length, listedGrams[b].length));
+
+        final String[] names = new String[listed.length];
+        final int[] gramCounts = new int[listed.length];
+        final int[] postingStart = new int[GRAMS + 1];
+        for (int id = 0; id < names.length; id++) {
+            names[id] = listed[order[id]];
+            gramCounts[id] = listedGrams[order[id]].length;
+            for (int gram : listedGrams[order[id]]) {
+                postingStart[gram + 1]++;
+            }
+        }
+        for (int gram = 0; gram < GRAMS; gram++) {
+            postingStart[gram + 1] += postingStart[gram];
+        }
+        final int[] next = Arrays.copyOf(postingStart, GRAMS);
+        final int[] postings = new int[postingStart[GRAMS]];
+        for (int id = 0; id < names.length; id++) {
+            for (int gram : listedGrams[order[id]]) {
+                postings[next[gram]++] = id;
+            }
+        }
+        return new FuzzyNameIndex(names, gramCounts, postingStart, postings, threshold);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns the listed name most similar to the given one, or null when none reaches the threshold.
+     */
+    public String bestMatch(String companyName) {
+        final int[] query = companyName == null ? new int[0] : trigrams(key(companyName));
+        if (query.length == 0 || names.length == 0) {
+            return null;
+        }
+        final int queryCount = query.length;
+        // Dice >= t needs the candidate's trigram count within these bounds ...
+        final int minCount = (int) Math.ceil(queryCount * threshold / (2 - threshold) - EPSILON);
+        final int maxCount = Math.min(firstWithCount.length - 2,
+                (int) Math.floor(queryCount * (2 - threshold) / threshold + EPSILON));
+        if (minCount > maxCount) {
+            return null;
+        }
+        final int firstId = firstWithCount[minCount];
+        final int endId = firstWithCount[maxCount + 1];
+        // ... and an overlap of at least t * (|query| + |candidate|) / 2, which is smallest for the shortest candidate.
+        final int minOverlap = Math.max(1, requiredOverlap(queryCount, minCount));
+        if (minOverlap > queryCount || firstId == endId) {
+            return null;
+        }
+
+        // The part of each posting list that falls in the allowed id range, rarest trigram first.
+        final long[] ranges = new long[queryCount];
+        for (int i = 0; i < queryCount; i++) {
+            final int from = lowerBound(postingStart[query[i]], postingStart[query[i] + 1], firstId);
+            final int to = lowerBound(from, postingStart[query[i] + 1], endId);
+            ranges[i] = (long) from << 32 | to;
+        }
+        sortByLength(ranges);
+
+        // A candidate sharing fewer than minOverlap trigrams cannot match, so it must share one of the
+        // queryCount - minOverlap + 1 rarest ones.
+        final int prefix = queryCount - minOverlap + 1;
+        final int[] pooled = overlapCounters.poll();
+        final int[] overlap = pooled != null ? pooled : new int[names.length];
+        int[] candidates = new int[16];
+        int candidateCount = 0;
+        try {
+            for (int i = 0; i < prefix; i++) {
+                for (int p = from(ranges[i]); p < to(ranges[i]); p++) {
+                    final int id = postings[p];
+                    if (overlap[id]++ == 0) {
+                        if (candidateCount == candidates.length) {
+                            candidates = Arrays.copyOf(candidates, candidateCount * 2);
+                        }
+                        candidates[candidateCount++] = id;
+                    }
+                }
+            }
+
+            for (int i = prefix; i < queryCount && candidateCount > 0; i++) {
+                final int from = from(ranges[i]);
+                final int to = to(ranges[i]);
+                if ((long) candidateCount * 32 < to - from) {
+                    for (int c = 0; c < candidateCount; c++) {
+                        if (Arrays.binarySearch(postings, from, to, candidates[c]) >= 0) {
+                            overlap[candidates[c]]++;
+                        }
+                    }
+                } else {
+                    for (int p = from; p < to; p++) {
+                        if (overlap[postings[p]] > 0) {
+                            overlap[postings[p]]++;
+                        }
+                    }
+                }
+                // drop the candidates that cannot reach their overlap with the trigrams left
+                final int remaining = queryCount - i - 1;
+                int kept = 0;
+                for (int c = 0; c < candidateCount; c++) {
+                    final int id = candidates[c];
+                    if (overlap[id] + remaining >= requiredOverlap(queryCount, gramCounts[id])) {
+                        candidates[kept++] = id;
+                    } else {
+                        overlap[id] = 0;
+                    }
+                }
+                candidateCount = kept;
+            }
+
+            String best = null;
+            double bestScore = 0;
+            for (int c = 0; c < candidateCount; c++) {
+                final int id = candidates[c];
+                if (overlap[id] >= requiredOverlap(queryCount, gramCounts[id])) {
+                    final double score = 2.0 * overlap[id] / (queryCount + gramCounts[id]);
+                    if (score > bestScore) {
+                        best = names[id];
+                        bestScore = score;
+                    }
+                }
+            }
+            return best;
+        } finally {
+            // dropped candidates were reset when they were dropped
+            for (int c = 0; c < candidateCount; c++) {
+                overlap[candidates[c]] = 0;
+            }
+            overlapCounters.offer(overlap);
+        }
+    }
+
+    public boolean matches(String companyName) {
+        return bestMatch(companyName) != null;
+    }
+
+    private int requiredOverlap(int queryCount, int candidateCount) {
+        return (int) Math.ceil(threshold * (queryCount + candidateCount) / 2 - EPSILON);
+    }
+
+    /** First position in postings[from, to) holding an id not below the given one. */
+    private int lowerBound(int from, int to, int id) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (postings[middle] < id) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static void sortByLength(long[] ranges) {
+        final Long[] boxed = new Long[ranges.length];
+        for (int i = 0; i < ranges.length; i++) {
+            boxed[i] = ranges[i];
+        }
+        Arrays.sort(boxed, (a, b) -> Integer.compare(to(a) - from(a), to(b) - from(b)));
+        for (int i = 0; i < ranges.length; i++) {
+            ranges[i] = boxed[i];
+        }
+    }
+
+    private static int from(long range) {
+        return (int) (range >>> 32);
+    }
+
+    private static int to(long range) {
+        return (int) range;
+    }
+
+    /**
+     * Upper-cases the name, drops everything but letters and digits, and removes trailing legal suffixes.
+     */
+    static String key(String name) {
+        final String[] words = name.toUpperCase(Locale.ROOT).split("[^A-Z0-9]+");
+        int end = words.length;
+        while (end > 1 && LEGAL_SUFFIXES.contains(words[end - 1])) {
+            end--;
+        }
+        final StringBuilder key = new StringBuilder(name.length());
+        for (int i = 0; i < end; i++) {
+            key.append(words[i]);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the distinct trigrams of the key, padded with two leading and one trailing blank, in ascending order.
+     */
+    static int[] trigrams(String key) {
+        if (key.isEmpty()) {
+            return new int[0];
+        }
+        final int length = key.length() + 3;
+        final int[] grams = new int[length - 2];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = (symbol(key, i - 2) * ALPHABET + symbol(key, i - 1)) * ALPHABET + symbol(key, i);
+        }
+        Arrays.sort(grams);
+        int distinct = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (distinct == 0 || grams[i] != grams[distinct - 1]) {
+                grams[distinct++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, distinct);
+    }
+
+    private static int symbol(String key, int index) {
+        if (index < 0 || index >= key.length()) {
+            return 0;
+        }
+        final char c = key.charAt(index);
+        return c <= '9' ? 27 + (c - '0') : 1 + (c - 'A');
+    }
+}
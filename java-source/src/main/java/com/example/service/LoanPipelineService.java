@@ -0,0 +1,409 @@
+package com.example.service;
+
+import com.example.contract.LoanVerificationContract;
+import com.example.flow.CreditRatingResponseFlow;
+import com.example.flow.LoanPipelineScanFlow;
+import com.example.flow.LoanResponseFlow;
+import com.example.flow.RequestCreditRatingFlow;
+import com.example.schema.LoanRequestSchemaV1;
+import com.example.schema.LoanVerificationSchemaV1;
+import com.example.state.LoanRequestState;
+import com.example.state.LoanVerificationState;
+import net.corda.core.contracts.Command;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.LinearState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.VaultService;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.CriteriaExpression;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.SignedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
+
+/**
+ * Moves loans through their stages without waiting for someone to call the next REST endpoint. The service watches
+ * the vault and, for the stages enabled on this node, starts the next flow as soon as the state it needs is recorded:
+ * <ul>
+ * <li>credit-rating: the bank sends a new LoanRequestState to the credit agency (RequestCreditRatingFlow)</li>
+ * <li>credit-response: the credit agency answers a pending LoanVerificationState (CreditRatingResponseFlow)</li>
+ * <li>loan-response: the bank answers the finance agency once the verification is decided (LoanResponseFlow)</li>
+ * </ul>
+ * A verification is pending when the transaction that produced it sends the loan for credit approval, and decided
+ * when it records the credit agency's answer, whether that replaces a pending verification or, as CreditCheckFlow
+ * does, is issued decided.
+ *
+ * Besides following the vault feed, the service scans the vault when the node starts and then every
+ * {@value #SCAN_INTERVAL_PROPERTY} seconds (default {@value #DEFAULT_SCAN_INTERVAL_SECONDS}), so loans recorded while
+ * the node was down, left out because a queue was full, or whose flow failed are still moved on. Loans already queued
+ * or running are not submitted twice.
+ *
+ * The pipeline is configured with system properties and is off unless {@value #STAGES_PROPERTY} lists stages.
+ * Flows run on a bounded worker pool ({@value #WORKERS_PROPERTY}, default {@value #DEFAULT_WORKERS}); each stage
+ * has its own concurrency limit (loan.pipeline.&lt;stage&gt;.concurrency, default {@value #DEFAULT_CONCURRENCY}) and
+ * its own bounded queue of waiting loans ({@value #QUEUE_CAPACITY_PROPERTY}, default {@value #DEFAULT_QUEUE_CAPACITY}),
+ * so a burst in one stage neither starves the others nor grows without bound. Loans that find the queue full are
+ * left for the REST endpoints. The credit-rating stage sends to the credit agency named by
+ * {@value #CREDIT_AGENCY_PROPERTY}.
+ */
+@CordaService
+public class LoanPipelineService extends SingletonSerializeAsToken {
+
+    public static final String STAGES_PROPERTY = "loan.pipeline.stages";
+    public static final String CREDIT_AGENCY_PROPERTY = "loan.pipeline.creditAgency";
+    public static final String WORKERS_PROPERTY = "loan.pipeline.workers";
+    public static final String QUEUE_CAPACITY_PROPERTY = "loan.pipeline.queueCapacity";
+    public static final String SCAN_INTERVAL_PROPERTY = "loan.pipeline.scanIntervalSeconds";
+    static private final int DEFAULT_WORKERS = 8;
+    static private final int DEFAULT_CONCURRENCY = 4;
+    static private final int DEFAULT_QUEUE_CAPACITY = 10000;
+    static private final long DEFAULT_SCAN_INTERVAL_SECONDS = 60;
+    static private final int SCAN_PAGE_SIZE = 1000;
+
+    static private final Logger logger = LoggerFactory.getLogger(LoanPipelineService.class);
+
+    public enum Stage {
+        CREDIT_RATING, CREDIT_RESPONSE, LOAN_RESPONSE;
+
+        /** The name used in the configuration and in the metrics, e.g. credit-rating. */
+        public String label() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+
+    /** A loan waiting for its stage; the counterparty is known for the credit response only. */
+    private static class Pending {
+        final UniqueIdentifier linearId;
+        final Party counterparty;
+
+        Pending(UniqueIdentifier linearId, Party counterparty) {
+            this.linearId = linearId;
+            this.counterparty = counterparty;
+        }
+    }
+
+    private static class Lane {
+        final Stage stage;
+        final Semaphore permits;
+        final BlockingQueue<Pending> waiting;
+        final Set<UniqueIdentifier> scheduled = ConcurrentHashMap.newKeySet();
+        final AtomicLong started = new AtomicLong();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+
+        Lane(Stage stage, int concurrency, int queueCapacity) {
+            this.stage = stage;
+            this.permits = new Semaphore(concurrency);
+            this.waiting = new LinkedBlockingQueue<>(queueCapacity);
+        }
+    }
+
+    private final AppServiceHub serviceHub;
+    private final Map<Stage, Lane> lanes = new EnumMap<>(Stage.class);
+    private final Map<Stage, Integer> concurrency = new EnumMap<>(Stage.class);
+    private final ExecutorService workers;
+    private final CordaX500Name creditAgencyName;
+    private volatile Party creditAgency;
+
+    public LoanPipelineService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        final String creditAgencyName = System.getProperty(CREDIT_AGENCY_PROPERTY);
+        this.creditAgencyName = creditAgencyName == null ? null : CordaX500Name.parse(creditAgencyName);
+
+        final int queueCapacity = Integer.getInteger(QUEUE_CAPACITY_PROPERTY, DEFAULT_QUEUE_CAPACITY);
+        for (Stage stage : enabledStages(System.getProperty(STAGES_PROPERTY, ""))) {
+            final int limit = Integer.getInteger("loan.pipeline." + stage.label() + ".concurrency", DEFAULT_CONCURRENCY);
+            lanes.put(stage, new Lane(stage, limit, queueCapacity));
+            concurrency.put(stage, limit);
+        }
+        if (lanes.containsKey(Stage.CREDIT_RATING) && this.creditAgencyName == null) {
+            throw new IllegalArgumentException("The credit-rating stage needs " + CREDIT_AGENCY_PROPERTY + " to name the credit agency");
+        }
+        if (lanes.isEmpty()) {
+            this.workers = null;
+            return;
+        }
+
+        this.workers = Executors.newFixedThreadPool(Integer.getInteger(WORKERS_PROPERTY, DEFAULT_WORKERS), runnable -> {
+            final Thread thread = new Thread(runnable, "loan-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        serviceHub.getVaultService().getUpdates().subscribe(this::onUpdate, error -> logger.error("Loan pipeline vault feed failed", error));
+
+        final ScheduledExecutorService scanner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "loan-pipeline-scan");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scanner.scheduleWithFixedDelay(this::startScan, 0, Long.getLong(SCAN_INTERVAL_PROPERTY, DEFAULT_SCAN_INTERVAL_SECONDS), TimeUnit.SECONDS);
+        logger.info("Loan pipeline running stages {}", concurrency);
+    }
+
+    private static Set<Stage> enabledStages(String stages) {
+        final Set<Stage> enabled = new HashSet<>();
+        for (String stage : stages.split(",")) {
+            if (!stage.trim().isEmpty()) {
+                enabled.add(Stage.valueOf(stage.trim().toUpperCase(Locale.ROOT).replace('-', '_')));
+            }
+        }
+        return enabled;
+    }
+
+    private void onUpdate(Vault.Update<ContractState> update) {
+        final Party me = serviceHub.getMyInfo().getLegalIdentities().get(0);
+        final Set<UniqueIdentifier> replaced = new HashSet<>();
+        for (StateAndRef<ContractState> consumed : update.getConsumed()) {
+            if (consumed.getState().getData() instanceof LinearState) {
+                replaced.add(((LinearState) consumed.getState().getData()).getLinearId());
+            }
+        }
+        for (StateAndRef<ContractState> produced : update.getProduced()) {
+            final ContractState data = produced.getState().getData();
+            if (data instanceof LoanRequestState) {
+                final LoanRequestState request = (LoanRequestState) data;
+                if (me.equals(request.getBankNode()) && request.getLinearIdVerification() == null && !replaced.contains(request.getLinearId())) {
+                    submit(Stage.CREDIT_RATING, new Pending(request.getLinearId(), null));
+                }
+            } else if (data instanceof LoanVerificationState) {
+                verificationRecorded(me, produced.getRef(), (LoanVerificationState) data, true);
+            }
+        }
+    }
+
+    /**
+     * Submits a verification to the stage that answers it on this node, if any. A decided verification is only
+     * answered when the bank has not answered its loan request yet.
+     */
+    private void verificationRecorded(Party me, StateRef ref, LoanVerificationState verification, boolean requestUnanswered) {
+        final boolean agency = me.equals(verification.getCreditAgencyNode()) && lanes.containsKey(Stage.CREDIT_RESPONSE);
+        final boolean bank = me.equals(verification.getBankNode()) && lanes.containsKey(Stage.LOAN_RESPONSE) && requestUnanswered;
+        if (!agency && !bank) {
+            return;
+        }
+        final Command<?> command = verificationCommand(ref);
+        if (command == null) {
+            return;
+        }
+        if (command.getValue() instanceof LoanVerificationContract.Commands.SendForCreditApproval) {
+            if (agency) {
+                submit(Stage.CREDIT_RESPONSE, new Pending(verification.getLinearId(), verification.getBankNode()));
+            }
+        } else if (bank) {
+            submit(Stage.LOAN_RESPONSE, new Pending(verification.getLinearId(), null));
+        }
+    }
+
+    private void startScan() {
+        try {
+            serviceHub.startFlow(new LoanPipelineScanFlow()).getReturnValue().get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            logger.error("Loan pipeline scan failed", ex);
+        }
+    }
+
+    /**
+     * Submits the loans in the vault that wait on a stage enabled here: the bank's requests without a verification,
+     * the credit agency's pending verifications and the bank's decided verifications whose request is not answered.
+     * Must be called inside a database transaction, LoanPipelineScanFlow does.
+     */
+    public void scan() throws FlowException {
+        if (lanes.isEmpty()) {
+            return;
+        }
+        final Party me = serviceHub.getMyInfo().getLegalIdentities().get(0);
+        final String myName = me.getName().toString();
+        final VaultService vault = serviceHub.getVaultService();
+        final Set<UniqueIdentifier> unanswered = new HashSet<>();
+        final Set<UniqueIdentifier> verified = new HashSet<>();
+        try {
+            if (lanes.containsKey(Stage.CREDIT_RATING) || lanes.containsKey(Stage.LOAN_RESPONSE)) {
+                final QueryCriteria waiting = column(Builder.equal(getField("bankParty", LoanRequestSchemaV1.PersistentLoanRequest.class), myName))
+                        .and(column(Builder.isNull(getField("linearIdVerification", LoanRequestSchemaV1.PersistentLoanRequest.class))));
+                VaultKeysetPager.<LoanRequestState>forEach(waiting, SCAN_PAGE_SIZE,
+                        (criteria, paging, sort) -> vault.queryBy(LoanRequestState.class, criteria, paging, sort),
+                        request -> unanswered.add(request.getState().getData().getLinearId()));
+            }
+            final QueryCriteria mine = column(Builder.equal(getField("bankParty", LoanVerificationSchemaV1.PersistentLoanVerification.class), myName))
+                    .or(column(Builder.equal(getField("creditParty", LoanVerificationSchemaV1.PersistentLoanVerification.class), myName)));
+            VaultKeysetPager.<LoanVerificationState>forEach(mine, SCAN_PAGE_SIZE,
+                    (criteria, paging, sort) -> vault.queryBy(LoanVerificationState.class, criteria, paging, sort),
+                    produced -> {
+                        final LoanVerificationState verification = produced.getState().getData();
+                        if (verification.getLinearIdLoanReq() != null) {
+                            verified.add(verification.getLinearIdLoanReq());
+                        }
+                        verificationRecorded(me, produced.getRef(), verification, unanswered.contains(verification.getLinearIdLoanReq()));
+                    });
+        } catch (Exception ex) {
+            throw new FlowException("Loan pipeline scan failed: " + ex.getMessage(), ex);
+        }
+        for (UniqueIdentifier request : unanswered) {
+            if (!verified.contains(request)) {
+                submit(Stage.CREDIT_RATING, new Pending(request, null));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static QueryCriteria column(CriteriaExpression expression) {
+        return new QueryCriteria.VaultCustomQueryCriteria(expression, Vault.StateStatus.UNCONSUMED);
+    }
+
+    /**
+     * The verification command of the transaction that produced the state, or null if the transaction is not in
+     * storage. The vault feed only delivers an update once the transaction that recorded it has committed, and a scan
+     * only sees committed states, so it normally is.
+     */
+    private Command<?> verificationCommand(StateRef ref) {
+        final SignedTransaction tx = serviceHub.getValidatedTransactions().getTransaction(ref.getTxhash());
+        if (tx == null) {
+            logger.warn("Loan pipeline cannot find transaction {}, the verification is left for the REST API", ref.getTxhash());
+            return null;
+        }
+        for (Command<?> command : tx.getTx().getCommands()) {
+            final Object value = command.getValue();
+            if (value instanceof LoanVerificationContract.Commands.SendForCreditApproval
+                    || value instanceof LoanVerificationContract.Commands.ReceiveCreditApproval
+                    || value instanceof LoanVerificationContract.Commands.IssueCreditDecision) {
+                return command;
+            }
+        }
+        return null;
+    }
+
+    private void submit(Stage stage, Pending pending) {
+        final Lane lane = lanes.get(stage);
+        if (lane == null || !lane.scheduled.add(pending.linearId)) {
+            return;
+        }
+        if (!lane.waiting.offer(pending)) {
+            lane.scheduled.remove(pending.linearId);
+            lane.rejected.incrementAndGet();
+            logger.warn("Loan pipeline {} queue is full, {} is left for the REST API", stage.label(), pending.linearId);
+            return;
+        }
+        drain(lane);
+    }
+
+    /**
+     * Hands waiting loans to the workers while the stage has permits left. Every submit and every finished flow calls
+     * this, so a loan is never left waiting while a permit is free.
+     */
+    private void drain(Lane lane) {
+        while (!lane.waiting.isEmpty() && lane.permits.tryAcquire()) {
+            final Pending pending = lane.waiting.poll();
+            if (pending == null) {
+                lane.permits.release();
+                continue;
+            }
+            workers.execute(() -> {
+                try {
+                    run(lane, pending);
+                } finally {
+                    lane.scheduled.remove(pending.linearId);
+                    lane.permits.release();
+                    drain(lane);
+                }
+            });
+        }
+    }
+
+    private void run(Lane lane, Pending pending) {
+        lane.started.incrementAndGet();
+        try {
+            serviceHub.startFlow(flowFor(lane.stage, pending)).getReturnValue().get();
+            lane.completed.incrementAndGet();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            lane.failed.incrementAndGet();
+        } catch (Exception ex) {
+            lane.failed.incrementAndGet();
+            logger.error("Loan pipeline " + lane.stage.label() + " failed for " + pending.linearId, ex);
+        }
+    }
+
+    private FlowLogic<?> flowFor(Stage stage, Pending pending) {
+        switch (stage) {
+            case CREDIT_RATING:
+                return new RequestCreditRatingFlow.Initiator(creditAgency(), pending.linearId);
+            case CREDIT_RESPONSE:
+                return new CreditRatingResponseFlow.Initiator(pending.counterparty, pending.linearId);
+            default:
+                return new LoanResponseFlow.Initiator(pending.linearId);
+        }
+    }
+
+    private Party creditAgency() {
+        if (creditAgency == null) {
+            creditAgency = serviceHub.getNetworkMapCache().getPeerByLegalName(creditAgencyName);
+            if (creditAgency == null) {
+                throw new IllegalStateException("Credit agency " + creditAgencyName + " is not in the network map");
+            }
+        }
+        return creditAgency;
+    }
+
+    /**
+     * Writes the flows started by each stage, their outcome and the loans waiting, in the Prometheus text format.
+     */
+    public void render(StringBuilder out) {
+        if (lanes.isEmpty()) {
+            return;
+        }
+        out.append("# HELP loan_pipeline_flows_total Flows the loan pipeline started, by stage and outcome.\n");
+        out.append("# TYPE loan_pipeline_flows_total counter\n");
+        for (Lane lane : lanes.values()) {
+            pipelineCount(out, lane, "started", lane.started);
+            pipelineCount(out, lane, "completed", lane.completed);
+            pipelineCount(out, lane, "failed", lane.failed);
+            pipelineCount(out, lane, "rejected", lane.rejected);
+        }
+        out.append("# HELP loan_pipeline_running Pipeline flows running, by stage.\n");
+        out.append("# TYPE loan_pipeline_running gauge\n");
+        for (Lane lane : lanes.values()) {
+            out.append("loan_pipeline_running{stage=\"").append(lane.stage.label()).append("\"} ")
+                    .append(concurrency.get(lane.stage) - lane.permits.availablePermits()).append('\n');
+        }
+        out.append("# HELP loan_pipeline_waiting Loans waiting for a free slot in their stage.\n");
+        out.append("# TYPE loan_pipeline_waiting gauge\n");
+        for (Lane lane : lanes.values()) {
+            out.append("loan_pipeline_waiting{stage=\"").append(lane.stage.label()).append("\"} ").append(lane.waiting.size()).append('\n');
+        }
+    }
+
+    private static void pipelineCount(StringBuilder out, Lane lane, String result, AtomicLong count) {
+        out.append("loan_pipeline_flows_total{stage=\"").append(lane.stage.label()).append("\",result=\"").append(result).append("\"} ")
+                .append(count.get()).append('\n');
+    }
+}
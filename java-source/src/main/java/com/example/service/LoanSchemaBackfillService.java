@@ -0,0 +1,79 @@
+package com.example.service;
+
+import com.example.flow.LoanSchemaBackfillFlow;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gives loan states recorded before an upgrade to the indexed loan tables their rows, so filters on those tables find
+ * them. It runs {@link LoanSchemaBackfillFlow} on a background thread when the node starts, {@value #BATCH_SIZE}
+ * states per flow, until no state is left without rows; on a node that is up to date that is a single query. Until it
+ * is done, filters on company, bank or eligibility can miss older states. A run that fails is started again after a
+ * delay that doubles up to {@value #MAX_RETRY_DELAY_MILLIS} ms.
+ */
+@CordaService
+public class LoanSchemaBackfillService extends SingletonSerializeAsToken {
+
+    static private final Logger logger = LoggerFactory.getLogger(LoanSchemaBackfillService.class);
+    static final int BATCH_SIZE = 500;
+    static private final long FIRST_RETRY_DELAY_MILLIS = 1000;
+    static private final long MAX_RETRY_DELAY_MILLIS = 60000;
+
+    private final AppServiceHub serviceHub;
+    private final ScheduledExecutorService backfiller;
+    private final AtomicLong filled = new AtomicLong();
+    private volatile boolean done;
+    private long retryDelayMillis = FIRST_RETRY_DELAY_MILLIS;
+
+    public LoanSchemaBackfillService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        this.backfiller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "loan-schema-backfill");
+            thread.setDaemon(true);
+            return thread;
+        });
+        backfiller.execute(this::backfill);
+    }
+
+    private void backfill() {
+        try {
+            int batch;
+            do {
+                batch = serviceHub.startFlow(new LoanSchemaBackfillFlow(BATCH_SIZE)).getReturnValue().get();
+                filled.addAndGet(batch);
+            } while (batch == BATCH_SIZE);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception ex) {
+            logger.error("Filling in the loan state tables failed, retrying in " + retryDelayMillis + " ms", ex);
+            backfiller.schedule(this::backfill, retryDelayMillis, TimeUnit.MILLISECONDS);
+            retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+            return;
+        }
+        done = true;
+        if (filled.get() > 0) {
+            logger.info("Filled in the loan state tables for {} states recorded before they existed", filled.get());
+        }
+    }
+
+    /**
+     * Appends the backfill's progress in the Prometheus text format.
+     */
+    public void render(StringBuilder out) {
+        out.append("# HELP loan_schema_backfilled_states_total Loan states given their loan table rows after they were recorded.\n");
+        out.append("# TYPE loan_schema_backfilled_states_total counter\n");
+        out.append("loan_schema_backfilled_states_total ").append(filled.get()).append('\n');
+        out.append("# HELP loan_schema_backfill_done Whether every loan state has its loan table row.\n");
+        out.append("# TYPE loan_schema_backfill_done gauge\n");
+        out.append("loan_schema_backfill_done ").append(done ? 1 : 0).append('\n');
+    }
+}
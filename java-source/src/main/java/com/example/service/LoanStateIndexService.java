@@ -0,0 +1,244 @@
+package com.example.service;
+
+import com.example.flow.VaultPageFlow;
+import com.example.state.LoanRequestState;
+import com.example.state.LoanVerificationState;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.LinearState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.StatesNotAvailableException;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.utilities.NonEmptySet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_SIZE;
+
+/**
+ * Keeps the node's unconsumed LoanRequestStates and LoanVerificationStates in memory, keyed by linear id, so flows can
+ * resolve their inputs without a vault query. The index subscribes to the vault updates when the node starts and loads
+ * the current states on a background thread, paging by recorded time and state ref so states consumed meanwhile do not
+ * shift later pages over states not yet read. Updates that arrive during the load are applied once it is done; until
+ * then flows resolve their inputs from the vault. A load that fails is started over after a delay that doubles up to
+ * {@value #MAX_RETRY_DELAY_MILLIS} ms.
+ */
+@CordaService
+public class LoanStateIndexService extends SingletonSerializeAsToken {
+
+    static private final Logger logger = LoggerFactory.getLogger(LoanStateIndexService.class);
+    static private final int LOAD_PAGE_SIZE = 1000;
+    static private final long FIRST_RETRY_DELAY_MILLIS = 1000;
+    static private final long MAX_RETRY_DELAY_MILLIS = 60000;
+
+    private final AppServiceHub serviceHub;
+    private final Map<UniqueIdentifier, StateAndRef<? extends LinearState>> unconsumed = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    private final List<Vault.Update<ContractState>> pendingUpdates = new ArrayList<>();
+    private final ScheduledExecutorService loader;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile boolean ready;
+    private long retryDelayMillis = FIRST_RETRY_DELAY_MILLIS;
+
+    public LoanStateIndexService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        this.loader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "loan-state-index-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        serviceHub.getVaultService().getUpdates().subscribe(this::onUpdate, error -> logger.error("Loan state index feed failed", error));
+        loader.execute(this::load);
+    }
+
+    /**
+     * Returns the unconsumed state of the given type with the given linear id, from the index when it is there and
+     * from the vault otherwise. Returns null when the node has no such state.
+     */
+    public static <T extends LinearState> StateAndRef<T> resolve(FlowLogic<?> flow, Class<T> stateType, UniqueIdentifier linearId) {
+        final LoanStateIndexService index = flow.getServiceHub().cordaService(LoanStateIndexService.class);
+        final StateAndRef<T> indexed = index.get(stateType, linearId);
+        if (indexed != null) {
+            index.hits.incrementAndGet();
+            return indexed;
+        }
+        index.misses.incrementAndGet();
+
+        final QueryCriteria criteria = new QueryCriteria.LinearStateQueryCriteria(
+                null,
+                ImmutableList.of(linearId),
+                Vault.StateStatus.UNCONSUMED,
+                null);
+        final long queryStart = System.nanoTime();
+        final List<StateAndRef<T>> states = flow.getServiceHub().getVaultService().queryBy(stateType, criteria).getStates();
+        FlowMetricsService.vaultQuery(flow, queryStart);
+        return states.isEmpty() ? null : states.get(0);
+    }
+
+    /**
+     * Resolves several linear ids at once. Ids the index does not hold are looked up with a single vault query; ids
+     * the node has no unconsumed state for are missing from the result.
+     */
+    public static <T extends LinearState> List<StateAndRef<T>> resolveAll(FlowLogic<?> flow, Class<T> stateType, Collection<UniqueIdentifier> linearIds) {
+        final LoanStateIndexService index = flow.getServiceHub().cordaService(LoanStateIndexService.class);
+        final List<StateAndRef<T>> resolved = new ArrayList<>(linearIds.size());
+        final List<UniqueIdentifier> missing = new ArrayList<>();
+        for (UniqueIdentifier linearId : linearIds) {
+            final StateAndRef<T> indexed = index.get(stateType, linearId);
+            if (indexed != null) {
+                resolved.add(indexed);
+            } else {
+                missing.add(linearId);
+            }
+        }
+        index.hits.addAndGet(resolved.size());
+        if (missing.isEmpty()) {
+            return resolved;
+        }
+        index.misses.addAndGet(missing.size());
+
+        final QueryCriteria criteria = new QueryCriteria.LinearStateQueryCriteria(
+                null,
+                missing,
+                Vault.StateStatus.UNCONSUMED,
+                null);
+        final long queryStart = System.nanoTime();
+        final List<StateAndRef<T>> states = flow.getServiceHub().getVaultService()
+                .queryBy(stateType, criteria, new PageSpecification(DEFAULT_PAGE_NUM, Math.max(DEFAULT_PAGE_SIZE, missing.size())))
+                .getStates();
+        FlowMetricsService.vaultQuery(flow, queryStart);
+        resolved.addAll(states);
+        return resolved;
+    }
+
+    /**
+     * Soft-locks the flow's inputs before it asks anyone to sign. A flow that resolved the same state first holds the
+     * lock until it ends, so a second flow spending it fails here instead of after a signature round trip, when the
+     * notary would reject it. The node releases the lock when the flow finishes.
+     */
+    public static void reserve(FlowLogic<?> flow, Collection<? extends StateAndRef<?>> inputs) throws FlowException {
+        final List<StateRef> refs = new ArrayList<>(inputs.size());
+        for (StateAndRef<?> input : inputs) {
+            refs.add(input.getRef());
+        }
+        try {
+            flow.getServiceHub().getVaultService().softLockReserve(flow.getRunId().getUuid(), NonEmptySet.copyOf(refs));
+        } catch (StatesNotAvailableException ex) {
+            throw new FlowException("Another flow is already spending " + refs + ", try again once it has finished", ex);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends LinearState> StateAndRef<T> get(Class<T> stateType, UniqueIdentifier linearId) {
+        if (!ready) {
+            return null;
+        }
+        final StateAndRef<? extends LinearState> state = unconsumed.get(linearId);
+        return state != null && stateType.isInstance(state.getState().getData()) ? (StateAndRef<T>) state : null;
+    }
+
+    private void load() {
+        // A retry starts over. The buffered updates are kept: they reach back to when the feed was subscribed, so
+        // replayed in order they correct any state the pages read too early.
+        unconsumed.clear();
+        try {
+            loadType(LoanRequestState.class);
+            loadType(LoanVerificationState.class);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception ex) {
+            logger.error("Loading the loan state index failed, retrying in " + retryDelayMillis + " ms", ex);
+            loader.schedule(this::load, retryDelayMillis, TimeUnit.MILLISECONDS);
+            retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+            return;
+        }
+        synchronized (lock) {
+            pendingUpdates.forEach(this::apply);
+            pendingUpdates.clear();
+            ready = true;
+        }
+        logger.info("Loan state index loaded with {} unconsumed states", unconsumed.size());
+    }
+
+    private <T extends LinearState> void loadType(Class<T> stateType) throws Exception {
+        VaultKeysetPager.<T>forEach(null, LOAD_PAGE_SIZE,
+                (criteria, paging, sort) -> serviceHub.startFlow(new VaultPageFlow<>(stateType, criteria, paging, sort)).getReturnValue().get(),
+                this::add);
+    }
+
+    private void onUpdate(Vault.Update<ContractState> update) {
+        synchronized (lock) {
+            if (ready) {
+                apply(update);
+            } else {
+                pendingUpdates.add(update);
+            }
+        }
+    }
+
+    private void apply(Vault.Update<? extends ContractState> update) {
+        for (StateAndRef<? extends ContractState> consumed : update.getConsumed()) {
+            if (indexed(consumed)) {
+                remove(castLinear(consumed));
+            }
+        }
+        for (StateAndRef<? extends ContractState> produced : update.getProduced()) {
+            if (indexed(produced)) {
+                add(castLinear(produced));
+            }
+        }
+    }
+
+    private static boolean indexed(StateAndRef<? extends ContractState> state) {
+        return state.getState().getData() instanceof LoanRequestState || state.getState().getData() instanceof LoanVerificationState;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StateAndRef<? extends LinearState> castLinear(StateAndRef<? extends ContractState> state) {
+        return (StateAndRef<? extends LinearState>) state;
+    }
+
+    private void add(StateAndRef<? extends LinearState> state) {
+        unconsumed.put(state.getState().getData().getLinearId(), state);
+    }
+
+    private void remove(StateAndRef<? extends LinearState> state) {
+        // a newer state with the same linear id may already have replaced this one
+        unconsumed.remove(state.getState().getData().getLinearId(), state);
+    }
+
+    /**
+     * Writes the index size and hit rate in the Prometheus text format.
+     */
+    public void render(StringBuilder out) {
+        out.append("# HELP loan_state_index_states Unconsumed loan states held by the index.\n");
+        out.append("# TYPE loan_state_index_states gauge\n");
+        out.append("loan_state_index_states ").append(unconsumed.size()).append('\n');
+        out.append("# HELP loan_state_index_lookups_total Flow input lookups, answered by the index or by the vault.\n");
+        out.append("# TYPE loan_state_index_lookups_total counter\n");
+        out.append("loan_state_index_lookups_total{result=\"hit\"} ").append(hits.get()).append('\n');
+        out.append("loan_state_index_lookups_total{result=\"miss\"} ").append(misses.get()).append('\n');
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.service;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.FinalityFlow;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.SignedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks the notary for transactions that create new loan states, so the load spreads over every notary in the
+ * network instead of all going to the first one. Transactions that consume a state must use the notary of that
+ * state and do not ask this service.
+ *
+ * The policy is set with the system property {@value #POLICY_PROPERTY}:
+ * <ul>
+ * <li>round-robin (default): each new transaction goes to the next notary in turn</li>
+ * <li>least-latency: the notary with the lowest expected finality time. That is the finality time smoothed over
+ * recent transactions, or the time the oldest transaction still waiting on the notary has waited if that is longer,
+ * multiplied by one more than the transactions waiting. A failed finality counts as taking at least
+ * {@value #FAILURE_PENALTY_MILLIS} ms. A notary not tried yet and not busy counts as the fastest, so every notary gets
+ * measured</li>
+ * <li>sticky-by-bank: all of a bank's loans go to one notary, chosen from the bank's name, so a bank's states can be
+ * consumed together in a batch</li>
+ * </ul>
+ */
+@CordaService
+public class NotarySelectionService extends SingletonSerializeAsToken {
+
+    public static final String POLICY_PROPERTY = "loan.notaryPolicy";
+    /** Weight of the newest observation in the smoothed finality time. */
+    static private final double SMOOTHING = 0.2;
+    /** The finality time recorded for a notary when FinalityFlow fails through it. */
+    static final long FAILURE_PENALTY_MILLIS = 30000;
+
+    static private final Logger logger = LoggerFactory.getLogger(NotarySelectionService.class);
+
+    public enum Policy {
+        ROUND_ROBIN, LEAST_LATENCY, STICKY_BY_BANK;
+
+        static Policy parse(String policy) {
+            return valueOf(policy.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    private final AppServiceHub serviceHub;
+    private final Policy policy;
+    private final AtomicLong nextNotary = new AtomicLong();
+    private final Map<Party, Double> smoothedNanos = new ConcurrentHashMap<>();
+    private final Map<Party, LatencyHistogram> finalityLatencies = new ConcurrentHashMap<>();
+    private final Map<Party, AtomicLong> selections = new ConcurrentHashMap<>();
+    private final Map<Party, AtomicLong> failures = new ConcurrentHashMap<>();
+    /** The start times of the finalities waiting on each notary. */
+    private final Map<Party, Queue<Long>> waiting = new ConcurrentHashMap<>();
+
+    public NotarySelectionService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        this.policy = Policy.parse(System.getProperty(POLICY_PROPERTY, "round-robin"));
+        logger.info("Selecting notaries {}", policy);
+    }
+
+    /**
+     * Returns the notary for a transaction that issues new states for the given bank.
+     */
+    public static Party select(FlowLogic<?> flow, Party bank) throws FlowException {
+        return flow.getServiceHub().cordaService(NotarySelectionService.class).select(bank);
+    }
+
+    /**
+     * Runs FinalityFlow for a transaction notarised by the given notary and records how long it took, or that it
+     * failed. While it runs the transaction counts as waiting on the notary.
+     */
+    @Suspendable
+    public static SignedTransaction finalise(FlowLogic<?> flow, Party notary, SignedTransaction tx) throws FlowException {
+        final NotarySelectionService service = flow.getServiceHub().cordaService(NotarySelectionService.class);
+        final long startNanos = System.nanoTime();
+        service.waiting.computeIfAbsent(notary, key -> new ConcurrentLinkedQueue<>()).add(startNanos);
+        try {
+            final SignedTransaction notarised = flow.subFlow(new FinalityFlow(tx));
+            service.observe(notary, System.nanoTime() - startNanos);
+            return notarised;
+        } catch (FlowException | RuntimeException ex) {
+            service.failures.computeIfAbsent(notary, key -> new AtomicLong()).incrementAndGet();
+            service.observe(notary, Math.max(System.nanoTime() - startNanos, TimeUnit.MILLISECONDS.toNanos(FAILURE_PENALTY_MILLIS)));
+            throw ex;
+        } finally {
+            // looked up again, a queue held across the suspension would be restored from the checkpoint as a copy
+            service.waiting.get(notary).remove(startNanos);
+        }
+    }
+
+    public Party select(Party bank) throws FlowException {
+        final List<Party> notaries = new ArrayList<>(serviceHub.getNetworkMapCache().getNotaryIdentities());
+        if (notaries.isEmpty()) {
+            throw new FlowException("No notary is known to this node");
+        }
+        // the network map does not promise an order, sticky and round-robin choices need a stable one
+        notaries.sort(Comparator.comparing(notary -> notary.getName().toString()));
+
+        final Party selected;
+        switch (policy) {
+            case LEAST_LATENCY:
+                selected = fastest(notaries);
+                break;
+            case STICKY_BY_BANK:
+                selected = notaries.get(Math.floorMod(bank.getName().toString().hashCode(), notaries.size()));
+                break;
+            default:
+                selected = notaries.get((int) Math.floorMod(nextNotary.getAndIncrement(), (long) notaries.size()));
+        }
+        selections.computeIfAbsent(selected, key -> new AtomicLong()).incrementAndGet();
+        return selected;
+    }
+
+    private Party fastest(List<Party> notaries) {
+        final long now = System.nanoTime();
+        Party fastest = null;
+        double fastestNanos = Double.MAX_VALUE;
+        for (Party notary : notaries) {
+            final double nanos = expectedNanos(notary, now);
+            if (nanos < fastestNanos) {
+                fastest = notary;
+                fastestNanos = nanos;
+            }
+        }
+        return fastest;
+    }
+
+    /**
+     * How long a new transaction is expected to take through the notary. A notary that stops answering has its
+     * oldest waiting transaction grow older, so it loses traffic even before a finality fails.
+     */
+    private double expectedNanos(Party notary, long now) {
+        double nanos = smoothedNanos.getOrDefault(notary, 0.0);
+        int waitingCount = 0;
+        for (Long startNanos : waiting.getOrDefault(notary, new ConcurrentLinkedQueue<>())) {
+            nanos = Math.max(nanos, now - startNanos);
+            waitingCount++;
+        }
+        return nanos * (waitingCount + 1);
+    }
+
+    private void observe(Party notary, long nanos) {
+        finalityLatencies.computeIfAbsent(notary, key -> new LatencyHistogram()).record(nanos, TimeUnit.NANOSECONDS);
+        smoothedNanos.merge(notary, (double) nanos, (previous, latest) -> previous + SMOOTHING * (latest - previous));
+    }
+
+    /**
+     * Writes the selections and the finality time of every notary in the Prometheus text format.
+     */
+    public void render(StringBuilder out) {
+        final Map<String, AtomicLong> selected = new TreeMap<>();
+        selections.forEach((notary, count) -> selected.put(notary.getName().toString(), count));
+        out.append("# HELP loan_notary_selections_total New transactions sent to each notary.\n");
+        out.append("# TYPE loan_notary_selections_total counter\n");
+        selected.forEach((notary, count) -> out.append("loan_notary_selections_total{notary=\"").append(FlowMetricsService.escape(notary)).append("\"} ")
+                .append(count.get()).append('\n'));
+
+        final Map<String, Integer> waitingCounts = new TreeMap<>();
+        waiting.forEach((notary, starts) -> waitingCounts.put(notary.getName().toString(), starts.size()));
+        out.append("# HELP loan_notary_waiting Transactions waiting on each notary.\n");
+        out.append("# TYPE loan_notary_waiting gauge\n");
+        waitingCounts.forEach((notary, count) -> out.append("loan_notary_waiting{notary=\"").append(FlowMetricsService.escape(notary)).append("\"} ")
+                .append(count).append('\n'));
+
+        final Map<String, AtomicLong> failed = new TreeMap<>();
+        failures.forEach((notary, count) -> failed.put(notary.getName().toString(), count));
+        out.append("# HELP loan_notary_failures_total Finalities that failed, by notary.\n");
+        out.append("# TYPE loan_notary_failures_total counter\n");
+        failed.forEach((notary, count) -> out.append("loan_notary_failures_total{notary=\"").append(FlowMetricsService.escape(notary)).append("\"} ")
+                .append(count.get()).append('\n'));
+
+        out.append("# HELP loan_notary_finality_seconds Time taken by FinalityFlow, by notary.\n");
+        out.append("# TYPE loan_notary_finality_seconds summary\n");
+        final Map<String, LatencyHistogram> latencies = new TreeMap<>();
+        finalityLatencies.forEach((notary, histogram) -> latencies.put(notary.getName().toString(), histogram));
+        latencies.forEach((notary, histogram) -> FlowMetricsService.summary(out, "loan_notary_finality_seconds", "notary=\"" + FlowMetricsService.escape(notary) + "\"", histogram));
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.service;
+
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-only sanctions list kept off-heap in a memory-mapped index file. The file holds a Bloom filter followed by the
+ * sorted 64-bit hashes of every normalised name, so a lookup is a few bit tests and, only when the filter cannot rule
+ * the name out, a binary search over the mapped hashes. Nothing is read onto the heap when the index is opened.
+ *
+ * Names are compared by their 64-bit murmur3 hash: with several million names the chance that an unlisted company
+ * collides with a listed one is below one in a billion.
+ */
+public class SanctionsIndex {
+
+    static final int MAGIC = 0x53414e58; // "SANX"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 24;
+    static final int BITS_PER_NAME = 10;
+    static final int HASH_FUNCTIONS = 7;
+
+    private final LongBuffer bloom;
+    private final long bloomBits;
+    private final LongBuffer hashes;
+    private final int size;
+    private final AtomicLong filtered = new AtomicLong();
+    private final AtomicLong probed = new AtomicLong();
+
+    private SanctionsIndex(ByteBuffer mapped) {
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a sanctions index file");
+        }
+        this.size = mapped.getInt(8);
+        final int bloomWords = mapped.getInt(12);
+        this.bloomBits = (long) bloomWords * Long.SIZE;
+
+        mapped.position(HEADER_BYTES);
+        this.bloom = mapped.slice().asLongBuffer();
+        this.bloom.limit(bloomWords);
+        mapped.position(HEADER_BYTES + bloomWords * Long.BYTES);
+        this.hashes = mapped.slice().asLongBuffer();
+        this.hashes.limit(size);
+    }
+
+    /**
+     * Memory-maps an index file written by {@link #build}.
+     */
+    public static SanctionsIndex open(Path indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            return new SanctionsIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads the source list, one name per line, and writes the index file next to it. The file is written under a
+     * temporary name and moved into place, so a running node never maps a half written index.
+     */
+    public static void build(Path sourceList, Path indexFile) throws IOException {
+        long[] names = new long[1 << 16];
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(sourceList, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (count == names.length) {
+                    names = Arrays.copyOf(names, names.length * 2);
+                }
+                names[count++] = hash(line);
+            }
+        }
+        Arrays.sort(names, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || names[i] != names[distinct - 1]) {
+                names[distinct++] = names[i];
+            }
+        }
+
+        final long bloomWordCount = Math.max(1, ((long) distinct * BITS_PER_NAME + Long.SIZE - 1) / Long.SIZE);
+        if (HEADER_BYTES + (bloomWordCount + distinct) * Long.BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Sanctions list too large to map: " + distinct + " names");
+        }
+        final int bloomWords = (int) bloomWordCount;
+        final long[] bloom = new long[bloomWords];
+        for (int i = 0; i < distinct; i++) {
+            for (int k = 0; k < HASH_FUNCTIONS; k++) {
+                final long bit = bloomBit(names[i], k, (long) bloomWords * Long.SIZE);
+                bloom[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        final Path temporary = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (OutputStream file = Files.newOutputStream(temporary);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(distinct);
+            out.writeInt(bloomWords);
+            out.writeLong(0); // reserved
+            for (long word : bloom) {
+                out.writeLong(word);
+            }
+            for (int i = 0; i < distinct; i++) {
+                out.writeLong(names[i]);
+            }
+        }
+        Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public boolean isListed(String companyName) {
+        if (companyName == null) {
+            return false;
+        }
+        final long hash = hash(companyName);
+        for (int k = 0; k < HASH_FUNCTIONS; k++) {
+            final long bit = bloomBit(hash, k, bloomBits);
+            if ((bloom.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                filtered.incrementAndGet();
+                return false;
+            }
+        }
+        probed.incrementAndGet();
+        return binarySearch(hash);
+    }
+
+    private boolean binarySearch(long hash) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final long value = hashes.get(middle);
+            if (value < hash) {
+                low = middle + 1;
+            } else if (value > hash) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Lookups the Bloom filter answered on its own. */
+    public long getFiltered() {
+        return filtered.get();
+    }
+
+    /** Lookups that had to search the mapped hashes. */
+    public long getProbed() {
+        return probed.get();
+    }
+
+    static long hash(String name) {
+        return Hashing.murmur3_128().hashString(CreditRules.normalise(name), StandardCharsets.UTF_8).asLong();
+    }
+
+    /** Double hashing: the k-th bit combines the two halves of the name's hash. */
+    private static long bloomBit(long hash, int k, long bits) {
+        final long combined = (hash >>> 32) + k * (hash & 0xffffffffL);
+        return Math.floorMod(combined, bits);
+    }
+}
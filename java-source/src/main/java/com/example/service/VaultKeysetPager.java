@@ -0,0 +1,83 @@
+package com.example.service;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.BinaryComparisonOperator;
+import net.corda.core.node.services.vault.ColumnPredicate;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * Reads every unconsumed state matching a query one page at a time, ordered by recorded time and state ref. Each page
+ * starts after the last state read rather than at an offset, so states consumed meanwhile do not shift later pages
+ * over states not yet read. Only the states recorded at the same instant as the last one read are paged by offset,
+ * when there are more of them than fit on a page.
+ */
+final class VaultKeysetPager {
+
+    static private final Sort RECORDED_ORDER = new Sort(ImmutableList.of(
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+
+    /** Reads one page of the vault, inside a flow or through one. */
+    interface PageReader<T extends ContractState> {
+        Vault.Page<T> read(QueryCriteria criteria, PageSpecification paging, Sort sort) throws Exception;
+    }
+
+    private VaultKeysetPager() {
+    }
+
+    /**
+     * Hands every unconsumed state matching the criteria, or every one when they are null, to the consumer.
+     */
+    static <T extends ContractState> void forEach(QueryCriteria criteria, int pageSize, PageReader<T> reader,
+                                                  Consumer<StateAndRef<T>> consumer) throws Exception {
+        Instant afterTime = Instant.EPOCH;
+        String afterTxId = "";
+        int afterIndex = -1;
+        int pageNumber = 1;
+        while (true) {
+            final QueryCriteria after = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED, null, null, null, null,
+                    new QueryCriteria.TimeCondition(QueryCriteria.TimeInstantType.RECORDED,
+                            new ColumnPredicate.BinaryComparison<>(BinaryComparisonOperator.GREATER_THAN_OR_EQUAL, afterTime)));
+            final Vault.Page<T> page = reader.read(criteria == null ? after : criteria.and(after),
+                    new PageSpecification(pageNumber, pageSize), RECORDED_ORDER);
+            boolean progressed = false;
+            for (int i = 0; i < page.getStates().size(); i++) {
+                final StateAndRef<T> state = page.getStates().get(i);
+                final Instant recordedTime = page.getStatesMetadata().get(i).getRecordedTime();
+                final String txId = state.getRef().getTxhash().toString();
+                final int index = state.getRef().getIndex();
+                if (covers(afterTime, afterTxId, afterIndex, recordedTime, txId, index)) {
+                    continue;
+                }
+                consumer.accept(state);
+                afterTime = recordedTime;
+                afterTxId = txId;
+                afterIndex = index;
+                progressed = true;
+            }
+            if (page.getStates().size() < pageSize) {
+                return;
+            }
+            pageNumber = progressed ? 1 : pageNumber + 1;
+        }
+    }
+
+    /** Whether a state at the given time and ref was read before the mark, in the order the vault sorts them. */
+    private static boolean covers(Instant markTime, String markTxId, int markIndex, Instant stateTime, String stateTxId, int stateIndex) {
+        if (!stateTime.equals(markTime)) {
+            return stateTime.isBefore(markTime);
+        }
+        final int byTx = stateTxId.compareTo(markTxId);
+        return byTx < 0 || byTx == 0 && stateIndex <= markIndex;
+    }
+}
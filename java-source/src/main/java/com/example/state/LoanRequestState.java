@@ -1,17 +1,21 @@
 package com.example.state;
 
+import com.example.schema.LoanRequestSchemaV1;
 import com.google.common.collect.ImmutableList;
 import net.corda.core.contracts.LinearState;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.identity.AbstractParty;
 import net.corda.core.identity.Party;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.schemas.QueryableState;
 import net.corda.core.serialization.ConstructorForDeserialization;
 import net.corda.core.serialization.CordaSerializable;
 //import java.io.Serializable;
 import java.util.List;
 
 @CordaSerializable
-public class LoanRequestState implements LinearState {
+public class LoanRequestState implements LinearState, QueryableState {
 
     private Party financeNode;
     private Party bankNode;
@@ -99,4 +103,26 @@ public class LoanRequestState implements LinearState {
     public List<AbstractParty> getParticipants() {
         return ImmutableList.of(financeNode, bankNode);
     }
+
+    @Override
+    public PersistentState generateMappedObject(MappedSchema schema) {
+        if (schema instanceof LoanRequestSchemaV1) {
+            return new LoanRequestSchemaV1.PersistentLoanRequest(
+                    financeNode.getName().toString(),
+                    bankNode.getName().toString(),
+                    companyName,
+                    LoanRequestSchemaV1.companyKey(companyName),
+                    amount,
+                    isEligibleForLoan,
+                    linearIdLoanReq.getId(),
+                    linearIdVerification == null ? null : linearIdVerification.getId());
+        } else {
+            throw new IllegalArgumentException("Unrecognised schema " + schema);
+        }
+    }
+
+    @Override
+    public Iterable<MappedSchema> supportedSchemas() {
+        return ImmutableList.of(new LoanRequestSchemaV1());
+    }
 }
\ No newline at end of file
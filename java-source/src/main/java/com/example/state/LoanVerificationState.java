@@ -1,16 +1,21 @@
 package com.example.state;
 
+import com.example.schema.LoanRequestSchemaV1;
+import com.example.schema.LoanVerificationSchemaV1;
 import com.google.common.collect.ImmutableList;
 import net.corda.core.contracts.LinearState;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.identity.AbstractParty;
 import net.corda.core.identity.Party;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.schemas.QueryableState;
 import net.corda.core.serialization.ConstructorForDeserialization;
 import net.corda.core.serialization.CordaSerializable;
 import java.util.List;
 
 @CordaSerializable
-public class LoanVerificationState implements LinearState {
+public class LoanVerificationState implements LinearState, QueryableState {
     private Party bankNode;
     private Party creditAgencyNode;
     private boolean isEligibleForLoan;
@@ -91,4 +96,26 @@ public class LoanVerificationState implements LinearState {
     public List<AbstractParty> getParticipants() {
         return ImmutableList.of(bankNode, creditAgencyNode);
     }
-}
+
+    @Override
+    public PersistentState generateMappedObject(MappedSchema schema) {
+        if (schema instanceof LoanVerificationSchemaV1) {
+            return new LoanVerificationSchemaV1.PersistentLoanVerification(
+                    bankNode.getName().toString(),
+                    creditAgencyNode == null ? null : creditAgencyNode.getName().toString(),
+                    companyName,
+                    LoanRequestSchemaV1.companyKey(companyName),
+                    amount,
+                    isEligibleForLoan,
+                    linearIdLoanVer.getId(),
+                    linearIdLoanReq == null ? null : linearIdLoanReq.getId());
+        } else {
+            throw new IllegalArgumentException("Unrecognised schema " + schema);
+        }
+    }
+
+    @Override
+    public Iterable<MappedSchema> supportedSchemas() {
+        return ImmutableList.of(new LoanVerificationSchemaV1());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,96 @@
+package com.example.api;
+
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.UnexpectedFlowEndException;
+import net.corda.core.identity.CordaX500Name;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControllerTest {
+
+    private static final CordaX500Name BANK = CordaX500Name.parse("O=BankA,L=London,C=GB");
+    private static final long USUAL = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AdmissionController admission = new AdmissionController();
+
+    @Test
+    public void limitRefusesFlowsOverIt() {
+        for (int i = 0; i < AdmissionController.INITIAL_LIMIT; i++) {
+            assertTrue(admission.tryAcquire(BANK) != null);
+        }
+        assertNull(admission.tryAcquire(BANK));
+    }
+
+    @Test
+    public void flowsWithinTheUsualLatencyRaiseTheLimitByAboutOnePerLimit() {
+        // a limit's worth of flows twice over
+        for (int i = 0; i < 2 * AdmissionController.INITIAL_LIMIT; i++) {
+            admission.tryAcquire(BANK).finished(true, false, USUAL);
+        }
+        assertEquals(AdmissionController.INITIAL_LIMIT + 1, admission.limit(BANK));
+    }
+
+    @Test
+    public void congestionHalvesTheLimit() {
+        admission.tryAcquire(BANK).finished(true, false, USUAL);
+        admission.tryAcquire(BANK).finished(false, true, USUAL);
+        assertEquals(AdmissionController.INITIAL_LIMIT / 2, admission.limit(BANK));
+    }
+
+    @Test
+    public void slowFlowHalvesTheLimit() {
+        admission.tryAcquire(BANK).finished(true, false, USUAL);
+        admission.tryAcquire(BANK).finished(true, false, 10 * USUAL);
+        assertEquals(AdmissionController.INITIAL_LIMIT / 2, admission.limit(BANK));
+    }
+
+    @Test
+    public void refusedLoanLeavesTheLimit() {
+        admission.tryAcquire(BANK).finished(true, false, USUAL);
+        for (int i = 0; i < 10; i++) {
+            admission.tryAcquire(BANK).finished(false, false, 10 * USUAL);
+        }
+        assertEquals(AdmissionController.INITIAL_LIMIT, admission.limit(BANK));
+    }
+
+    @Test
+    public void limitIsHalvedAtMostOncePerUsualLatency() throws InterruptedException {
+        final long usual = TimeUnit.SECONDS.toNanos(60);
+        admission.tryAcquire(BANK).finished(true, false, usual);
+        admission.tryAcquire(BANK).finished(false, true, usual);
+        admission.tryAcquire(BANK).finished(false, true, usual);
+        admission.tryAcquire(BANK).finished(false, true, usual);
+        assertEquals(AdmissionController.INITIAL_LIMIT / 2, admission.limit(BANK));
+
+        final CordaX500Name other = CordaX500Name.parse("O=BankB,L=London,C=GB");
+        admission.tryAcquire(other).finished(true, false, USUAL);
+        admission.tryAcquire(other).finished(false, true, USUAL);
+        Thread.sleep(10);
+        admission.tryAcquire(other).finished(false, true, USUAL);
+        assertEquals(AdmissionController.INITIAL_LIMIT / 4, admission.limit(other));
+    }
+
+    @Test
+    public void permitIsHandedBackOnce() {
+        final AdmissionController.Permit permit = admission.tryAcquire(BANK);
+        permit.finished(false, true, USUAL);
+        permit.finished(false, true, USUAL);
+        permit.cancel();
+        assertEquals(AdmissionController.INITIAL_LIMIT / 2, admission.limit(BANK));
+    }
+
+    @Test
+    public void onlyTimeoutsAndCounterpartyFailuresAreCongestion() {
+        assertTrue(AdmissionController.congested(new TimeoutException()));
+        assertTrue(AdmissionController.congested(new RuntimeException(new UnexpectedFlowEndException("counterparty flow ended"))));
+        assertFalse(AdmissionController.congested(new FlowException("Linearid not found.")));
+        assertFalse(AdmissionController.congested(null));
+    }
+}
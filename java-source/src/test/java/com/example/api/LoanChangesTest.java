@@ -0,0 +1,48 @@
+package com.example.api;
+
+import org.junit.Test;
+
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoanChangesTest {
+
+    private final Instant noon = Instant.parse("2018-06-01T12:00:00.123456Z");
+    private final LoanChanges.Mark mark = new LoanChanges.Mark(noon, "B2", 1);
+
+    @Test
+    public void cursorsSurviveTheRoundTrip() {
+        final LoanChanges.Cursor cursor = new LoanChanges.Cursor(mark, LoanChanges.Mark.START);
+        final LoanChanges.Cursor parsed = LoanChanges.Cursor.parse(cursor.encode());
+
+        assertEquals(noon, parsed.recorded.time);
+        assertEquals("B2", parsed.recorded.txId);
+        assertEquals(1, parsed.recorded.index);
+        assertEquals(Instant.EPOCH, parsed.consumed.time);
+        assertEquals(-1, parsed.consumed.index);
+    }
+
+    @Test
+    public void noCursorStartsAtTheBeginning() {
+        assertEquals(Instant.EPOCH, LoanChanges.Cursor.parse(null).recorded.time);
+        assertEquals(Instant.EPOCH, LoanChanges.Cursor.parse("").consumed.time);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void foreignCursorsAreRejected() {
+        LoanChanges.Cursor.parse("not-a-cursor");
+    }
+
+    @Test
+    public void statesAtTheMarkInstantAreOrderedByRef() {
+        assertTrue(mark.covers(noon.minusNanos(1000), "FF", 9));
+        assertTrue(mark.covers(noon, "A9", 5));
+        assertTrue(mark.covers(noon, "B2", 1));
+        assertFalse(mark.covers(noon, "B2", 2));
+        assertFalse(mark.covers(noon, "C0", 0));
+        assertFalse(mark.covers(noon.plusNanos(1000), "00", 0));
+    }
+}
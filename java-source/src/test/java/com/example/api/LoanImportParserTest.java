@@ -0,0 +1,62 @@
+package com.example.api;
+
+import com.example.bean.DataBean;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.identity.CordaX500Name;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LoanImportParserTest {
+
+    @Test
+    public void csvColumnsFollowTheHeader() {
+        final LoanImportParser parser = new LoanImportParser(LoanImportParser.Format.CSV);
+        assertNull(parser.parse("bank,amount,company"));
+
+        final DataBean application = parser.parse("\"O=BankA,L=London,C=GB\",15000,Boeing Company");
+        assertEquals("Boeing Company", application.getCompany());
+        assertEquals(15000, application.getValue());
+        assertEquals(CordaX500Name.parse("O=BankA,L=London,C=GB"), application.getPartyName());
+    }
+
+    @Test
+    public void csvWithoutHeaderIsCompanyAmountBank() {
+        final LoanImportParser parser = new LoanImportParser(LoanImportParser.Format.CSV);
+        final DataBean application = parser.parse("\"Jet \"\"Blue\"\" Airways\",250,");
+        assertEquals("Jet \"Blue\" Airways", application.getCompany());
+        assertEquals(250, application.getValue());
+        assertNull(application.getPartyName());
+        assertNull(parser.parse("   "));
+    }
+
+    @Test
+    public void ndjsonAcceptsTheBeanFieldNames() {
+        final LoanImportParser parser = new LoanImportParser(LoanImportParser.Format.NDJSON);
+        final DataBean application = parser.parse("{\"company\":\"Boeing Company\",\"value\":\"300\",\"partyName\":\"O=BankA,L=London,C=GB\"}");
+        assertEquals("Boeing Company", application.getCompany());
+        assertEquals(300, application.getValue());
+        assertEquals(CordaX500Name.parse("O=BankA,L=London,C=GB"), application.getPartyName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void amountMustBeAWholeNumber() {
+        new LoanImportParser(LoanImportParser.Format.CSV).parse("Boeing Company,12.5,");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void companyIsRequired() {
+        new LoanImportParser(LoanImportParser.Format.NDJSON).parse("{\"amount\":12}");
+    }
+
+    @Test
+    public void quotedFieldsMayHoldCommas() {
+        assertEquals(ImmutableList.of("a", "b,c", ""), LoanImportParser.splitCsv("a,\"b,c\","));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unclosedQuotesAreRejected() {
+        LoanImportParser.splitCsv("a,\"b");
+    }
+}
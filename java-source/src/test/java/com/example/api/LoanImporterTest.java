@@ -0,0 +1,169 @@
+package com.example.api;
+
+import com.example.bean.DataBean;
+import com.example.bean.FlowStatusBean;
+import net.corda.core.contracts.UniqueIdentifier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class LoanImporterTest {
+
+    private static final String FILE = "company,amount\nAlpha,100\nBeta,200\nGamma,300\nDelta,400\n";
+
+    private File directory;
+
+    /** Stands in for the web server dying while it starts a flow. */
+    private static class Crash extends Error {
+    }
+
+    /** Records the applications it is given; completes their flows unless told to leave them running. */
+    private static class FakeSubmitter implements LoanImporter.Submitter {
+        final List<String> submitted = new ArrayList<>();
+        final Map<String, UniqueIdentifier> linearIds = new HashMap<>();
+        final Set<String> running = new HashSet<>();
+        final Set<String> busy = new HashSet<>();
+        final Set<UniqueIdentifier> vault = new HashSet<>();
+        String crashOn;
+
+        @Override
+        public CompletableFuture<FlowStatusBean> submit(DataBean application, UniqueIdentifier linearId) {
+            final String company = application.getCompany();
+            if (company.equals(crashOn)) {
+                throw new Crash();
+            }
+            if (busy.remove(company)) {
+                throw new RejectedExecutionException("the bank is too busy");
+            }
+            submitted.add(company);
+            linearIds.put(company, linearId);
+            final FlowStatusBean status = new FlowStatusBean(linearId.toString(), "RequestForLoanFlow");
+            if (running.contains(company)) {
+                return new CompletableFuture<>();
+            }
+            vault.add(linearId);
+            status.completed("tx-" + company);
+            return CompletableFuture.completedFuture(status);
+        }
+
+        @Override
+        public boolean recorded(UniqueIdentifier linearId) {
+            return vault.contains(linearId);
+        }
+    }
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("loan-imports").toFile();
+        // read by each importer when it is created
+        System.setProperty(LoanImporter.DIRECTORY_PROPERTY, directory.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(LoanImporter.DIRECTORY_PROPERTY);
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void finishedImportIsNotSubmittedAgain() throws Exception {
+        final FakeSubmitter submitter = new FakeSubmitter();
+        final LoanImporter.Job job = new LoanImporter().run("finished", LoanImportParser.Format.CSV, input(FILE), 2, submitter);
+        assertEquals("COMPLETED", job.progress().get("state"));
+        assertEquals(5L, job.progress().get("committedLine"));
+        assertEquals(asList("Alpha", "Beta", "Gamma", "Delta"), submitter.submitted);
+
+        final FakeSubmitter again = new FakeSubmitter();
+        final LoanImporter.Job rerun = new LoanImporter().run("finished", LoanImportParser.Format.CSV, input(FILE), 2, again);
+        assertEquals("COMPLETED", rerun.progress().get("state"));
+        assertEquals(5L, rerun.progress().get("resumed"));
+        assertEquals(0, again.submitted.size());
+    }
+
+    @Test
+    public void interruptedImportResubmitsOnlyTheLinesNotInTheVault() throws Exception {
+        final FakeSubmitter submitter = new FakeSubmitter();
+        submitter.running.add("Beta");
+        submitter.running.add("Gamma");
+        submitter.crashOn = "Delta";
+        try {
+            new LoanImporter().run("interrupted", LoanImportParser.Format.CSV, input(FILE), 4, submitter);
+            fail("the import should have crashed");
+        } catch (Crash expected) {
+            // Beta and Gamma were in flight, Beta's request reached the vault after all
+        }
+        final FakeSubmitter resumed = new FakeSubmitter();
+        resumed.vault.add(submitter.linearIds.get("Beta"));
+
+        final LoanImporter.Job job = new LoanImporter().run("interrupted", LoanImportParser.Format.CSV, input(FILE), 4, resumed);
+        assertEquals("COMPLETED", job.progress().get("state"));
+        assertEquals(asList("Gamma", "Delta"), resumed.submitted);
+        // a flow still running from before creates the same request rather than a second one
+        assertEquals(submitter.linearIds.get("Gamma"), resumed.linearIds.get("Gamma"));
+        assertEquals(3L, job.progress().get("resumed"));
+    }
+
+    @Test
+    public void busyLinesAreDeferredToTheNextUpload() throws Exception {
+        final FakeSubmitter submitter = new FakeSubmitter();
+        submitter.busy.add("Gamma");
+        final LoanImporter.Job job = new LoanImporter().run("busy", LoanImportParser.Format.CSV, input(FILE), 2, submitter);
+        assertEquals("INTERRUPTED", job.progress().get("state"));
+        assertEquals(1L, job.progress().get("deferred"));
+        assertEquals(3L, job.progress().get("committedLine"));
+        assertEquals(asList("Alpha", "Beta", "Delta"), submitter.submitted);
+
+        final FakeSubmitter again = new FakeSubmitter();
+        final LoanImporter.Job rerun = new LoanImporter().run("busy", LoanImportParser.Format.CSV, input(FILE), 2, again);
+        assertEquals("COMPLETED", rerun.progress().get("state"));
+        assertEquals(5L, rerun.progress().get("committedLine"));
+        assertEquals(asList("Gamma"), again.submitted);
+    }
+
+    @Test
+    public void refusedLinesAreReportedAndNotRetried() throws Exception {
+        final FakeSubmitter submitter = new FakeSubmitter();
+        final LoanImporter.Job job = new LoanImporter().run("refused", LoanImportParser.Format.CSV,
+                input("company,amount\nAlpha,lots\nBeta,200\n"), 2, submitter);
+        assertEquals("COMPLETED", job.progress().get("state"));
+        assertEquals(1L, job.progress().get("failed"));
+        assertEquals(asList("Beta"), submitter.submitted);
+
+        final List<String> errors = Files.readAllLines(new LoanImporter().errors("refused").toPath(), StandardCharsets.UTF_8);
+        assertEquals(2, errors.size());
+        assertEquals("\"2\"", errors.get(1).split(",")[0]);
+
+        final FakeSubmitter again = new FakeSubmitter();
+        new LoanImporter().run("refused", LoanImportParser.Format.CSV, input("company,amount\nAlpha,lots\nBeta,200\n"), 2, again);
+        assertEquals(0, again.submitted.size());
+    }
+
+    private static InputStream input(String lines) {
+        return new ByteArrayInputStream(lines.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -188,4 +188,79 @@ public class LoanDataVerContractTest {
         });
     }
 
+    /***This test case is for the single round trip credit check (bank and credit agency record the decision at once) **/
+    @Test
+    public void creditDecisionIsIssuedWithoutInputs() {
+        transaction(ledgerServices, tx -> {
+            tx.output(LOANVERIFICATION_CONTRACT_ID, new LoanVerificationState(amount,bank.getParty(),credit.getParty(),true,companyName,new UniqueIdentifier(),new UniqueIdentifier()));
+            tx.command(ImmutableList.of(bank.getPublicKey(), credit.getPublicKey()), new LoanVerificationContract.Commands.IssueCreditDecision());
+            tx.verifies();
+            return null;
+        });
+
+        transaction(ledgerServices, tx -> {
+            tx.input(LOANVERIFICATION_CONTRACT_ID, loanVerificationState);
+            tx.output(LOANVERIFICATION_CONTRACT_ID, loanVerificationState);
+            tx.command(ImmutableList.of(bank.getPublicKey(), credit.getPublicKey()), new LoanVerificationContract.Commands.IssueCreditDecision());
+            tx.failsWith("No input should be consumed while issuing a credit decision");
+            return null;
+        });
+    }
+
+    @Test
+    public void creditDecisionMustBeSignedByCreditAgency() {
+        transaction(ledgerServices, tx -> {
+            tx.output(LOANVERIFICATION_CONTRACT_ID, loanVerificationState);
+            tx.command(ImmutableList.of(bank.getPublicKey()), new LoanVerificationContract.Commands.IssueCreditDecision());
+            tx.failsWith("CreditAgency's signature is mandatory for completion of transaction");
+            return null;
+        });
+    }
+
+    /***This test case is for the credit agency answering several pending verifications of one bank at once **/
+    @Test
+    public void batchOfCreditApprovalsPairsInputsWithOutputs() {
+        LoanVerificationState first = new LoanVerificationState(amount,bank.getParty(),credit.getParty(),false,companyName,new UniqueIdentifier(),new UniqueIdentifier());
+        LoanVerificationState second = new LoanVerificationState(amount * 2,bank.getParty(),credit.getParty(),false,"Airbus",new UniqueIdentifier(),new UniqueIdentifier());
+
+        transaction(ledgerServices, tx -> {
+            tx.input(LOANVERIFICATION_CONTRACT_ID, first);
+            tx.input(LOANVERIFICATION_CONTRACT_ID, second);
+            tx.output(LOANVERIFICATION_CONTRACT_ID, new LoanVerificationState(second.getAmount(),bank.getParty(),credit.getParty(),true,second.getCompanyName(),second.getLinearId(),second.getLinearIdLoanReq()));
+            tx.output(LOANVERIFICATION_CONTRACT_ID, new LoanVerificationState(first.getAmount(),bank.getParty(),credit.getParty(),true,first.getCompanyName(),first.getLinearId(),first.getLinearIdLoanReq()));
+            tx.command(ImmutableList.of(bank.getPublicKey(), credit.getPublicKey()), new LoanVerificationContract.Commands.ReceiveCreditApproval());
+            tx.verifies();
+            return null;
+        });
+
+        transaction(ledgerServices, tx -> {
+            tx.input(LOANVERIFICATION_CONTRACT_ID, first);
+            tx.input(LOANVERIFICATION_CONTRACT_ID, second);
+            tx.output(LOANVERIFICATION_CONTRACT_ID, first);
+            tx.command(ImmutableList.of(bank.getPublicKey(), credit.getPublicKey()), new LoanVerificationContract.Commands.ReceiveCreditApproval());
+            tx.failsWith("Every input should have exactly one output");
+            return null;
+        });
+
+        transaction(ledgerServices, tx -> {
+            tx.input(LOANVERIFICATION_CONTRACT_ID, first);
+            tx.input(LOANVERIFICATION_CONTRACT_ID, second);
+            tx.output(LOANVERIFICATION_CONTRACT_ID, first);
+            tx.output(LOANVERIFICATION_CONTRACT_ID, first);
+            tx.command(ImmutableList.of(bank.getPublicKey(), credit.getPublicKey()), new LoanVerificationContract.Commands.ReceiveCreditApproval());
+            tx.failsWith("every output must answer an input with the same linear id");
+            return null;
+        });
+    }
+
+    @Test
+    public void batchedCreditApprovalMustKeepLoanDetails() {
+        transaction(ledgerServices, tx -> {
+            tx.input(LOANVERIFICATION_CONTRACT_ID, loanVerificationState);
+            tx.output(LOANVERIFICATION_CONTRACT_ID, new LoanVerificationState(amount + 1,bank.getParty(),credit.getParty(),true,companyName,loanVerificationState.getLinearId(),loanVerificationState.getLinearIdLoanReq()));
+            tx.command(ImmutableList.of(bank.getPublicKey(), credit.getPublicKey()), new LoanVerificationContract.Commands.ReceiveCreditApproval());
+            tx.failsWith("the decision must keep the loan details of its input");
+            return null;
+        });
+    }
 }
@@ -83,6 +83,61 @@ public class LoanReqContractTest {
             });*/
     }
 
+    /***This test case is for when finance agency sends a batch of loan applications to bank in one transaction **/
+    @Test
+    public void batchOfApplicationsForOneBankVerifies() {
+
+        transaction(ledgerServices,tx -> {
+            tx.output(LOANREQUEST_CONTRACT_ID, new LoanRequestState(finance.getParty(), bank.getParty(), companyName,amount,new UniqueIdentifier(),false,new UniqueIdentifier()));
+            tx.output(LOANREQUEST_CONTRACT_ID, new LoanRequestState(finance.getParty(), bank.getParty(), "Airbus",amount * 2,new UniqueIdentifier(),false,new UniqueIdentifier()));
+            tx.output(LOANREQUEST_CONTRACT_ID, new LoanRequestState(finance.getParty(), bank.getParty(), "Embraer",amount / 2,new UniqueIdentifier(),false,new UniqueIdentifier()));
+            tx.command(ImmutableList.of(finance.getPublicKey(), bank.getPublicKey()), new LoanReqContract.Commands.InitiateLoan());
+            tx.verifies();
+            return null;
+        });
+    }
+
+    @Test
+    public void everyApplicationInBatchIsChecked() {
+
+        transaction(ledgerServices,tx -> {
+            tx.output(LOANREQUEST_CONTRACT_ID, new LoanRequestState(finance.getParty(), bank.getParty(), companyName,amount,new UniqueIdentifier(),false,new UniqueIdentifier()));
+            tx.output(LOANREQUEST_CONTRACT_ID, new LoanRequestState(finance.getParty(), bank.getParty(), "Airbus",0,new UniqueIdentifier(),false,new UniqueIdentifier()));
+            tx.command(ImmutableList.of(finance.getPublicKey(), bank.getPublicKey()), new LoanReqContract.Commands.InitiateLoan());
+            tx.failsWith("Loan amount should not be zero");
+            return null;
+        });
+
+        transaction(ledgerServices,tx -> {
+            tx.output(LOANREQUEST_CONTRACT_ID, financeBankState);
+            tx.output(LOANREQUEST_CONTRACT_ID, loanVerificationState);
+            tx.command(ImmutableList.of(finance.getPublicKey(), bank.getPublicKey()), new LoanReqContract.Commands.InitiateLoan());
+            tx.failsWith("Ouput must be a LoanRequestState");
+            return null;
+        });
+
+        transaction(ledgerServices,tx -> {
+            tx.output(LOANREQUEST_CONTRACT_ID, financeBankState);
+            tx.output(LOANREQUEST_CONTRACT_ID, financeBankState);
+            tx.command(ImmutableList.of(finance.getPublicKey(), bank.getPublicKey()), new LoanReqContract.Commands.InitiateLoan());
+            tx.failsWith("Every loan application must have its own linear id");
+            return null;
+        });
+    }
+
+    @Test
+    public void everyBankInBatchMustSign() {
+        TestIdentity otherBank = new TestIdentity(new CordaX500Name("otherBank", "Mumbai", "IN"));
+
+        transaction(ledgerServices,tx -> {
+            tx.output(LOANREQUEST_CONTRACT_ID, financeBankState);
+            tx.output(LOANREQUEST_CONTRACT_ID, new LoanRequestState(finance.getParty(), otherBank.getParty(), companyName,amount,new UniqueIdentifier(),false,new UniqueIdentifier()));
+            tx.command(ImmutableList.of(finance.getPublicKey(), bank.getPublicKey()), new LoanReqContract.Commands.InitiateLoan());
+            tx.failsWith("Bank should sign the transaction");
+            return null;
+        });
+    }
+
     /***This test case is for when PartyA contacts Party B (when finance agency send loan application to bank) **/
     @Test
     public void lenderMustSignTransaction() {
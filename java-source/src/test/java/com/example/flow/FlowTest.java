@@ -1,10 +1,20 @@
 package com.example.flow;
 
+import com.example.api.LoanAggregateQuery;
+import com.example.contract.LoanVerificationContract;
+import com.example.schema.LoanRequestSchemaV1;
 import com.example.state.LoanRequestState;
+import com.example.state.LoanVerificationState;
 import com.google.common.collect.ImmutableList;
 import net.corda.core.concurrent.CordaFuture;
 import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.testing.node.MockNetwork;
 import net.corda.testing.node.StartedMockNode;
@@ -15,9 +25,16 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class FlowTest {
 
@@ -32,12 +49,17 @@ public class FlowTest {
 
     @Before
     public void setup() {
-        network = new MockNetwork(ImmutableList.of("com.example.contract"));
+        network = new MockNetwork(ImmutableList.of("com.example.contract", "com.example.schema", "com.example.service"));
         nodeA = network.createPartyNode(null);
         nodeB = network.createPartyNode(null);
         nodeC = network.createPartyNode(null);
         for (StartedMockNode node : ImmutableList.of(nodeA, nodeB,nodeC)) {
             node.registerInitiatedFlow(RequestForLoanFlow.Acceptor.class);
+            node.registerInitiatedFlow(RequestCreditRatingFlow.Acceptor.class);
+            node.registerInitiatedFlow(CreditCheckFlow.Acceptor.class);
+            node.registerInitiatedFlow(RequestForLoanBatchFlow.Acceptor.class);
+            node.registerInitiatedFlow(CreditRatingBatchResponseFlow.Acceptor.class);
+            node.registerInitiatedFlow(CreditRatingResponseFlow.Acceptor.class);
         }
         network.runNetwork();
     }
@@ -104,5 +126,184 @@ public class FlowTest {
         signedTx.verifySignaturesExcept(nodeB.getInfo().getLegalIdentities().get(0).getOwningKey());
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void recordedRequestCanBeFoundByItsCompanyColumn() throws Exception {
+        RequestForLoanFlow.Initiator flow = new RequestForLoanFlow.Initiator( nodeB.getInfo().getLegalIdentities().get(0), amount,companyName);
+        CordaFuture<SignedTransaction> future = nodeA.startFlow(flow);
+        network.runNetwork();
+        future.get();
+
+        final QueryCriteria byCompany = new QueryCriteria.VaultCustomQueryCriteria(
+                Builder.equal(getField("companyKey", LoanRequestSchemaV1.PersistentLoanRequest.class), LoanRequestSchemaV1.companyKey("boeing company")));
+        final QueryCriteria byOtherCompany = new QueryCriteria.VaultCustomQueryCriteria(
+                Builder.equal(getField("companyKey", LoanRequestSchemaV1.PersistentLoanRequest.class), "AIRBUS"));
+        nodeB.transaction(() -> {
+            final List<StateAndRef<LoanRequestState>> found = nodeB.getServices().getVaultService().queryBy(LoanRequestState.class, byCompany).getStates();
+            assertEquals(1, found.size());
+            assertEquals(companyName, found.get(0).getState().getData().getCompanyName());
+            assertEquals(0, nodeB.getServices().getVaultService().queryBy(LoanRequestState.class, byOtherCompany).getStates().size());
+            return null;
+        });
+    }
+
+    @Test
+    public void aggregatesTotalTheRequestsOfEachCompany() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            CordaFuture<SignedTransaction> future = nodeA.startFlow(new RequestForLoanFlow.Initiator( nodeB.getInfo().getLegalIdentities().get(0), amount,companyName));
+            network.runNetwork();
+            future.get();
+        }
+
+        final LoanAggregateQuery query = new LoanAggregateQuery("company", null);
+        nodeB.transaction(() -> {
+            final List<Object> values = nodeB.getServices().getVaultService()
+                    .queryBy(LoanRequestState.class, query.criteria(), query.paging(), query.sorting()).getOtherResults();
+            final List<Map<String, Object>> groups = query.groups(values);
+            assertEquals(1, groups.size());
+            assertEquals(LoanRequestSchemaV1.companyKey(companyName), groups.get(0).get("company"));
+            assertEquals(2L, groups.get(0).get("count"));
+            assertEquals(2L * amount, groups.get(0).get("totalAmount"));
+            return null;
+        });
+    }
+
+    @Test
+    public void creditCheckIssuesADecidedVerificationInBothVaults() throws Exception {
+        final UniqueIdentifier loanId = requestLoan();
+        CordaFuture<SignedTransaction> future = nodeB.startFlow(new CreditCheckFlow.Initiator(party(nodeC), loanId));
+        network.runNetwork();
+        SignedTransaction signedTx = future.get();
+
+        assertEquals(0, signedTx.getTx().getInputs().size());
+        assertTrue(signedTx.getTx().getCommands().get(0).getValue() instanceof LoanVerificationContract.Commands.IssueCreditDecision);
+        for (StartedMockNode node : ImmutableList.of(nodeB, nodeC)) {
+            node.transaction(() -> {
+                final List<StateAndRef<LoanVerificationState>> verifications = node.getServices().getVaultService().queryBy(LoanVerificationState.class).getStates();
+                assertEquals(1, verifications.size());
+                final LoanVerificationState verification = verifications.get(0).getState().getData();
+                assertEquals(loanId, verification.getLinearIdLoanReq());
+                assertEquals(party(nodeB), verification.getBankNode());
+                assertEquals(party(nodeC), verification.getCreditAgencyNode());
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void batchRecordsEveryApplicationInBothVaults() throws Exception {
+        final List<RequestForLoanBatchFlow.LoanApplication> applications = ImmutableList.of(
+                new RequestForLoanBatchFlow.LoanApplication(companyName, amount),
+                new RequestForLoanBatchFlow.LoanApplication("Airbus", amount));
+        CordaFuture<SignedTransaction> future = nodeA.startFlow(new RequestForLoanBatchFlow.Initiator(party(nodeB), applications));
+        network.runNetwork();
+        SignedTransaction signedTx = future.get();
+
+        assertEquals(2, signedTx.getTx().getOutputs().size());
+        for (StartedMockNode node : ImmutableList.of(nodeA, nodeB)) {
+            node.transaction(() -> {
+                final List<StateAndRef<LoanRequestState>> requests = node.getServices().getVaultService().queryBy(LoanRequestState.class).getStates();
+                assertEquals(2, requests.size());
+                final List<String> companies = new ArrayList<>();
+                for (StateAndRef<LoanRequestState> request : requests) {
+                    assertEquals(party(nodeA), request.getState().getData().getFinanceNode());
+                    assertEquals(party(nodeB), request.getState().getData().getBankNode());
+                    companies.add(request.getState().getData().getCompanyName());
+                }
+                assertTrue(companies.containsAll(ImmutableList.of(companyName, "Airbus")));
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void batchLargerThanTheLimitIsRejected() throws Exception {
+        final List<RequestForLoanBatchFlow.LoanApplication> applications = new ArrayList<>();
+        for (int i = 0; i <= RequestForLoanBatchFlow.MAX_BATCH_SIZE; i++) {
+            applications.add(new RequestForLoanBatchFlow.LoanApplication(companyName, amount));
+        }
+        CordaFuture<SignedTransaction> future = nodeA.startFlow(new RequestForLoanBatchFlow.Initiator(party(nodeB), applications));
+        network.runNetwork();
+
+        exception.expect(ExecutionException.class);
+        exception.expectCause(instanceOf(FlowException.class));
+        future.get();
+    }
+
+    @Test
+    public void batchResponseDecidesEveryVerificationInOneTransaction() throws Exception {
+        final List<UniqueIdentifier> verificationIds = ImmutableList.of(requestCreditRating(requestLoan()), requestCreditRating(requestLoan()));
+        CordaFuture<SignedTransaction> future = nodeC.startFlow(new CreditRatingBatchResponseFlow.Initiator(party(nodeB), verificationIds));
+        network.runNetwork();
+        SignedTransaction signedTx = future.get();
+
+        assertEquals(2, signedTx.getTx().getInputs().size());
+        assertEquals(2, signedTx.getTx().getOutputs().size());
+        for (StartedMockNode node : ImmutableList.of(nodeB, nodeC)) {
+            node.transaction(() -> {
+                final List<StateAndRef<LoanVerificationState>> verifications = node.getServices().getVaultService().queryBy(LoanVerificationState.class).getStates();
+                assertEquals(2, verifications.size());
+                final List<UniqueIdentifier> decided = new ArrayList<>();
+                for (StateAndRef<LoanVerificationState> verification : verifications) {
+                    assertEquals(signedTx.getId(), verification.getRef().getTxhash());
+                    decided.add(verification.getState().getData().getLinearId());
+                }
+                assertEquals(new HashSet<>(verificationIds), new HashSet<>(decided));
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void batchResponseWithAnUnknownVerificationIsRejected() throws Exception {
+        final List<UniqueIdentifier> verificationIds = ImmutableList.of(requestCreditRating(requestLoan()), new UniqueIdentifier());
+        CordaFuture<SignedTransaction> future = nodeC.startFlow(new CreditRatingBatchResponseFlow.Initiator(party(nodeB), verificationIds));
+        network.runNetwork();
+
+        exception.expect(ExecutionException.class);
+        exception.expectCause(instanceOf(FlowException.class));
+        future.get();
+    }
 
+    @Test
+    public void secondResponseSpendingTheSameVerificationFailsFast() throws Exception {
+        final UniqueIdentifier verificationId = requestCreditRating(requestLoan());
+        // both start before the network runs, so the first still holds its soft lock while it waits for the bank
+        CordaFuture<SignedTransaction> first = nodeC.startFlow(new CreditRatingResponseFlow.Initiator(party(nodeB), verificationId));
+        CordaFuture<SignedTransaction> second = nodeC.startFlow(new CreditRatingResponseFlow.Initiator(party(nodeB), verificationId));
+        network.runNetwork();
+        SignedTransaction signedTx = first.get();
+
+        for (StartedMockNode node : ImmutableList.of(nodeB, nodeC)) {
+            node.transaction(() -> {
+                final List<StateAndRef<LoanVerificationState>> verifications = node.getServices().getVaultService().queryBy(LoanVerificationState.class).getStates();
+                assertEquals(1, verifications.size());
+                assertEquals(signedTx.getId(), verifications.get(0).getRef().getTxhash());
+                return null;
+            });
+        }
+
+        exception.expect(ExecutionException.class);
+        exception.expectCause(instanceOf(FlowException.class));
+        exception.expectMessage("Another flow is already spending");
+        second.get();
+    }
+
+    private static Party party(StartedMockNode node) {
+        return node.getInfo().getLegalIdentities().get(0);
+    }
+
+    /** Has node A apply to node B for a loan and returns the linear id of the request. */
+    private UniqueIdentifier requestLoan() throws Exception {
+        CordaFuture<SignedTransaction> future = nodeA.startFlow(new RequestForLoanFlow.Initiator(party(nodeB), amount, companyName));
+        network.runNetwork();
+        return ((LoanRequestState) future.get().getTx().getOutputs().get(0).getData()).getLinearId();
+    }
+
+    /** Has node B send a loan to node C for rating and returns the linear id of the pending verification. */
+    private UniqueIdentifier requestCreditRating(UniqueIdentifier loanId) throws Exception {
+        CordaFuture<SignedTransaction> future = nodeB.startFlow(new RequestCreditRatingFlow.Initiator(party(nodeC), loanId));
+        network.runNetwork();
+        return ((LoanVerificationState) future.get().getTx().getOutputs().get(0).getData()).getLinearId();
+    }
 }
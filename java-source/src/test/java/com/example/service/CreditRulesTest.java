@@ -0,0 +1,62 @@
+package com.example.service;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CreditRulesTest {
+
+    @Test
+    public void defaultRulesBlockTheOriginalAirlines() {
+        assertFalse(CreditRules.DEFAULT.isEligible("JETSAIRWAYS", 15000));
+        assertFalse(CreditRules.DEFAULT.isEligible("JETBLUEAIRLINE", 15000));
+        assertTrue(CreditRules.DEFAULT.isEligible("Boeing Company", 15000));
+    }
+
+    @Test
+    public void blocklistAndLimitsIgnoreCaseAndSpacing() throws IOException {
+        final CreditRules rules = CreditRules.parse(new StringReader(
+                "# credit agency rules\n" +
+                "block   Jets Airways\n" +
+                "limit   Boeing Company 50000   # capped\n" +
+                "max-amount 20000\n" +
+                "min-amount 100\n"));
+
+        assertEquals(2, rules.size());
+        assertFalse(rules.isEligible("JETS  AIRWAYS", 500));
+        assertTrue(rules.isEligible("boeing company", 50000));
+        assertFalse(rules.isEligible("Boeing Company", 50001));
+        assertTrue(rules.isEligible("Airbus", 20000));
+        assertFalse(rules.isEligible("Airbus", 20001));
+        assertFalse(rules.isEligible("Airbus", 99));
+        assertFalse(rules.isEligible(null, 500));
+    }
+
+    @Test
+    public void largeRuleSetsAreParsed() throws IOException {
+        final StringBuilder file = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            file.append("block COMPANY").append(i).append('\n');
+        }
+        final CreditRules rules = CreditRules.parse(new StringReader(file.toString()));
+
+        assertEquals(20000, rules.size());
+        assertFalse(rules.isEligible("company19999", 1000));
+        assertTrue(rules.isEligible("company20000", 1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownRulesAreRejected() throws IOException {
+        CreditRules.parse(new StringReader("block JETSAIRWAYS\nallow EVERYONE\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void limitsNeedAnAmount() throws IOException {
+        CreditRules.parse(new StringReader("limit BOEING lots\n"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures fuzzy screening against a synthetic list of company names. Run with
+ * ./gradlew benchmarkFuzzyNameIndex -Pnames=1000000 -Plookups=20000
+ */
+public class FuzzyNameIndexBenchmark {
+
+    private static final String[] WORDS = {
+            "JET", "AIR", "AIRWAYS", "AIRLINES", "GLOBAL", "TRADING", "SHIPPING", "CAPITAL", "HOLDINGS", "NORTH",
+            "SOUTH", "EAST", "WEST", "PACIFIC", "ATLANTIC", "STAR", "SUN", "BLUE", "RED", "GREEN", "ENERGY", "STEEL",
+            "MOTORS", "FOODS", "PHARMA", "LOGISTICS", "FINANCE", "INVEST", "MARINE", "MINING", "OIL", "GAS"};
+    private static final String[] SUFFIXES = {"", " LTD", " INC", " PLC", " LLC", " GMBH", " SA"};
+
+    public static void main(String[] args) {
+        final int names = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        final double threshold = args.length > 2 ? Double.parseDouble(args[2]) : CreditRules.DEFAULT_FUZZY_THRESHOLD;
+
+        final Random random = new Random(42);
+        final List<String> list = new ArrayList<>(names);
+        for (int i = 0; i < names; i++) {
+            list.add(randomName(random));
+        }
+
+        long start = System.nanoTime();
+        final FuzzyNameIndex index = FuzzyNameIndex.build(list, threshold);
+        System.out.printf("Indexed %,d names in %,d ms%n", index.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        final LatencyHistogram latencies = new LatencyHistogram();
+        int matched = 0;
+        for (int round = 0; round < 2; round++) {
+            matched = 0;
+            for (int i = 0; i < lookups; i++) {
+                // half misspelled listed names, half fresh names
+                final String query = i % 2 == 0 ? misspell(list.get(random.nextInt(names)), random) : randomName(random);
+                start = System.nanoTime();
+                if (index.matches(query)) {
+                    matched++;
+                }
+                if (round == 1) {
+                    latencies.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+        System.out.printf("%,d lookups, %,d matched, p50 %d us, p99 %d us, max %d us, mean %d us%n",
+                lookups, matched, latencies.quantileMicros(0.5), latencies.quantileMicros(0.99), latencies.getMaxMicros(),
+                latencies.getSumMicros() / Math.max(1, latencies.getCount()));
+    }
+
+    private static String randomName(Random random) {
+        final StringBuilder name = new StringBuilder();
+        final int words = 2 + random.nextInt(2);
+        for (int w = 0; w < words; w++) {
+            name.append(WORDS[random.nextInt(WORDS.length)]);
+            if (random.nextBoolean()) {
+                name.append((char) ('A' + random.nextInt(26))).append((char) ('A' + random.nextInt(26)));
+            }
+            name.append(' ');
+        }
+        name.append(random.nextInt(10_000));
+        return name.append(SUFFIXES[random.nextInt(SUFFIXES.length)]).toString();
+    }
+
+    private static String misspell(String name, Random random) {
+        final StringBuilder typo = new StringBuilder(name);
+        final int at = random.nextInt(typo.length());
+        if (random.nextBoolean()) {
+            typo.deleteCharAt(at);
+        } else {
+            typo.insert(at, (char) ('A' + random.nextInt(26)));
+        }
+        return typo.toString().toLowerCase();
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.service;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FuzzyNameIndexTest {
+
+    private final FuzzyNameIndex airlines = FuzzyNameIndex.build(
+            ImmutableList.of("JETSAIRWAYS", "AMERICONAIRWAYS", "SAHARAAIRLINES", "JETBLUEAIRLINE"), 0.75);
+
+    @Test
+    public void keysDropPunctuationSpacingAndLegalSuffixes() {
+        assertEquals("JETAIRWAYS", FuzzyNameIndex.key("Jet  Airways Ltd."));
+        assertEquals("BOEING", FuzzyNameIndex.key("boeing co inc"));
+        assertEquals("LIMITED", FuzzyNameIndex.key("Limited"));
+    }
+
+    @Test
+    public void misspelledAndSuffixedNamesMatch() {
+        assertEquals("JETSAIRWAYS", airlines.bestMatch("Jet Airways Ltd"));
+        assertEquals("AMERICONAIRWAYS", airlines.bestMatch("American Airways Inc"));
+        assertEquals("JETBLUEAIRLINE", airlines.bestMatch("JetBlue Airlines"));
+    }
+
+    @Test
+    public void unrelatedNamesDoNotMatch() {
+        assertNull(airlines.bestMatch("Boeing Company"));
+        assertNull(airlines.bestMatch("Jet"));
+        assertNull(airlines.bestMatch("..."));
+        assertNull(airlines.bestMatch(null));
+        assertNull(FuzzyNameIndex.build(ImmutableList.of(), 0.75).bestMatch("JETSAIRWAYS"));
+    }
+
+    @Test
+    public void theClosestNameWins() {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            names.add("TRADING COMPANY " + i);
+        }
+        names.add("NORTHERN STEEL WORKS");
+        names.add("NORTHERN STEEL WORKSHOP");
+        final FuzzyNameIndex index = FuzzyNameIndex.build(names, 0.75);
+
+        assertEquals("NORTHERN STEEL WORKS", index.bestMatch("Northern Steel Work"));
+        assertEquals("NORTHERN STEEL WORKSHOP", index.bestMatch("Northern Steel Workshops"));
+        assertEquals("TRADING COMPANY 4711", index.bestMatch("Trading Company 4711 Ltd"));
+    }
+
+    @Test
+    public void concurrentLookupsDoNotShareCounters() throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<String>> matches = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                final String query = i % 2 == 0 ? "Jet Airways Ltd" : "JetBlue Airlines";
+                matches.add(pool.submit(() -> airlines.bestMatch(query)));
+            }
+            for (int i = 0; i < matches.size(); i++) {
+                assertEquals(i % 2 == 0 ? "JETSAIRWAYS" : "JETBLUEAIRLINE", matches.get(i).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void thresholdMustBePositive() {
+        FuzzyNameIndex.build(ImmutableList.of("JETSAIRWAYS"), 0);
+    }
+
+    @Test
+    public void creditRulesScreenBlockedNamesFuzzilyUnlessTurnedOff() throws IOException {
+        assertFalse(CreditRules.DEFAULT.isEligible("Jet Airways Ltd", 15000));
+
+        final CreditRules exactOnly = CreditRules.parse(new StringReader("block JETSAIRWAYS\nfuzzy-threshold 0\n"));
+        assertTrue(exactOnly.isEligible("Jet Airways Ltd", 15000));
+        assertFalse(exactOnly.isEligible("JETSAIRWAYS", 15000));
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.service;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketUpperBoundsContainTheirValues() {
+        for (long micros = 0; micros < 1_000_000; micros += 7) {
+            final int bucket = LatencyHistogram.bucketOf(micros);
+            assertTrue(micros <= LatencyHistogram.upperBoundOf(bucket));
+            if (bucket > 0) {
+                assertTrue(micros > LatencyHistogram.upperBoundOf(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void quantilesAreWithinBucketPrecision() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.record(millis, TimeUnit.MILLISECONDS);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(100_000, histogram.getMaxMicros());
+        final long median = histogram.quantileMicros(0.5);
+        assertTrue(median >= 50_000 && median <= 50_000 * 1.125);
+        final long p99 = histogram.quantileMicros(0.99);
+        assertTrue(p99 >= 99_000 && p99 <= 100_000);
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        assertEquals(0, new LatencyHistogram().quantileMicros(0.99));
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.service;
+
+import com.example.flow.CreditRatingResponseFlow;
+import com.example.flow.LoanResponseFlow;
+import com.example.flow.RequestCreditRatingFlow;
+import com.example.flow.RequestForLoanFlow;
+import com.example.state.LoanRequestState;
+import com.example.state.LoanVerificationState;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class LoanPipelineServiceTest {
+
+    private static final CordaX500Name CREDIT_AGENCY = new CordaX500Name("Credit Agency", "London", "GB");
+
+    private MockNetwork network;
+    private StartedMockNode financeNode;
+    private StartedMockNode bankNode;
+    private StartedMockNode creditAgencyNode;
+
+    @Before
+    public void setup() {
+        // read by the pipeline service when each node starts
+        System.setProperty(LoanPipelineService.STAGES_PROPERTY, "credit-rating,credit-response,loan-response");
+        System.setProperty(LoanPipelineService.CREDIT_AGENCY_PROPERTY, CREDIT_AGENCY.toString());
+        network = new MockNetwork(ImmutableList.of("com.example.contract", "com.example.schema", "com.example.service"));
+        financeNode = network.createPartyNode(null);
+        bankNode = network.createPartyNode(null);
+        creditAgencyNode = network.createPartyNode(CREDIT_AGENCY);
+        for (StartedMockNode node : ImmutableList.of(financeNode, bankNode, creditAgencyNode)) {
+            node.registerInitiatedFlow(RequestForLoanFlow.Acceptor.class);
+            node.registerInitiatedFlow(RequestCreditRatingFlow.Acceptor.class);
+            node.registerInitiatedFlow(CreditRatingResponseFlow.Acceptor.class);
+            node.registerInitiatedFlow(LoanResponseFlow.Acceptor.class);
+        }
+        network.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+        System.clearProperty(LoanPipelineService.STAGES_PROPERTY);
+        System.clearProperty(LoanPipelineService.CREDIT_AGENCY_PROPERTY);
+    }
+
+    @Test
+    public void loanApplicationIsAnsweredByTheBankWithoutFurtherCalls() throws Exception {
+        CordaFuture<SignedTransaction> future = financeNode.startFlow(new RequestForLoanFlow.Initiator(bankNode.getInfo().getLegalIdentities().get(0), 1000, "Boeing Company"));
+        network.runNetwork();
+        future.get();
+
+        // the pipeline starts each next flow on its own workers, keep pumping until the bank's answer arrives
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        LoanRequestState answered = answeredRequest();
+        while (answered == null && System.nanoTime() < deadline) {
+            network.runNetwork();
+            Thread.sleep(50);
+            answered = answeredRequest();
+        }
+
+        assertNotNull("the bank never answered the loan request", answered);
+        assertEquals(bankNode.getInfo().getLegalIdentities().get(0), answered.getBankNode());
+        final List<StateAndRef<LoanVerificationState>> verifications = creditAgencyNode.transaction(() ->
+                creditAgencyNode.getServices().getVaultService().queryBy(LoanVerificationState.class).getStates());
+        assertEquals(1, verifications.size());
+        assertEquals(answered.getLinearIdVerification(), verifications.get(0).getState().getData().getLinearId());
+    }
+
+    /** The finance agency's request once the bank has answered it, or null before. */
+    private LoanRequestState answeredRequest() {
+        return financeNode.transaction(() -> {
+            for (StateAndRef<LoanRequestState> request : financeNode.getServices().getVaultService().queryBy(LoanRequestState.class).getStates()) {
+                if (request.getState().getData().getLinearIdVerification() != null) {
+                    return request.getState().getData();
+                }
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SanctionsIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SanctionsIndex buildIndex(int names) throws IOException {
+        final Path list = folder.getRoot().toPath().resolve("sanctions.txt");
+        final Path index = folder.getRoot().toPath().resolve("sanctions.txt.idx");
+        try (BufferedWriter writer = Files.newBufferedWriter(list, StandardCharsets.UTF_8)) {
+            writer.write("# compliance export\n");
+            for (int i = 0; i < names; i++) {
+                writer.write("Listed Entity " + i + "\n");
+            }
+            if (names > 0) {
+                writer.write("listed entity 0\n");
+            }
+        }
+        SanctionsIndex.build(list, index);
+        return SanctionsIndex.open(index);
+    }
+
+    @Test
+    public void listedNamesAreFoundWhateverTheirCase() throws IOException {
+        final SanctionsIndex index = buildIndex(100000);
+
+        assertEquals(100000, index.size());
+        assertTrue(index.isListed("LISTED ENTITY 0"));
+        assertTrue(index.isListed("Listed  Entity 99999"));
+        assertFalse(index.isListed("Listed Entity 100000"));
+        assertFalse(index.isListed("Boeing Company"));
+        assertFalse(index.isListed(null));
+    }
+
+    @Test
+    public void bloomFilterAnswersMostUnlistedNames() throws IOException {
+        final SanctionsIndex index = buildIndex(100000);
+
+        for (int i = 0; i < 100000; i++) {
+            assertFalse(index.isListed("Unlisted Company " + i));
+        }
+        assertTrue("Bloom filter let too many names through: " + index.getProbed(), index.getProbed() < 2000);
+        assertEquals(100000, index.getFiltered() + index.getProbed());
+    }
+
+    @Test
+    public void emptyListListsNobody() throws IOException {
+        final SanctionsIndex index = buildIndex(0);
+
+        assertEquals(0, index.size());
+        assertFalse(index.isListed("Listed Entity 0"));
+    }
+}